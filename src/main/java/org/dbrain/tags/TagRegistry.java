@@ -0,0 +1,267 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags;
+
+import org.dbrain.tags.impl.TagIndex;
+import org.dbrain.tags.impl.TagUtils;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * Registry of class loaders and tag files added and removed at runtime, like the ones of plugins.
+ * <p>
+ * Registering a source parses its own tag files only, then publishes a new immutable {@link Snapshot} that shares
+ * the indexes of the other sources. Readers get the current snapshot with a single volatile read and never block,
+ * and a snapshot never changes once published, so a request sees the same sources from start to end.
+ */
+public class TagRegistry {
+
+    private final AtomicReference<Snapshot>            current   = new AtomicReference<>( new Snapshot( 0, Collections.emptyList() ) );
+    private final List<BiConsumer<Snapshot, Snapshot>> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Register the tag files of a class loader, those of its parent excepted. Classes are loaded by this class
+     * loader.
+     */
+    public Registration register( ClassLoader cl ) throws IOException {
+        List<URL> resources = TagUtils.listResources( cl );
+        if ( cl.getParent() != null ) {
+            resources.removeAll( TagUtils.listResources( cl.getParent() ) );
+        }
+        return register( cl, resources );
+    }
+
+    /**
+     * Register a set of tag files.
+     *
+     * @param cl The class loader of the tagged classes, or null for the class loader of this class.
+     */
+    public Registration register( ClassLoader cl, List<URL> resources ) throws IOException {
+        Registration registration = new Registration( cl, new ArrayList<>( resources ), TagUtils.loadIndex( resources, null, null ) );
+        publish( s -> s.with( registration ) );
+        return registration;
+    }
+
+    /**
+     * Remove a registration.
+     *
+     * @return False if it was not registered.
+     */
+    public boolean unregister( Registration registration ) {
+        return publish( s -> s.without( r -> r == registration ) );
+    }
+
+    /**
+     * Remove all the registrations of a class loader.
+     *
+     * @return False if it was not registered.
+     */
+    public boolean unregister( ClassLoader cl ) {
+        return publish( s -> s.without( r -> r.classLoader == cl ) );
+    }
+
+    /**
+     * @return The current snapshot of the registry.
+     */
+    public Snapshot snapshot() {
+        return current.get();
+    }
+
+    /**
+     * Be notified of the changes of the registry, with the previous and the new snapshot. Listeners are called on the
+     * thread that made the change, after it is published. Concurrent changes may be notified out of order, the
+     * versions of the snapshots tell which one is the latest. An exception thrown by a listener goes to the uncaught
+     * exception handler of the thread, without stopping the other listeners nor the change.
+     */
+    public void addListener( BiConsumer<Snapshot, Snapshot> listener ) {
+        listeners.add( listener );
+    }
+
+    /**
+     * Stop notifying a listener.
+     */
+    public void removeListener( BiConsumer<Snapshot, Snapshot> listener ) {
+        listeners.remove( listener );
+    }
+
+    /**
+     * Publish a change by compare and swap, retried if another change was published in between.
+     *
+     * @return False if the change leaves the registry as is.
+     */
+    private boolean publish( UnaryOperator<Snapshot> change ) {
+        Snapshot previous;
+        Snapshot next;
+        do {
+            previous = current.get();
+            next = change.apply( previous );
+            if ( next == previous ) {
+                return false;
+            }
+        } while ( !current.compareAndSet( previous, next ) );
+        for ( BiConsumer<Snapshot, Snapshot> listener : listeners ) {
+            try {
+                listener.accept( previous, next );
+            } catch ( RuntimeException e ) {
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException( thread, e );
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A source registered in the registry, with its parsed tag files.
+     */
+    public static class Registration {
+
+        private final ClassLoader classLoader;
+        private final List<URL>   resources;
+        private final TagIndex    index;
+
+        private Registration( ClassLoader classLoader, List<URL> resources, TagIndex index ) {
+            this.classLoader = classLoader;
+            this.resources = Collections.unmodifiableList( resources );
+            this.index = index;
+        }
+
+        /**
+         * @return The class loader of the tagged classes, or null for the class loader of the registry.
+         */
+        public ClassLoader getClassLoader() {
+            return classLoader;
+        }
+
+        /**
+         * @return The tag files of this source.
+         */
+        public List<URL> getResources() {
+            return resources;
+        }
+
+        /**
+         * @return The number of tagged classes of this source.
+         */
+        public int getClassCount() {
+            return index.getClassCount();
+        }
+
+        private ClassLoader getEffectiveClassLoader() {
+            return classLoader != null ? classLoader : TagRegistry.class.getClassLoader();
+        }
+    }
+
+    /**
+     * Immutable state of the registry.
+     */
+    public static class Snapshot {
+
+        private final long               version;
+        private final List<Registration> registrations;
+
+        private Snapshot( long version, List<Registration> registrations ) {
+            this.version = version;
+            this.registrations = Collections.unmodifiableList( registrations );
+        }
+
+        private Snapshot with( Registration registration ) {
+            List<Registration> result = new ArrayList<>( registrations.size() + 1 );
+            result.addAll( registrations );
+            result.add( registration );
+            return new Snapshot( version + 1, result );
+        }
+
+        private Snapshot without( Predicate<Registration> removed ) {
+            List<Registration> result = new ArrayList<>( registrations.size() );
+            for ( Registration r : registrations ) {
+                if ( !removed.test( r ) ) {
+                    result.add( r );
+                }
+            }
+            return result.size() < registrations.size() ? new Snapshot( version + 1, result ) : this;
+        }
+
+        /**
+         * @return The version of the snapshot, incremented by each change of the registry.
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * @return The registrations, in registration order.
+         */
+        public List<Registration> getRegistrations() {
+            return registrations;
+        }
+
+        /**
+         * List the classes tagged with a tag, by registration order then by class name. No class is loaded.
+         */
+        public List<Tags.ClassTags> listClassTags( String tagName ) {
+            List<Tags.ClassTags> result = new ArrayList<>();
+            for ( Registration r : registrations ) {
+                int tag = r.index.indexOfTag( tagName );
+                if ( tag >= 0 ) {
+                    r.index.classesWithTag( tag ).forEach( i -> result.add( new Tags.ClassTags( r.index, i ) ) );
+                }
+            }
+            return result;
+        }
+
+        /**
+         * List the names of the classes tagged with a tag, by registration order then by class name.
+         */
+        public List<String> listClassNames( String tagName ) {
+            List<String> result = new ArrayList<>();
+            for ( Tags.ClassTags tags : listClassTags( tagName ) ) {
+                result.add( tags.getClassName() );
+            }
+            return result;
+        }
+
+        /**
+         * List the classes, interfaces included, tagged with a tag and that load without error. Each class is loaded
+         * by the class loader of its registration.
+         */
+        public List<Class<?>> listAllClass( Class<?> tag ) {
+            List<Class<?>> result = new ArrayList<>();
+            for ( Registration r : registrations ) {
+                int t = r.index.indexOfTag( tag.getName() );
+                if ( t >= 0 ) {
+                    r.index.classesWithTag( t ).forEach( i -> {
+                        Class<?> c = TagUtils.loadClass( r.getEffectiveClassLoader(), r.index.getClassName( i ), null );
+                        if ( c != null ) {
+                            result.add( c );
+                        }
+                    } );
+                }
+            }
+            return result;
+        }
+    }
+
+}
@@ -16,41 +16,325 @@
 
 package org.dbrain.tags;
 
+import org.dbrain.tags.impl.AttributeTable;
+import org.dbrain.tags.impl.BoundedCache;
+import org.dbrain.tags.impl.Descriptors;
+import org.dbrain.tags.impl.FallbackScanner;
+import org.dbrain.tags.impl.InstanceFactories;
+import org.dbrain.tags.impl.SubtypeIndex;
+import org.dbrain.tags.impl.TagAttribute;
 import org.dbrain.tags.impl.TagEntry;
+import org.dbrain.tags.impl.TagEvents;
+import org.dbrain.tags.impl.TagIndex;
 import org.dbrain.tags.impl.TagUtils;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.annotation.Annotation;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Member;
 import java.lang.reflect.Modifier;
 import java.net.URL;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
  * Tags API.
  */
 public class Tags {
 
+    // Version of the tag files, bumped when they may have changed.
+    private static final AtomicLong INDEX_VERSION = new AtomicLong();
+
+    // Prepared queries of the static methods, by tag name.
+    private static final ConcurrentHashMap<String, PreparedQuery> BY_TAG = new ConcurrentHashMap<>();
+
+    // Default bounds of the caches.
+    private static final int  DEFAULT_CACHE_ENTRIES = 1024;
+    private static final long DEFAULT_CACHE_BYTES   = 64L * 1024 * 1024;
+
+    // Parsed indexes, by index version, tag files and tag names.
+    private static volatile BoundedCache<List<Object>, TagIndex> indexCache;
+
+    // Supertype graphs, by index version and tag files.
+    private static volatile BoundedCache<List<Object>, SubtypeIndex> subtypeIndexCache;
+
+    // Tables of the member and package attributes, by index version, tag files and attribute name.
+    private static volatile BoundedCache<List<Object>, AttributeTable> attributeTableCache;
+
+    // Tag files of the runtime scan, by index version, class loader and scan options.
+    private static volatile BoundedCache<List<Object>, List<URL>> scanCache;
+
+    // Results of the prepared queries, by query and class loader.
+    private static volatile BoundedCache<PreparedQuery.ResultKey, PreparedQuery.Results> resultCache;
+
+    // Ids of the tag names, used as bit positions in the tag sets of the classes.
+    private static final ConcurrentHashMap<String, Integer> TAG_IDS     = new ConcurrentHashMap<>();
+    private static final AtomicInteger                      NEXT_TAG_ID = new AtomicInteger();
+
+    private static final ClassValue<Integer> TAG_ID_OF = new ClassValue<Integer>() {
+
+        @Override
+        protected Integer computeValue( Class<?> tag ) {
+            return tagId( tag.getName() );
+        }
+    };
+
+    // Tags of the classes, resolved on first use and kept on the class itself.
+    private static final ClassValue<TagSetHolder> TAG_SETS = new ClassValue<TagSetHolder>() {
+
+        @Override
+        protected TagSetHolder computeValue( Class<?> type ) {
+            return new TagSetHolder();
+        }
+    };
+
+    // Indexes of the class loaders whose classes had their tags resolved, weakly keyed by class loader.
+    private static final Map<ClassLoader, LoaderIndex> LOADER_INDEXES = Collections.synchronizedMap( new WeakHashMap<>() );
+
+    static {
+        configureCache( DEFAULT_CACHE_ENTRIES, DEFAULT_CACHE_BYTES, BoundedCache.Eviction.LRU, BoundedCache.References.SOFT );
+    }
+
     /**
-     * Query all classes, including interfaces and abstract classes, tagged with the specific tag.
+     * Query all classes, including interfaces and abstract classes, tagged with the specific tag. Results are
+     * memoized until the next {@link #refresh()}.
      */
     public static List<Class> listAllClassByTag( Class<?> tagIntfOrAnnotation ) throws Exception {
-        return new Query().filterEntries( entry -> entry.getTagName().equals( tagIntfOrAnnotation.getName() ) ).listAllClass();
+        return new ArrayList<>( prepareByTag( tagIntfOrAnnotation ).listAllClass() );
     }
 
     /**
-     * Query all concrete classes tagged with the specific tag.
+     * Query all concrete classes tagged with the specific tag. Results are memoized until the next {@link #refresh()}.
      */
     public static List<Class> listClassByTag( Class<?> tagIntfOrAnnotation ) throws Exception {
-        return new Query().filterEntries( entry -> entry.getTagName().equals( tagIntfOrAnnotation.getName() ) ).listClass();
+        return new ArrayList<>( prepareByTag( tagIntfOrAnnotation ).listClass() );
+    }
+
+    /**
+     * Query the concrete classes of several tags at once. The tag files are read once and each class is loaded once,
+     * which is much cheaper than calling {@link #listClassByTag(Class)} for each tag.
+     */
+    public static Map<Class<?>, List<Class<?>>> listClassByTags( Class<?>... tagIntfOrAnnotations ) throws Exception {
+        return new Query().listClassByTags( Arrays.asList( tagIntfOrAnnotations ) );
+    }
+
+    private static PreparedQuery prepareByTag( Class<?> tagIntfOrAnnotation ) {
+        return BY_TAG.computeIfAbsent( tagIntfOrAnnotation.getName(), tagName -> new Query().filterTags( tagName ).prepare() );
+    }
+
+    /**
+     * @return The names of the tags of a class, as recorded in the tag files of its class loader. Tags are resolved
+     * once per class and index version, then read without any lookup in the index.
+     */
+    public static Set<String> tagsOf( Class<?> c ) {
+        return tagSetOf( c ).tags;
+    }
+
+    /**
+     * True if a class has a specific tag, as recorded in the tag files of its class loader. Once the tags of the class
+     * are resolved, this is a bit test that does not allocate nor hash the names.
+     */
+    public static boolean hasTag( Class<?> c, Class<?> tagIntfOrAnnotation ) {
+        int id = TAG_ID_OF.get( tagIntfOrAnnotation );
+        long[] bits = tagSetOf( c ).bits;
+        int word = id >>> 6;
+        return word < bits.length && ( bits[word] & ( 1L << id ) ) != 0;
+    }
+
+    private static int tagId( String tagName ) {
+        Integer result = TAG_IDS.get( tagName );
+        return result != null ? result : TAG_IDS.computeIfAbsent( tagName, k -> NEXT_TAG_ID.getAndIncrement() );
+    }
+
+    /**
+     * Retrieve the tags of a class, resolving them again if the tag files may have changed.
+     */
+    private static TagSet tagSetOf( Class<?> c ) {
+        TagSetHolder holder = TAG_SETS.get( c );
+        TagSet result = holder.tagSet;
+        long version = INDEX_VERSION.get();
+        if ( result == null || result.version != version ) {
+            result = resolveTagSet( c, version );
+            holder.tagSet = result;
+        }
+        return result;
+    }
+
+    private static TagSet resolveTagSet( Class<?> c, long version ) {
+        TagIndex index = loaderIndexOf( c.getClassLoader(), version );
+        int ordinal = index.indexOfClass( c.getName() );
+        if ( ordinal < 0 ) {
+            return new TagSet( version, Collections.emptySet(), new long[0] );
+        }
+        Set<String> tags = new HashSet<>( index.getTags( ordinal ) );
+        long[] bits = new long[0];
+        for ( String tagName : tags ) {
+            int id = tagId( tagName );
+            if ( ( id >>> 6 ) >= bits.length ) {
+                bits = Arrays.copyOf( bits, ( id >>> 6 ) + 1 );
+            }
+            bits[id >>> 6] |= 1L << id;
+        }
+        return new TagSet( version, Collections.unmodifiableSet( tags ), bits );
+    }
+
+    /**
+     * Retrieve the index of a class loader, loading it once per index version.
+     */
+    private static TagIndex loaderIndexOf( ClassLoader cl, long version ) {
+        LoaderIndex result = LOADER_INDEXES.get( cl );
+        if ( result == null || result.version != version ) {
+            try {
+                result = new LoaderIndex( version, new Query().classLoader( cl ).loadIndex() );
+            } catch ( IOException e ) {
+                throw new UncheckedIOException( e );
+            }
+            LOADER_INDEXES.put( cl, result );
+        }
+        return result.index;
+    }
+
+    /**
+     * Index of a class loader for an index version.
+     */
+    private static class LoaderIndex {
+
+        private final long     version;
+        private final TagIndex index;
+
+        private LoaderIndex( long version, TagIndex index ) {
+            this.version = version;
+            this.index = index;
+        }
+    }
+
+    /**
+     * Tags of a class for an index version, as names and as a bit set of tag ids.
+     */
+    private static class TagSet {
+
+        private final long        version;
+        private final Set<String> tags;
+        private final long[]      bits;
+
+        private TagSet( long version, Set<String> tags, long[] bits ) {
+            this.version = version;
+            this.tags = tags;
+            this.bits = bits;
+        }
+    }
+
+    /**
+     * Tag set of a class, replaced when the index version changes.
+     */
+    private static class TagSetHolder {
+
+        private volatile TagSet tagSet;
+
+    }
+
+    /**
+     * @return The current version of the tag files. Prepared queries recompute their results when it changes.
+     */
+    public static long getIndexVersion() {
+        return INDEX_VERSION.get();
+    }
+
+    /**
+     * Signal that the tag files may have changed, for instance after adding jars to a class loader. The results
+     * memoized by the prepared queries are recomputed on their next use.
+     */
+    public static void refresh() {
+        INDEX_VERSION.incrementAndGet();
+        indexCache.clear();
+        subtypeIndexCache.clear();
+        attributeTableCache.clear();
+        scanCache.clear();
+        resultCache.clear();
+        LOADER_INDEXES.clear();
+    }
+
+    /**
+     * Configure the caches beneath the queries, discarding their content. Parsed tag files, supertype graphs, member and
+     * package tables and tag files of the runtime scan are cached for all queries, and results of the prepared queries are cached per class
+     * loader. Each cache holds at most maxEntries entries and maxBytes estimated bytes.
+     * <p>
+     * Cached results hold the classes they loaded. They are referenced as specified by classReferences, so that with
+     * soft or weak references an unused class loader can be unloaded even if its results are cached. The default is
+     * 1024 entries, 64 MB, LRU eviction and soft references.
+     */
+    public static synchronized void configureCache( int maxEntries, long maxBytes, BoundedCache.Eviction eviction, BoundedCache.References classReferences ) {
+        indexCache = new BoundedCache<>( maxEntries, maxBytes, eviction, BoundedCache.References.STRONG, TagIndex::estimateBytes );
+        subtypeIndexCache = new BoundedCache<>( maxEntries, maxBytes, eviction, BoundedCache.References.STRONG, SubtypeIndex::estimateBytes );
+        attributeTableCache = new BoundedCache<>( maxEntries, maxBytes, eviction, BoundedCache.References.STRONG, AttributeTable::estimateBytes );
+        scanCache = new BoundedCache<>( maxEntries, maxBytes, eviction, BoundedCache.References.STRONG, urls -> 64 + 128L * urls.size() );
+        resultCache = new BoundedCache<>( maxEntries, maxBytes, eviction, classReferences, PreparedQuery.Results::estimateBytes );
+    }
+
+    /**
+     * @return The statistics of the cache of parsed tag files.
+     */
+    public static BoundedCache.Stats getIndexCacheStats() {
+        return indexCache.getStats();
+    }
+
+    /**
+     * @return The statistics of the cache of supertype graphs.
+     */
+    public static BoundedCache.Stats getSubtypeIndexCacheStats() {
+        return subtypeIndexCache.getStats();
+    }
+
+    /**
+     * @return The statistics of the cache of member and package tables.
+     */
+    public static BoundedCache.Stats getAttributeTableCacheStats() {
+        return attributeTableCache.getStats();
+    }
+
+    /**
+     * @return The statistics of the cache of the tag files of the runtime scan.
+     */
+    public static BoundedCache.Stats getScanCacheStats() {
+        return scanCache.getStats();
+    }
+
+    /**
+     * @return The statistics of the cache of prepared query results.
+     */
+    public static BoundedCache.Stats getResultCacheStats() {
+        return resultCache.getStats();
     }
 
 
@@ -58,6 +342,34 @@ public class Tags {
         return new Query();
     }
 
+    /**
+     * Cache key part identifying a class loader, without keeping it from being unloaded.
+     */
+    private static class LoaderKey {
+
+        private final WeakReference<ClassLoader> classLoader;
+        private final int                        hash;
+
+        private LoaderKey( ClassLoader classLoader ) {
+            this.classLoader = new WeakReference<>( classLoader );
+            this.hash = System.identityHashCode( classLoader );
+        }
+
+        @Override
+        public boolean equals( Object o ) {
+            if ( this == o ) return true;
+            if ( !( o instanceof LoaderKey ) ) return false;
+
+            ClassLoader cl = classLoader.get();
+            return cl != null && cl == ( (LoaderKey) o ).classLoader.get();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
     /**
      * Static methods to query tag databases built using the annotation processor.
      * <p>
@@ -67,13 +379,48 @@ public class Tags {
 
         private ClassLoader                      classLoader;
         private List<URL>                        externalResources;
+        private Set<String>                      tagNames;
         private Predicate<TagEntry>              entryFilter;
         private Predicate<ClassTags>             filter;
         private Consumer<ClassNotFoundException> onClassLoadError;
+        private BiConsumer<URL, URL>             onDuplicateResource;
+        private String                           packageName;
+        private boolean                          recursive;
+        private Predicate<Path>                  scanFilter;
+        private Path                             scanCacheDirectory;
+        private Set<String>                      scanTags;
 
         private Query() {
         }
 
+        /**
+         * @return A copy of this query, that does not share any mutable state.
+         */
+        private Query copy() {
+            Query result = new Query();
+            result.classLoader = classLoader;
+            result.externalResources = externalResources != null ? new ArrayList<>( externalResources ) : null;
+            result.tagNames = tagNames != null ? new HashSet<>( tagNames ) : null;
+            result.entryFilter = entryFilter;
+            result.filter = filter;
+            result.onClassLoadError = onClassLoadError;
+            result.onDuplicateResource = onDuplicateResource;
+            result.packageName = packageName;
+            result.recursive = recursive;
+            result.scanFilter = scanFilter;
+            result.scanCacheDirectory = scanCacheDirectory;
+            result.scanTags = scanTags;
+            return result;
+        }
+
+        /**
+         * Compile the query in an immutable, thread-safe query that memoizes its results. Later changes to this
+         * query do not affect the prepared query. The filters must be thread-safe and not depend on mutable state.
+         */
+        public PreparedQuery prepare() {
+            return new PreparedQuery( copy() );
+        }
+
         /**
          * Filter entries as read from the metadata info. Use this filter if you are interested only on
          * specific tags.
@@ -83,6 +430,15 @@ public class Tags {
             return this;
         }
 
+        /**
+         * Restrict the entries read from the metadata info to specific tags. Unlike a generic entry filter,
+         * compact tag files can skip the blocks that do not hold these tags without decoding them.
+         */
+        private Query filterTags( String... tagNames ) {
+            this.tagNames = new HashSet<>( Arrays.asList( tagNames ) );
+            return this;
+        }
+
         /**
          * @return The class loader that should be used.
          */
@@ -99,6 +455,19 @@ public class Tags {
             return this;
         }
 
+        /**
+         * Restrict the query to the classes of a package. The classes are selected by a range scan over the sorted
+         * class names of the index, so the cost depends on the number of classes in the package only.
+         *
+         * @param packageName The name of the package, like com.acme.billing. Empty for the default package.
+         * @param recursive   True to include the classes of the sub-packages.
+         */
+        public Query inPackage( String packageName, boolean recursive ) {
+            this.packageName = Objects.requireNonNull( packageName );
+            this.recursive = recursive;
+            return this;
+        }
+
         /**
          * Defines class loaders to search for metadata info.
          *
@@ -118,6 +487,16 @@ public class Tags {
             return this;
         }
 
+        /**
+         * Be notified of the tag files skipped because their content is identical to a previous one, like the same
+         * jar on two paths. The consumer receives the skipped file and the file it duplicates. Files are only read,
+         * and duplicates reported, when the parsed index is not already cached.
+         */
+        public Query onDuplicateResource( BiConsumer<URL, URL> consumer ) {
+            onDuplicateResource = consumer;
+            return this;
+        }
+
         /**
          * Add a user-defined entry file to be loaded.
          */
@@ -130,85 +509,719 @@ public class Tags {
         }
 
         /**
-         * Load all entries and return it in a set.
+         * Scan the class path jars that do not have a tag file, for those that may contain tagged classes. The jars
+         * are read without loading any class and the results are cached in a directory, keyed by the hash of the jar
+         * content, so each version of a jar is scanned once.
+         *
+         * @param jars           Filter selecting the jars that may contain tagged classes.
+         * @param cacheDirectory The directory holding the results.
+         * @param tags           Tag annotations or interfaces to look for, in addition to the types of the jar that
+         *                       are annotated with {@link Tag}.
+         */
+        public Query scanUnindexed( Predicate<Path> jars, Path cacheDirectory, Class<?>... tags ) {
+            scanFilter = Objects.requireNonNull( jars );
+            scanCacheDirectory = Objects.requireNonNull( cacheDirectory );
+            scanTags = Arrays.stream( tags ).map( Class::getName ).collect( Collectors.toSet() );
+            return this;
+        }
+
+        /**
+         * Scan the class path jars that do not have a tag file, caching the results in the default directory.
+         */
+        public Query scanUnindexed( Predicate<Path> jars, Class<?>... tags ) {
+            return scanUnindexed( jars, FallbackScanner.getDefaultCacheDirectory(), tags );
+        }
+
+        /**
+         * List the tag files to read.
          */
-        private Set<TagEntry> getEntries() throws IOException {
+        private List<URL> getResources() throws IOException {
             List<URL> resources = TagUtils.listResources( getEffectiveClassLoader() );
             // Add external resources, if any.
             if ( externalResources != null ) {
                 resources.addAll( externalResources );
             }
-            return TagUtils.loadEntries( resources, new HashSet<>(), entryFilter );
+            // Add the results of the fallback scan, if any, resolved once per index version.
+            if ( scanFilter != null ) {
+                ClassLoader cl = getEffectiveClassLoader();
+                List<Object> key = Arrays.asList( getIndexVersion(), new LoaderKey( cl ), scanFilter, scanCacheDirectory, scanTags );
+                resources.addAll( scanCache.get( key, k -> {
+                    List<Path> jars = FallbackScanner.listClassPathJars( cl ).stream().filter( scanFilter ).collect( Collectors.toList() );
+                    return Collections.unmodifiableList( new FallbackScanner( scanCacheDirectory, scanTags ).resolve( jars, Runtime.getRuntime().availableProcessors() ) );
+                } ) );
+            }
+            return resources;
+        }
+
+        /**
+         * Load the entries in a columnar index. Indexes are cached unless the entries are filtered by a predicate.
+         */
+        private TagIndex loadIndex() throws IOException {
+            List<URL> resources = getResources();
+            if ( entryFilter != null ) {
+                return TagUtils.loadIndex( resources, tagNames, entryFilter, onDuplicateResource );
+            }
+            List<Object> key = Arrays.asList( getIndexVersion(),
+                                              resources.stream().map( URL::toString ).collect( Collectors.toList() ),
+                                              tagNames != null ? new TreeSet<>( tagNames ) : null );
+            return indexCache.get( key, k -> TagUtils.loadIndex( resources, tagNames, null, onDuplicateResource ) );
+        }
+
+        /**
+         * Aggregate the entries in classes and filter them if necessary. Returned tags are sorted by class name.
+         */
+        private List<ClassTags> select() throws IOException {
+            TagIndex index = loadIndex();
+            Object event = TagEvents.begin( TagEvents.Type.SELECT );
+            IntStream ordinals = packageName != null ? index.classesInPackage( packageName, recursive ) : IntStream.range( 0, index.getClassCount() );
+            List<ClassTags> result = new ArrayList<>();
+            ordinals.forEach( i -> {
+                ClassTags tags = new ClassTags( index, i );
+                if ( filter == null || filter.test( tags ) ) {
+                    result.add( tags );
+                }
+            } );
+            TagEvents.endSelect( event, index.getClassCount(), result.size() );
+            return result;
         }
 
         /**
          * Aggregate the entries in classes and filter them if necessary.
          */
         public Map<String, ClassTags> mapTagsByClassName() throws IOException {
-            Set<TagEntry> entries = getEntries();
-
-            Map<String, ClassTags> result = new HashMap<>( entries.size() );
-            for ( TagEntry e : entries ) {
-                ClassTags tags = result.get( e.getClassName() );
-                if ( tags == null ) {
-                    tags = new ClassTags( e.getClassName(), new HashSet<>() );
-                    result.put( e.getClassName(), tags );
-                }
-                tags.getTags().add( e.getTagName() );
+            List<ClassTags> tags = select();
+            Map<String, ClassTags> result = new LinkedHashMap<>( tags.size() * 2 );
+            for ( ClassTags t : tags ) {
+                result.put( t.getClassName(), t );
             }
+            return result;
+        }
 
-            // Filter the tags
-            if ( filter != null ) {
-                for ( ClassTags e : new ArrayList<>( result.values() ) ) {
-                    if ( !filter.test( e ) ) {
-                        result.remove( e.getClassName() );
-                    }
+        /**
+         * List the tags, sorted by class name.
+         */
+        public List<ClassTags> listAsClassTags() throws IOException {
+            return select();
+        }
+
+        /**
+         * Group the tags by the values of a tag attribute recorded in the index. Groups are sorted by value and a
+         * class having several values for the attribute belongs to several groups.
+         */
+        public Map<String, List<ClassTags>> groupByAttribute( String tagName, String name ) throws IOException {
+            Map<String, List<ClassTags>> result = new TreeMap<>();
+            for ( ClassTags tags : select() ) {
+                for ( String value : tags.getAttributeValues( tagName, name ) ) {
+                    result.computeIfAbsent( value, k -> new ArrayList<>() ).add( tags );
                 }
             }
+            return result;
+        }
+
+        /**
+         * Group the tags by the values of an attribute of a tag annotation.
+         */
+        public Map<String, List<ClassTags>> groupByAttribute( Class<? extends Annotation> tag, String name ) throws IOException {
+            return groupByAttribute( tag.getName(), name );
+        }
 
+        /**
+         * List the methods, constructors and fields annotated with a tag, sorted by class and member. Members are read
+         * from the index without loading any class. The other criteria of the query do not apply, since the classes
+         * declaring the members are usually not tagged.
+         */
+        public List<TaggedMember> listMembers( String tagName ) throws IOException {
+            List<TagAttribute> attributes = loadAttributeTable( TagAttribute.MEMBER ).get( tagName );
+            List<TaggedMember> result = new ArrayList<>( attributes.size() );
+            for ( TagAttribute a : attributes ) {
+                result.add( new TaggedMember( a.getClassName(), a.getTagName(), a.getValue() ) );
+            }
+            result.sort( Comparator.comparing( TaggedMember::toString ) );
             return result;
         }
 
         /**
-         * List the tags.
+         * List the methods, constructors and fields annotated with a tag annotation.
          */
-        public List<ClassTags> listAsClassTags() throws IOException {
-            List<ClassTags> result = new ArrayList<>( mapTagsByClassName().values() );
-            result.sort( Comparator.comparing( tags -> tags.getClassName() ) );
+        public List<TaggedMember> listMembers( Class<? extends Annotation> tag ) throws IOException {
+            return listMembers( tag.getName() );
+        }
+
+        /**
+         * List the packages tagged with a tag, sorted by name. The classes of these packages are tagged as well and
+         * carry the name of the package in their {@link TagAttribute#PACKAGE} attribute. Packages are read from a table
+         * cached like the members, and the other criteria of the query do not apply.
+         */
+        public List<String> listPackageNames( String tagName ) throws IOException {
+            List<TagAttribute> attributes = loadAttributeTable( TagAttribute.PACKAGE ).get( tagName );
+            return attributes.stream().map( TagAttribute::getValue ).distinct().sorted().collect( Collectors.toList() );
+        }
+
+        /**
+         * List the packages tagged with a tag annotation.
+         */
+        public List<String> listPackageNames( Class<? extends Annotation> tag ) throws IOException {
+            return listPackageNames( tag.getName() );
+        }
+
+        /**
+         * List the subtypes of a type, direct or not, sorted by name. Subtypes are read from the supertypes recorded
+         * by the annotation processor with the org.dbrain.tags.supertypes option, so the type does not need to be
+         * tagged and no class is loaded. The other criteria of the query do not apply.
+         *
+         * @param concreteOnly True to exclude the interfaces and abstract classes.
+         */
+        public List<String> listSubtypeNames( String typeName, boolean concreteOnly ) throws IOException {
+            return loadSubtypeIndex().subtypesOf( typeName, concreteOnly );
+        }
+
+        /**
+         * List the subtypes of a type, sorted by name.
+         */
+        public List<String> listSubtypeNames( Class<?> type, boolean concreteOnly ) throws IOException {
+            return listSubtypeNames( type.getName(), concreteOnly );
+        }
+
+        /**
+         * List the concrete subtypes of a type that load without error, sorted by name.
+         */
+        public <T> List<Class<? extends T>> listSubtypes( Class<T> type ) throws IOException {
+            ClassLoader cl = getEffectiveClassLoader();
+            List<Class<? extends T>> result = new ArrayList<>();
+            for ( String className : listSubtypeNames( type, true ) ) {
+                Class<?> c = TagUtils.loadClass( cl, className, onClassLoadError );
+                if ( c != null && type.isAssignableFrom( c ) ) {
+                    result.add( c.asSubclass( type ) );
+                }
+            }
             return result;
         }
 
         /**
-         * List the classes.
+         * Load the table of an attribute from all the tag files. Tables are cached until the next {@link #refresh()}.
+         */
+        private AttributeTable loadAttributeTable( String name ) throws IOException {
+            List<URL> resources = getResources();
+            List<Object> key = Arrays.asList( getIndexVersion(), resources.stream().map( URL::toString ).collect( Collectors.toList() ), name );
+            return attributeTableCache.get( key, k -> AttributeTable.build( name, TagUtils.loadAttributes( resources, new ArrayList<>(), null, a ->
+                    a.getName().equals( name ) ) ) );
+        }
+
+        /**
+         * Load the supertype graph of all the tag files. Graphs are cached with their memoized closures until the next
+         * {@link #refresh()}.
+         */
+        private SubtypeIndex loadSubtypeIndex() throws IOException {
+            List<URL> resources = getResources();
+            List<Object> key = Arrays.asList( getIndexVersion(), resources.stream().map( URL::toString ).collect( Collectors.toList() ) );
+            return subtypeIndexCache.get( key, k -> SubtypeIndex.build( TagUtils.loadAttributes( resources, new ArrayList<>(), Collections.emptySet(), a ->
+                    a.getName().equals( TagAttribute.SUPER ) || a.getName().equals( TagAttribute.ABSTRACT ) ) ) );
+        }
+
+        /**
+         * List the classes, sorted by name.
          */
         public List<String> listClassNames() throws IOException {
-            return mapTagsByClassName().values().stream().map( tags -> tags.getClassName() ).sorted().collect( Collectors.toList() );
+            return select().stream().map( tags -> tags.getClassName() ).collect( Collectors.toList() );
+        }
+
+        /**
+         * List the classes of several tags in one pass over the tag files, sorted by name. Every tag of the
+         * collection has an entry in the result, in iteration order, even if no class has the tag.
+         */
+        public Map<String, List<String>> listClassNamesByTags( Collection<String> tagNames ) throws IOException {
+            Map<String, List<String>> result = new LinkedHashMap<>();
+            for ( String tagName : tagNames ) {
+                result.put( tagName, new ArrayList<>() );
+            }
+            Query q = copy();
+            q.tagNames = new HashSet<>( tagNames );
+            if ( this.tagNames != null ) {
+                q.tagNames.retainAll( this.tagNames );
+            }
+            for ( ClassTags tags : q.select() ) {
+                for ( String tagName : tags.getTags() ) {
+                    List<String> classes = result.get( tagName );
+                    if ( classes != null ) {
+                        classes.add( tags.getClassName() );
+                    }
+                }
+            }
+            return result;
+        }
+
+        /**
+         * List the concrete classes of several tags in one pass over the tag files, sorted by name. Classes with
+         * several of the tags are loaded once. Every tag has an entry in the result, in iteration order.
+         */
+        public Map<Class<?>, List<Class<?>>> listClassByTags( Collection<? extends Class<?>> tags ) throws IOException {
+            Map<String, Class<?>> tagsByName = new LinkedHashMap<>();
+            for ( Class<?> tag : tags ) {
+                tagsByName.put( tag.getName(), tag );
+            }
+            Map<String, List<String>> names = listClassNamesByTags( tagsByName.keySet() );
+            ClassLoader cl = getEffectiveClassLoader();
+            Map<String, Class<?>> loaded = new HashMap<>();
+            Map<Class<?>, List<Class<?>>> result = new LinkedHashMap<>();
+            for ( Map.Entry<String, List<String>> e : names.entrySet() ) {
+                List<Class<?>> classes = new ArrayList<>( e.getValue().size() );
+                for ( String className : e.getValue() ) {
+                    // Classes that fail to load are remembered as null.
+                    Class<?> c = loaded.containsKey( className ) ? loaded.get( className ) : TagUtils.loadClass( cl, className, onClassLoadError );
+                    loaded.put( className, c );
+                    if ( c != null && isConcrete( c ) ) {
+                        classes.add( c );
+                    }
+                }
+                result.put( tagsByName.get( e.getKey() ), classes );
+            }
+            return result;
+        }
+
+        /**
+         * True if the class is neither an interface nor abstract.
+         */
+        private static boolean isConcrete( Class<?> c ) {
+            return !c.isInterface() && !Modifier.isAbstract( c.getModifiers() );
+        }
+
+        /**
+         * Load the classes that match the query, stopping early if the task is cancelled.
+         *
+         * @param task    The task to check for cancellation, or null.
+         * @param onClass Called on each class as soon as it is loaded, or null.
+         */
+        private List<Class> loadClasses( boolean concreteOnly, Future<?> task, Consumer<? super Class<?>> onClass ) throws IOException {
+            return loadClasses( getEffectiveClassLoader(), select(), concreteOnly, task, onClass );
+        }
+
+        /**
+         * Load the classes of selected tags with a class loader.
+         */
+        private List<Class> loadClasses( ClassLoader cl, List<ClassTags> selected, boolean concreteOnly, Future<?> task, Consumer<? super Class<?>> onClass ) {
+            List<Class> result = new ArrayList<>();
+            for ( ClassTags tags : selected ) {
+                if ( task != null && task.isCancelled() ) {
+                    break;
+                }
+                Class<?> c = TagUtils.loadClass( cl, tags.getClassName(), onClassLoadError );
+                if ( c != null && ( !concreteOnly || isConcrete( c ) ) ) {
+                    result.add( c );
+                    if ( onClass != null ) {
+                        onClass.accept( c );
+                    }
+                }
+            }
+            return result;
         }
 
         /**
          * List the classes or interfaces that match the query and loads without error.
          */
         public List<Class> listAllClass() throws Exception {
-            return mapTagsByClassName() //
-                    .values() //
-                    .stream() //
-                    .map( tags -> TagUtils.loadClass( getEffectiveClassLoader(), tags.getClassName(), onClassLoadError ) ) //
-                    .filter( ( c ) -> c != null ) //
-                    .collect( Collectors.toList() ); //
+            return loadClasses( false, null, null );
         }
 
         /**
          * List the concrete class that match the query and loads without error.
          */
         public List<Class> listClass() throws Exception {
-            return mapTagsByClassName() //
-                    .values() //
-                    .stream() //
-                    .map( tags -> TagUtils.loadClass( getEffectiveClassLoader(), tags.getClassName(), onClassLoadError ) ) //
-                    .filter( ( c ) -> c != null && !c.isInterface() && !Modifier.isAbstract( c.getModifiers() ) ) //
-                    .collect( Collectors.toList() ); //
+            return loadClasses( true, null, null );
         }
 
+        /**
+         * Asynchronous version of {@link #listAllClass()}, running on the specified executor.
+         * <p>
+         * Cancelling the returned future stops the loading of the remaining classes. The query must not be modified
+         * until the future completes.
+         */
+        public CompletableFuture<List<Class>> listAllClassAsync( Executor executor ) {
+            return runAsync( executor, task -> loadClasses( false, task, null ) );
+        }
+
+        /**
+         * Asynchronous version of {@link #listClass()}, running on the specified executor.
+         * <p>
+         * Cancelling the returned future stops the loading of the remaining classes. The query must not be modified
+         * until the future completes.
+         */
+        public CompletableFuture<List<Class>> listClassAsync( Executor executor ) {
+            return runAsync( executor, task -> loadClasses( true, task, null ) );
+        }
+
+        /**
+         * Load the concrete classes that match the query on the specified executor and hand each of them to the
+         * consumer as soon as it is resolved.
+         * <p>
+         * The consumer is called on the loading thread, so loading never runs ahead of the consumer. Cancelling the
+         * returned future stops the loading of the remaining classes.
+         */
+        public CompletableFuture<Void> forEachClassAsync( Executor executor, Consumer<? super Class<?>> consumer ) {
+            return runAsync( executor, task -> {
+                loadClasses( true, task, consumer );
+                return null;
+            } );
+        }
+
+        /**
+         * List a factory for each concrete class that match the query and is assignable to the specified type.
+         * <p>
+         * Factories generated by the annotation processor are used when the index records them, otherwise
+         * constructors are resolved once per class and cached as method handles. Either way, calling the factories
+         * does not go through reflection. A factory throws an IllegalStateException if its class does not have a non-private
+         * no-arg constructor.
+         */
+        public <T> List<Supplier<T>> listFactories( Class<T> type ) throws Exception {
+            ClassLoader cl = getEffectiveClassLoader();
+            List<Supplier<T>> result = new ArrayList<>();
+            for ( ClassTags tags : select() ) {
+                Class<?> c = TagUtils.loadClass( cl, tags.getClassName(), onClassLoadError );
+                if ( c != null && isConcrete( c ) && type.isAssignableFrom( c ) ) {
+                    result.add( InstanceFactories.get( c.asSubclass( type ), tags.getAttribute( "", TagAttribute.FACTORY ) ) );
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Create an instance of each concrete class that match the query and is assignable to the specified type.
+         */
+        public <T> List<T> instantiate( Class<T> type ) throws Exception {
+            return instantiate( type, false );
+        }
+
+        /**
+         * Create an instance of each concrete class that match the query and is assignable to the specified type,
+         * optionally creating the instances in parallel. The result keeps the order of the classes.
+         */
+        public <T> List<T> instantiate( Class<T> type, boolean parallel ) throws Exception {
+            List<Supplier<T>> factories = listFactories( type );
+            Stream<Supplier<T>> stream = parallel ? factories.parallelStream() : factories.stream();
+            return stream.map( Supplier::get ).collect( Collectors.toList() );
+        }
+
+        /**
+         * Body of an asynchronous query, receiving its own future to check for cancellation.
+         */
+        private interface AsyncTask<T> {
+
+            T run( CompletableFuture<T> task ) throws Exception;
+
+        }
+
+        private <T> CompletableFuture<T> runAsync( Executor executor, AsyncTask<T> body ) {
+            CompletableFuture<T> result = new CompletableFuture<>();
+            try {
+                executor.execute( () -> {
+                    if ( result.isDone() ) {
+                        return;
+                    }
+                    try {
+                        result.complete( body.run( result ) );
+                    } catch ( Throwable t ) {
+                        result.completeExceptionally( t );
+                    }
+                } );
+            } catch ( RejectedExecutionException e ) {
+                result.completeExceptionally( e );
+            }
+            return result;
+        }
+
+    }
+
+    /**
+     * Immutable query, compiled from a {@link Query}, that can be shared between threads.
+     * <p>
+     * Results are computed on first use and memoized per class loader and per {@link #getIndexVersion() index version},
+     * then read without locking. Returned lists are read-only. Memoized results are kept in a bounded cache shared by
+     * all the prepared queries, see {@link #configureCache}.
+     */
+    public static class PreparedQuery {
+
+        private final Query query;
+
+        private PreparedQuery( Query query ) {
+            this.query = query;
+        }
+
+        // Class loaders of the cached results that were garbage collected.
+        private static final ReferenceQueue<ClassLoader> CLEARED_LOADERS = new ReferenceQueue<>();
+
+        /**
+         * Key of the results of a query for a class loader. The class loader is weakly referenced.
+         */
+        private static class ResultKey {
+
+            private final PreparedQuery                query;
+            private final WeakReference<ClassLoader>   classLoader;
+            private final int                          hash;
+
+            /**
+             * @param queue The queue notified when the class loader is collected, null for a lookup key.
+             */
+            private ResultKey( PreparedQuery query, ClassLoader classLoader, ReferenceQueue<ClassLoader> queue ) {
+                this.query = query;
+                this.classLoader = new LoaderReference( classLoader, queue, this );
+                this.hash = 31 * System.identityHashCode( query ) + System.identityHashCode( classLoader );
+            }
+
+            @Override
+            public boolean equals( Object o ) {
+                if ( this == o ) return true;
+                if ( !( o instanceof ResultKey ) ) return false;
+
+                ResultKey key = (ResultKey) o;
+                ClassLoader cl = classLoader.get();
+                return query == key.query && cl != null && cl == key.classLoader.get();
+            }
+
+            @Override
+            public int hashCode() {
+                return hash;
+            }
+        }
+
+        /**
+         * Weak reference to a class loader that remembers its key, to remove it from the cache once collected.
+         */
+        private static class LoaderReference extends WeakReference<ClassLoader> {
+
+            private final ResultKey key;
+
+            private LoaderReference( ClassLoader classLoader, ReferenceQueue<ClassLoader> queue, ResultKey key ) {
+                super( classLoader, queue );
+                this.key = key;
+            }
+        }
+
+        /**
+         * Remove the results of the class loaders that were collected.
+         */
+        private static void purgeClearedLoaders( BoundedCache<ResultKey, Results> cache ) {
+            for ( Reference<? extends ClassLoader> ref = CLEARED_LOADERS.poll(); ref != null; ref = CLEARED_LOADERS.poll() ) {
+                cache.remove( ( (LoaderReference) ref ).key );
+            }
+        }
+
+        /**
+         * Results memoized for a class loader. The class loader itself is only referenced by the key, weakly.
+         */
+        private static class Results {
+
+            private final long            version;
+            private final List<ClassTags> tags;
+            private volatile List<Class>  allClasses;
+            private volatile List<Class>  concreteClasses;
+
+            private Results( long version, List<ClassTags> tags ) {
+                this.version = version;
+                this.tags = tags;
+            }
+
+            private long estimateBytes() {
+                return 128 + 64L * tags.size();
+            }
+        }
+
+        private ClassLoader getEffectiveClassLoader( ClassLoader cl ) {
+            return cl != null ? cl : query.getEffectiveClassLoader();
+        }
+
+        /**
+         * @param effective The class loader of the results, see {@link #getEffectiveClassLoader(ClassLoader)}.
+         */
+        private Results getResults( ClassLoader effective ) throws IOException {
+            long version = getIndexVersion();
+            ResultKey key = new ResultKey( this, effective, null );
+            BoundedCache<ResultKey, Results> cache = resultCache;
+            Results r = cache.get( key );
+            if ( r == null || r.version != version ) {
+                // Concurrent first calls may compute the same results, the last one wins.
+                Query q = query.copy();
+                q.classLoader = effective;
+                r = new Results( version, Collections.unmodifiableList( q.select() ) );
+                purgeClearedLoaders( cache );
+                cache.put( new ResultKey( this, effective, CLEARED_LOADERS ), r );
+            }
+            return r;
+        }
+
+        /**
+         * List the tags, sorted by class name.
+         */
+        public List<ClassTags> listAsClassTags() throws IOException {
+            return listAsClassTags( null );
+        }
+
+        /**
+         * List the tags found with a specific class loader, sorted by class name.
+         */
+        public List<ClassTags> listAsClassTags( ClassLoader cl ) throws IOException {
+            return getResults( getEffectiveClassLoader( cl ) ).tags;
+        }
+
+        /**
+         * List the classes, sorted by name.
+         */
+        public List<String> listClassNames() throws IOException {
+            return listClassNames( null );
+        }
+
+        /**
+         * List the classes found with a specific class loader, sorted by name.
+         */
+        public List<String> listClassNames( ClassLoader cl ) throws IOException {
+            return getResults( getEffectiveClassLoader( cl ) ).tags.stream().map( ClassTags::getClassName ).collect( Collectors.collectingAndThen( Collectors.toList(), Collections::unmodifiableList ) );
+        }
+
+        /**
+         * List the classes or interfaces that match the query and loads without error.
+         */
+        public List<Class> listAllClass() throws IOException {
+            return listAllClass( null );
+        }
+
+        /**
+         * List the classes or interfaces that match the query and loads without error with a specific class loader.
+         */
+        public List<Class> listAllClass( ClassLoader cl ) throws IOException {
+            ClassLoader effective = getEffectiveClassLoader( cl );
+            return getAllClasses( effective, getResults( effective ) );
+        }
+
+        private List<Class> getAllClasses( ClassLoader effective, Results r ) {
+            List<Class> result = r.allClasses;
+            if ( result == null ) {
+                result = Collections.unmodifiableList( query.loadClasses( effective, r.tags, false, null, null ) );
+                r.allClasses = result;
+            }
+            return result;
+        }
+
+        /**
+         * List the concrete classes that match the query and loads without error.
+         */
+        public List<Class> listClass() throws IOException {
+            return listClass( null );
+        }
+
+        /**
+         * List the concrete classes that match the query and loads without error with a specific class loader.
+         */
+        public List<Class> listClass( ClassLoader cl ) throws IOException {
+            ClassLoader effective = getEffectiveClassLoader( cl );
+            Results r = getResults( effective );
+            List<Class> result = r.concreteClasses;
+            if ( result == null ) {
+                result = Collections.unmodifiableList( getAllClasses( effective, r ).stream().filter( Query::isConcrete ).collect( Collectors.toList() ) );
+                r.concreteClasses = result;
+            }
+            return result;
+        }
+
+    }
+
+    /**
+     * A method, constructor or field annotated with a tag.
+     */
+    public static class TaggedMember {
+
+        private final String className;
+        private final String tagName;
+        private final String name;
+        private final String descriptor;
+
+        /**
+         * @param member The name of the member followed by its descriptor, as recorded in the index.
+         */
+        private TaggedMember( String className, String tagName, String member ) {
+            int split = member.indexOf( ':' ) >= 0 ? member.indexOf( ':' ) : member.indexOf( '(' );
+            this.className = className;
+            this.tagName = tagName;
+            this.name = member.substring( 0, split );
+            this.descriptor = member.charAt( split ) == ':' ? member.substring( split + 1 ) : member.substring( split );
+        }
+
+        /**
+         * @return The name of the class declaring the member.
+         */
+        public String getClassName() {
+            return className;
+        }
+
+        /**
+         * @return The name of the tag's class.
+         */
+        public String getTagName() {
+            return tagName;
+        }
+
+        /**
+         * @return The name of the member, &lt;init&gt; for constructors.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The erased JVM descriptor of the member, like (Ljava/lang/String;)V for a method or I for a field.
+         */
+        public String getDescriptor() {
+            return descriptor;
+        }
+
+        /**
+         * True if the member is a field.
+         */
+        public boolean isField() {
+            return !descriptor.startsWith( "(" );
+        }
+
+        /**
+         * True if the member is a constructor.
+         */
+        public boolean isConstructor() {
+            return name.equals( "<init>" );
+        }
+
+        /**
+         * Resolve the member with a direct lookup on its declaring class, without scanning the class members.
+         *
+         * @return A Method, Constructor or Field.
+         */
+        public Member resolve( ClassLoader cl ) throws ReflectiveOperationException {
+            Class<?> owner = Class.forName( className, false, cl );
+            if ( isField() ) {
+                return owner.getDeclaredField( name );
+            }
+            List<String> parameters = Descriptors.parameterDescriptors( descriptor );
+            Class<?>[] parameterTypes = new Class<?>[parameters.size()];
+            for ( int i = 0; i < parameterTypes.length; i++ ) {
+                parameterTypes[i] = Descriptors.toClass( parameters.get( i ), cl );
+            }
+            return isConstructor() ? owner.getDeclaredConstructor( parameterTypes ) : owner.getDeclaredMethod( name, parameterTypes );
+        }
+
+        @Override
+        public boolean equals( Object o ) {
+            if ( this == o ) return true;
+            if ( o == null || getClass() != o.getClass() ) return false;
+
+            TaggedMember impl = (TaggedMember) o;
+
+            return toString().equals( impl.toString() ) && tagName.equals( impl.tagName );
+        }
+
+        @Override
+        public int hashCode() {
+            return toString().hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return className + '#' + name + ( isField() ? ":" : "" ) + descriptor;
+        }
 
     }
 
@@ -219,10 +1232,24 @@ public class Tags {
 
         private final String      className;
         private final Set<String> tags;
+        private final TagIndex    index;
+        private final int         classOrdinal;
 
         public ClassTags( String className, Set<String> tags ) {
             this.className = className;
             this.tags = tags;
+            this.index = null;
+            this.classOrdinal = -1;
+        }
+
+        /**
+         * Flyweight view over a class of an index.
+         */
+        ClassTags( TagIndex index, int classOrdinal ) {
+            this.className = index.getClassName( classOrdinal );
+            this.tags = index.getTags( classOrdinal );
+            this.index = index;
+            this.classOrdinal = classOrdinal;
         }
 
         /**
@@ -239,6 +1266,59 @@ public class Tags {
             return tags;
         }
 
+        /**
+         * @param tagName The name of the tag, or an empty string for an attribute of the class itself.
+         * @return The first value of an attribute recorded in the index, or null if there is none.
+         */
+        public String getAttribute( String tagName, String name ) {
+            return index != null ? index.getAttribute( classOrdinal, tagName, name ) : null;
+        }
+
+        /**
+         * @param tagName The name of the tag, or an empty string for an attribute of the class itself.
+         * @return All the values of an attribute recorded in the index.
+         */
+        public List<String> getAttributeValues( String tagName, String name ) {
+            return index != null ? index.getAttributeValues( classOrdinal, tagName, name ) : Collections.emptyList();
+        }
+
+        /**
+         * @return The first value of an attribute of a tag annotation, or null if there is none.
+         */
+        public String getAttribute( Class<? extends Annotation> tag, String name ) {
+            return getAttribute( tag.getName(), name );
+        }
+
+        /**
+         * @return All the values of an attribute of a tag annotation. Arrays have one value per element.
+         */
+        public List<String> getAttributeValues( Class<? extends Annotation> tag, String name ) {
+            return getAttributeValues( tag.getName(), name );
+        }
+
+        /**
+         * True if an attribute of a tag annotation has the specific value. For arrays, true if any element has it.
+         */
+        public boolean hasAttribute( Class<? extends Annotation> tag, String name, String value ) {
+            return getAttributeValues( tag.getName(), name ).contains( value );
+        }
+
+        /**
+         * @return The names of the type arguments bound by the class to a generic tag interface, as recorded in its
+         * {@link TagAttribute#TYPE_ARGUMENTS} attribute, or an empty list if there is none.
+         */
+        public List<String> getTypeArguments( String tagName ) {
+            String value = getAttribute( tagName, TagAttribute.TYPE_ARGUMENTS );
+            return value != null ? Arrays.asList( value.split( "," ) ) : Collections.emptyList();
+        }
+
+        /**
+         * @return The names of the type arguments bound by the class to a generic tag interface.
+         */
+        public List<String> getTypeArguments( Class<?> tag ) {
+            return getTypeArguments( tag.getName() );
+        }
+
         /**
          * True if the class has the specific tag.
          */
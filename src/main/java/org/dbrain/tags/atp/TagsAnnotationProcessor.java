@@ -17,65 +17,126 @@ package org.dbrain.tags.atp;
 
 
 import org.dbrain.tags.Tag;
+import org.dbrain.tags.impl.Descriptors;
+import org.dbrain.tags.impl.TagAttribute;
 import org.dbrain.tags.impl.TagEntry;
+import org.dbrain.tags.impl.TagFileFormat;
 import org.dbrain.tags.impl.TagUtils;
 
 import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.FilerException;
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.annotation.processing.RoundEnvironment;
 import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
 import javax.annotation.processing.SupportedSourceVersion;
 import javax.lang.model.SourceVersion;
 import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
 import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
 import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
 import javax.lang.model.type.DeclaredType;
 import javax.lang.model.type.TypeMirror;
 import javax.lang.model.util.Elements;
+import javax.lang.model.util.SimpleAnnotationValueVisitor8;
 import javax.lang.model.util.Types;
 import javax.tools.Diagnostic;
 import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
 import javax.tools.StandardLocation;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 
 /**
  * Tag annotation processor.
  */
 @SupportedAnnotationTypes( value = { "*" } )
+@SupportedOptions( value = { TagsAnnotationProcessor.FORMAT_OPTION, TagsAnnotationProcessor.FACTORIES_OPTION, TagsAnnotationProcessor.SUPERTYPES_OPTION } )
 @SupportedSourceVersion( SourceVersion.RELEASE_8 )
 @SuppressWarnings( "unused" ) // Used by compiler :)
 public class TagsAnnotationProcessor extends AbstractProcessor {
 
-    private Map<String, Set<TagEntry>> tagByClasses;
+    /**
+     * Processor option selecting the tag file format: text (default), compact or compact-deflate.
+     */
+    public static final String FORMAT_OPTION = "org.dbrain.tags.format";
+
+    /**
+     * Processor option enabling the generation of factory classes for concrete tagged classes.
+     */
+    public static final String FACTORIES_OPTION = "org.dbrain.tags.factories";
+
+    /**
+     * Processor option recording the direct supertypes of all the compiled types, to query subtypes at runtime.
+     */
+    public static final String SUPERTYPES_OPTION = "org.dbrain.tags.supertypes";
+
+    /**
+     * Suffix of the generated factory classes.
+     */
+    public static final String FACTORY_SUFFIX = "$$TagFactory";
+
+    /**
+     * Simple name of the package-info class, under which the tags of a package are recorded.
+     */
+    public static final String PACKAGE_INFO = "package-info";
+
+    private Map<String, Set<TagEntry>>     tagByClasses;
+    private Map<String, Set<TagAttribute>> attributesByClasses;
+    private TagFileFormat                  format;
+    private boolean                        generateFactories;
+    private boolean                        recordSupertypes;
     private Set<String>                toValidateClasses;
     private Elements                   elements;
     private Types                      types;
 
+    // Tags implied by the meta-annotations of each annotation type, computed once per round.
+    private final Map<String, Set<String>> impliedTags = new HashMap<>();
+
     @Override
     public synchronized void init( ProcessingEnvironment processingEnv ) {
         super.init( processingEnv );
 
         elements = processingEnv.getElementUtils();
         types = processingEnv.getTypeUtils();
+        format = TagFileFormat.parse( processingEnv.getOptions().get( FORMAT_OPTION ) );
+        generateFactories = Boolean.parseBoolean( processingEnv.getOptions().get( FACTORIES_OPTION ) );
+        recordSupertypes = Boolean.parseBoolean( processingEnv.getOptions().get( SUPERTYPES_OPTION ) );
 
         processingEnv.getTypeUtils();
         log( Diagnostic.Kind.NOTE, "Initializing the tag annotation processor." );
         try {
             try ( InputStream is = getFileForRead() ) {
-                tagByClasses = mapTagByClass( TagUtils.loadEntries( is ) );
+                Set<TagEntry> entries = new HashSet<>();
+                Set<TagAttribute> attributes = new HashSet<>();
+                TagUtils.loadTagFile( is, null, entries::add, attributes::add );
+                tagByClasses = mapByClass( entries, TagEntry::getClassName );
+                attributesByClasses = mapByClass( attributes, TagAttribute::getClassName );
                 toValidateClasses = new HashSet<>( tagByClasses.keySet() );
+                toValidateClasses.addAll( attributesByClasses.keySet() );
                 log( Diagnostic.Kind.NOTE, "Incremental compilation:" + tagByClasses.size() + " entries loaded." );
-            } catch ( FileNotFoundException e ) {
+            } catch ( FileNotFoundException | NoSuchFileException e ) {
                 log( Diagnostic.Kind.NOTE, "Class tag file not found." );
                 tagByClasses = new HashMap<>();
+                attributesByClasses = new HashMap<>();
             }
         } catch ( Throwable t ) {
             log( Diagnostic.Kind.ERROR, t.getMessage() );
@@ -89,13 +150,13 @@ public class TagsAnnotationProcessor extends AbstractProcessor {
         return f.openInputStream();
     }
 
-    private Map<String, Set<TagEntry>> mapTagByClass( Set<TagEntry> tags ) {
-        Map<String, Set<TagEntry>> result = new HashMap<>();
-        for ( TagEntry tag : tags ) {
-            if ( !result.containsKey( tag.getClassName() ) ) {
-                result.put( tag.getClassName(), new HashSet<>() );
+    private <T> Map<String, Set<T>> mapByClass( Set<T> items, Function<T, String> className ) {
+        Map<String, Set<T>> result = new HashMap<>();
+        for ( T item : items ) {
+            if ( !result.containsKey( className.apply( item ) ) ) {
+                result.put( className.apply( item ), new HashSet<>() );
             }
-            result.get( tag.getClassName() ).add( tag );
+            result.get( className.apply( item ) ).add( item );
         }
         return result;
     }
@@ -119,6 +180,13 @@ public class TagsAnnotationProcessor extends AbstractProcessor {
         processingEnv.getMessager().printMessage( msgKind, getClass().getSimpleName() + ": " + s );
     }
 
+    /**
+     * Log a message about a specific element.
+     */
+    private void log( Diagnostic.Kind msgKind, String s, Element element ) {
+        processingEnv.getMessager().printMessage( msgKind, getClass().getSimpleName() + ": " + s, element );
+    }
+
     /**
      * Return a loadable class name from a TypeElement. A loadable class name have correct syntax for inner classes, like : mypackage.MyClass$InnerCLass.
      */
@@ -152,20 +220,481 @@ public class TagsAnnotationProcessor extends AbstractProcessor {
         // Get tags from interfaces as well
         listAllInterfacesTo( e, elementsToScan );
 
+        // And from the package, composed annotations included.
+        if ( !e.getSimpleName().toString().endsWith( FACTORY_SUFFIX ) ) {
+            for ( AnnotationMirror am : elements.getPackageOf( e ).getAnnotationMirrors() ) {
+                TypeElement te = asTypeElement( am.getAnnotationType() );
+                if ( te != null ) {
+                    elementsToScan.add( te );
+                }
+            }
+        }
+
         // Loop on element to scan
+        Set<String> tagNames = new HashSet<>();
         for ( TypeElement typeElement : elementsToScan ) {
             // Is this annotation a tag anotation ?
             Tag tag = typeElement.getAnnotation( Tag.class );
             if ( tag != null ) {
+                tagNames.add( getLoadableClassName( typeElement ) );
+            }
+
+            // Composed annotations get the tags of their meta-annotations.
+            if ( typeElement.getKind() == ElementKind.ANNOTATION_TYPE ) {
+                tagNames.addAll( getImpliedTags( typeElement ) );
+            }
+        }
+        for ( String tagName : tagNames ) {
+            if ( result == null ) {
+                result = new HashSet<>();
+            }
+            result.add( new TagEntry( className, tagName ) );
+        }
+        return result;
+    }
+
+    /**
+     * Retrieve the tags implied by an annotation type, that is the tag annotations found by following its
+     * meta-annotations transitively. Cycles between annotation types are followed once.
+     */
+    private Set<String> getImpliedTags( TypeElement annotationType ) {
+        String name = getLoadableClassName( annotationType );
+        Set<String> result = impliedTags.get( name );
+        if ( result == null ) {
+            result = new HashSet<>();
+            Set<String> visited = new HashSet<>();
+            visited.add( name );
+            collectImpliedTags( annotationType, visited, result );
+            impliedTags.put( name, result );
+        }
+        return result;
+    }
+
+    private void collectImpliedTags( TypeElement annotationType, Set<String> visited, Set<String> to ) {
+        for ( AnnotationMirror am : annotationType.getAnnotationMirrors() ) {
+            TypeElement te = asTypeElement( am.getAnnotationType() );
+            if ( te == null ) {
+                continue;
+            }
+            String name = getLoadableClassName( te );
+            if ( !visited.add( name ) ) {
+                continue;
+            }
+            if ( te.getAnnotation( Tag.class ) != null ) {
+                to.add( name );
+            }
+
+            // The closure of an annotation already computed is complete, no need to walk it again.
+            Set<String> known = impliedTags.get( name );
+            if ( known != null ) {
+                to.addAll( known );
+            } else {
+                collectImpliedTags( te, visited, to );
+            }
+        }
+    }
+
+    /**
+     * Retrieve the attributes of a class or null if there is none.
+     *
+     * @param tagged   True if the class itself is tagged.
+     * @param generate True to generate the sources of the attributes that need it, false if they already exist.
+     */
+    public Set<TagAttribute> getAttributesFrom( String className, TypeElement e, boolean tagged, boolean generate ) throws IOException {
+        Set<TagAttribute> result = getMemberTagsFrom( className, e );
+        if ( recordSupertypes ) {
+            result = addSupertypes( className, e, result );
+        }
+        if ( !tagged ) {
+            return result;
+        }
+
+        // Constant values of the tag annotations.
+        Set<String> classTagNames = new HashSet<>();
+        for ( AnnotationMirror am : elements.getAllAnnotationMirrors( e ) ) {
+            TypeElement te = asTypeElement( am.getAnnotationType() );
+            if ( te != null && te.getAnnotation( Tag.class ) != null ) {
+                classTagNames.add( getLoadableClassName( te ) );
+                result = addConstantValues( className, am, result );
+            }
+        }
+
+        // Tags of the package, unless the class overrides the values.
+        for ( AnnotationMirror am : getPackageTagsOf( e ) ) {
+            result = addPackageTag( className, elements.getPackageOf( e ), am, result );
+            if ( !classTagNames.contains( getLoadableClassName( asTypeElement( am.getAnnotationType() ) ) ) ) {
+                result = addConstantValues( className, am, result );
+            }
+        }
+
+        // Type arguments bound to the generic tag interfaces.
+        result = addTypeArguments( className, e, result );
+
+        if ( generateFactories && isConcreteClass( e ) ) {
+            if ( isInstantiable( e ) ) {
+                String factoryName = className + FACTORY_SUFFIX;
+                if ( generate ) {
+                    writeFactory( e, factoryName );
+                }
+                if ( result == null ) {
+                    result = new HashSet<>();
+                }
+                result.add( new TagAttribute( className, "", TagAttribute.FACTORY, factoryName ) );
+            } else if ( generate ) {
+                log( Diagnostic.Kind.WARNING, "Tagged class cannot be instantiated without an accessible no-arg constructor: " + className, e );
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Add the direct supertypes of a class to its attributes, java.lang.Object excepted.
+     *
+     * @return The attributes, created if needed.
+     */
+    private Set<TagAttribute> addSupertypes( String className, TypeElement e, Set<TagAttribute> result ) {
+        List<TypeMirror> supertypes = new ArrayList<>( e.getInterfaces() );
+        supertypes.add( e.getSuperclass() );
+        for ( TypeMirror tm : supertypes ) {
+            TypeElement te = asTypeElement( tm );
+            if ( te != null && !te.getQualifiedName().contentEquals( Object.class.getName() ) ) {
+                if ( result == null ) {
+                    result = new HashSet<>();
+                }
+                result.add( new TagAttribute( className, "", TagAttribute.SUPER, getLoadableClassName( te ) ) );
+            }
+        }
+        if ( e.getKind().isInterface() || e.getModifiers().contains( Modifier.ABSTRACT ) ) {
+            if ( result == null ) {
+                result = new HashSet<>();
+            }
+            result.add( new TagAttribute( className, "", TagAttribute.ABSTRACT, "true" ) );
+        }
+        return result;
+    }
+
+    /**
+     * Add the type arguments that a class binds to each of its generic tag interfaces, as seen through the whole
+     * hierarchy of the class. Raw implementations are skipped.
+     *
+     * @return The attributes, created if needed.
+     */
+    private Set<TagAttribute> addTypeArguments( String className, TypeElement e, Set<TagAttribute> result ) {
+        Set<TypeElement> interfaces = new HashSet<>();
+        listAllInterfacesTo( e, interfaces );
+        for ( TypeElement te : interfaces ) {
+            if ( te.getAnnotation( Tag.class ) == null || te.getTypeParameters().isEmpty() ) {
+                continue;
+            }
+            DeclaredType supertype = findSupertype( e.asType(), te );
+            if ( supertype == null || supertype.getTypeArguments().isEmpty() ) {
+                continue;
+            }
+            StringBuilder sb = new StringBuilder();
+            for ( TypeMirror argument : supertype.getTypeArguments() ) {
+                if ( sb.length() > 0 ) {
+                    sb.append( ',' );
+                }
+                sb.append( Descriptors.toClassName( getDescriptor( argument ) ) );
+            }
+            if ( result == null ) {
+                result = new HashSet<>();
+            }
+            result.add( new TagAttribute( className, getLoadableClassName( te ), TagAttribute.TYPE_ARGUMENTS, sb.toString() ) );
+        }
+        return result;
+    }
+
+    /**
+     * Find a supertype of a type, with the type arguments substituted along the way, or null if it is not found.
+     */
+    private DeclaredType findSupertype( TypeMirror type, TypeElement target ) {
+        for ( TypeMirror supertype : types.directSupertypes( type ) ) {
+            TypeElement te = asTypeElement( supertype );
+            if ( te == null ) {
+                continue;
+            }
+            if ( te.equals( target ) ) {
+                return (DeclaredType) supertype;
+            }
+            DeclaredType found = findSupertype( supertype, target );
+            if ( found != null ) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Add the constant values of a tag annotation to the attributes of a class.
+     *
+     * @return The attributes, created if needed.
+     */
+    private Set<TagAttribute> addConstantValues( String className, AnnotationMirror am, Set<TagAttribute> result ) {
+        String tagName = getLoadableClassName( asTypeElement( am.getAnnotationType() ) );
+        for ( Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value : elements.getElementValuesWithDefaults( am ).entrySet() ) {
+            String name = value.getKey().getSimpleName().toString();
+            for ( String v : getConstantValues( value.getValue() ) ) {
                 if ( result == null ) {
                     result = new HashSet<>();
                 }
-                result.add( new TagEntry( className, getLoadableClassName( typeElement ) ) );
+                result.add( new TagAttribute( className, tagName, name, v ) );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Record that a class, or the package-info of a package, gets a tag from its package.
+     *
+     * @return The attributes, created if needed.
+     */
+    private Set<TagAttribute> addPackageTag( String className, PackageElement p, AnnotationMirror am, Set<TagAttribute> result ) {
+        if ( result == null ) {
+            result = new HashSet<>();
+        }
+        String tagName = getLoadableClassName( asTypeElement( am.getAnnotationType() ) );
+        result.add( new TagAttribute( className, tagName, TagAttribute.PACKAGE, p.getQualifiedName().toString() ) );
+        return result;
+    }
+
+    /**
+     * Retrieve the tag annotations put on the package of an element. Generated factories do not get the tags of their
+     * package.
+     */
+    public List<AnnotationMirror> getPackageTagsOf( Element e ) {
+        if ( e.getSimpleName().toString().endsWith( FACTORY_SUFFIX ) ) {
+            return new ArrayList<>();
+        }
+        return getTagAnnotations( elements.getPackageOf( e ) );
+    }
+
+    /**
+     * Retrieve the tag annotations put directly on an element.
+     */
+    private List<AnnotationMirror> getTagAnnotations( Element e ) {
+        List<AnnotationMirror> result = new ArrayList<>();
+        if ( e != null ) {
+            for ( AnnotationMirror am : e.getAnnotationMirrors() ) {
+                TypeElement te = asTypeElement( am.getAnnotationType() );
+                if ( te != null && te.getAnnotation( Tag.class ) != null ) {
+                    result.add( am );
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Retrieve the attributes recorded for the package-info of a package or null if the package is not tagged.
+     */
+    public Set<TagAttribute> getPackageAttributesFrom( String className, PackageElement p ) {
+        Set<TagAttribute> result = null;
+        for ( AnnotationMirror am : getTagAnnotations( p ) ) {
+            result = addPackageTag( className, p, am, result );
+            result = addConstantValues( className, am, result );
+        }
+        return result;
+    }
+
+    /**
+     * Retrieve the tagged methods, constructors and fields declared by a class or null if there is none.
+     */
+    public Set<TagAttribute> getMemberTagsFrom( String className, TypeElement e ) {
+        Set<TagAttribute> result = null;
+        for ( Element member : e.getEnclosedElements() ) {
+            String descriptor = getMemberDescriptor( member );
+            if ( descriptor == null ) {
+                continue;
+            }
+            for ( AnnotationMirror am : member.getAnnotationMirrors() ) {
+                TypeElement te = asTypeElement( am.getAnnotationType() );
+                if ( te != null && te.getAnnotation( Tag.class ) != null ) {
+                    if ( result == null ) {
+                        result = new HashSet<>();
+                    }
+                    result.add( new TagAttribute( className, getLoadableClassName( te ), TagAttribute.MEMBER, descriptor ) );
+                }
             }
         }
         return result;
     }
 
+    /**
+     * Return the name and erased descriptor of a member, like run()V or name:Ljava/lang/String;, or null if the
+     * element is not a method, a constructor or a field.
+     */
+    public String getMemberDescriptor( Element member ) {
+        switch ( member.getKind() ) {
+            case METHOD:
+            case CONSTRUCTOR:
+                ExecutableElement method = (ExecutableElement) member;
+                StringBuilder sb = new StringBuilder( method.getSimpleName() ).append( '(' );
+                for ( VariableElement p : method.getParameters() ) {
+                    sb.append( getDescriptor( p.asType() ) );
+                }
+                return sb.append( ')' ).append( getDescriptor( method.getReturnType() ) ).toString();
+            case FIELD:
+            case ENUM_CONSTANT:
+                return member.getSimpleName() + ":" + getDescriptor( member.asType() );
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Return the JVM descriptor of the erasure of a type.
+     */
+    public String getDescriptor( TypeMirror type ) {
+        TypeMirror t = types.erasure( type );
+        switch ( t.getKind() ) {
+            case BOOLEAN:
+                return "Z";
+            case BYTE:
+                return "B";
+            case CHAR:
+                return "C";
+            case SHORT:
+                return "S";
+            case INT:
+                return "I";
+            case LONG:
+                return "J";
+            case FLOAT:
+                return "F";
+            case DOUBLE:
+                return "D";
+            case VOID:
+                return "V";
+            case ARRAY:
+                return "[" + getDescriptor( ( (ArrayType) t ).getComponentType() );
+            default:
+                TypeElement te = asTypeElement( t );
+                return "L" + ( te != null ? getLoadableClassName( te ) : "java.lang.Object" ).replace( '.', '/' ) + ";";
+        }
+    }
+
+    /**
+     * Convert a constant annotation value to its attribute values: strings and primitives as is, enums by constant
+     * name, class literals by loadable class name and one value per element for arrays. Nested annotations are
+     * not constants and are skipped.
+     */
+    public static List<String> getConstantValues( AnnotationValue value ) {
+        List<String> result = new ArrayList<>();
+        value.accept( new SimpleAnnotationValueVisitor8<Void, List<String>>() {
+
+            @Override
+            protected Void defaultAction( Object o, List<String> to ) {
+                to.add( String.valueOf( o ) );
+                return null;
+            }
+
+            @Override
+            public Void visitType( TypeMirror t, List<String> to ) {
+                if ( t instanceof DeclaredType && ( (DeclaredType) t ).asElement() instanceof TypeElement ) {
+                    to.add( getLoadableClassName( (TypeElement) ( (DeclaredType) t ).asElement() ) );
+                } else {
+                    to.add( t.toString() );
+                }
+                return null;
+            }
+
+            @Override
+            public Void visitEnumConstant( VariableElement c, List<String> to ) {
+                to.add( c.getSimpleName().toString() );
+                return null;
+            }
+
+            @Override
+            public Void visitAnnotation( AnnotationMirror a, List<String> to ) {
+                return null;
+            }
+
+            @Override
+            public Void visitArray( List<? extends AnnotationValue> values, List<String> to ) {
+                for ( AnnotationValue v : values ) {
+                    v.accept( this, to );
+                }
+                return null;
+            }
+        }, result );
+        return result;
+    }
+
+    private static boolean isConcreteClass( TypeElement e ) {
+        return e.getKind() == ElementKind.CLASS && !e.getModifiers().contains( Modifier.ABSTRACT );
+    }
+
+    /**
+     * True if a class of the same package can instantiate the element with a no-arg constructor.
+     */
+    private static boolean isInstantiable( TypeElement e ) {
+        for ( Element enclosing = e; enclosing instanceof TypeElement; enclosing = enclosing.getEnclosingElement() ) {
+            TypeElement te = (TypeElement) enclosing;
+            if ( te.getModifiers().contains( Modifier.PRIVATE ) ) {
+                return false;
+            }
+            switch ( te.getNestingKind() ) {
+                case TOP_LEVEL:
+                    break;
+                case MEMBER:
+                    // Inner classes need an enclosing instance.
+                    if ( !te.getModifiers().contains( Modifier.STATIC ) && te.getEnclosingElement().getKind().isClass() ) {
+                        return false;
+                    }
+                    break;
+                default:
+                    return false;
+            }
+        }
+        for ( Element member : e.getEnclosedElements() ) {
+            if ( member.getKind() == ElementKind.CONSTRUCTOR ) {
+                ExecutableElement constructor = (ExecutableElement) member;
+                if ( constructor.getParameters().isEmpty() && !constructor.getModifiers().contains( Modifier.PRIVATE ) ) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Generate the source of the factory of a class.
+     */
+    private void writeFactory( TypeElement e, String factoryName ) throws IOException {
+        String packageName = elements.getPackageOf( e ).getQualifiedName().toString();
+        String simpleName = packageName.isEmpty() ? factoryName : factoryName.substring( packageName.length() + 1 );
+        String diamond = e.getTypeParameters().isEmpty() ? "" : "<>";
+
+        JavaFileObject source;
+        try {
+            source = processingEnv.getFiler().createSourceFile( factoryName, e );
+        } catch ( FilerException ex ) {
+            // The factory generated by a previous compilation is part of this one.
+            log( Diagnostic.Kind.NOTE, "Factory already exists: " + factoryName );
+            return;
+        }
+        log( Diagnostic.Kind.NOTE, "Writing factory " + factoryName );
+        try ( PrintWriter out = new PrintWriter( source.openWriter() ) ) {
+            if ( !packageName.isEmpty() ) {
+                out.println( "package " + packageName + ";" );
+                out.println();
+            }
+            out.println( "/**" );
+            out.println( " * Factory of " + e.getQualifiedName() + ", generated by " + getClass().getName() + "." );
+            out.println( " */" );
+            out.println( "public final class " + simpleName + " implements java.util.function.Supplier<Object> {" );
+            out.println();
+            out.println( "    @Override" );
+            out.println( "    public Object get() {" );
+            out.println( "        return new " + e.getQualifiedName() + diamond + "();" );
+            out.println( "    }" );
+            out.println();
+            out.println( "}" );
+        }
+    }
+
     public TypeElement asTypeElement( TypeMirror tm ) {
         if ( tm instanceof DeclaredType ) {
             Element element = ( (DeclaredType) tm ).asElement();
@@ -200,13 +729,21 @@ public class TagsAnnotationProcessor extends AbstractProcessor {
 
     /**
      * Check if the element still belong to the list or not.
+     *
+     * @param generate True if the element is being compiled and its generated sources must be written.
      */
-    private void checkOneElement( Element element ) throws Exception {
+    private void checkOneElement( Element element, boolean generate ) throws Exception {
         log( Diagnostic.Kind.NOTE, "Inspecting element class: " + element.getSimpleName().toString() );
         if ( element instanceof TypeElement ) {
             TypeElement typeElement = (TypeElement) element;
             String className = getLoadableClassName( typeElement );
             Set<TagEntry> tags = getTagsFrom( className, typeElement );
+            Set<TagAttribute> attributes = getAttributesFrom( className, typeElement, tags != null, generate );
+            if ( attributes != null ) {
+                attributesByClasses.put( className, attributes );
+            } else {
+                attributesByClasses.remove( className );
+            }
 
             if ( tags != null && !tagByClasses.keySet().contains( className ) ) {
                 log( Diagnostic.Kind.NOTE, "Found a new tagged class: " + className );
@@ -223,22 +760,42 @@ public class TagsAnnotationProcessor extends AbstractProcessor {
             if ( toValidateClasses != null ) {
                 toValidateClasses.remove( className );
             }
+        } else if ( element instanceof PackageElement ) {
+            PackageElement packageElement = (PackageElement) element;
+            String className = getPackageInfoName( packageElement.getQualifiedName().toString() );
+            Set<TagAttribute> attributes = getPackageAttributesFrom( className, packageElement );
+            if ( attributes != null ) {
+                attributesByClasses.put( className, attributes );
+            } else {
+                attributesByClasses.remove( className );
+            }
+            if ( toValidateClasses != null ) {
+                toValidateClasses.remove( className );
+            }
         }
     }
 
+    /**
+     * @return The name of the package-info class of a package, under which the package tags are recorded.
+     */
+    private static String getPackageInfoName( String packageName ) {
+        return packageName.isEmpty() ? PACKAGE_INFO : packageName + "." + PACKAGE_INFO;
+    }
+
     /**
      * Check an element and all the enclosed elements.
      */
-    private void checkElement( Element element ) throws Exception {
+    private void checkElement( Element element, boolean generate ) throws Exception {
 
         // Check the element itself.
-        checkOneElement( element );
+        checkOneElement( element, generate );
 
-        // Check enclosed elements
+        // Check enclosed elements. The classes of a package are checked again as their package tags may have changed,
+        // but those that are not compiled in this round must not have their sources generated.
         List<? extends Element> childElements = element.getEnclosedElements();
         if ( childElements != null ) {
             for ( Element e : childElements ) {
-                checkElement( e );
+                checkElement( e, generate && !( element instanceof PackageElement ) );
             }
         }
 
@@ -254,12 +811,15 @@ public class TagsAnnotationProcessor extends AbstractProcessor {
             log( Diagnostic.Kind.NOTE, "Validating classes that has not been compiled." );
             for ( String className : new HashSet<>( toValidateClasses ) ) {
                 try {
-                    TypeElement element = elements.getTypeElement( className );
+                    Element element = className.equals( PACKAGE_INFO ) || className.endsWith( "." + PACKAGE_INFO ) ?
+                            elements.getPackageElement( className.substring( 0, Math.max( 0, className.length() - PACKAGE_INFO.length() - 1 ) ) ) :
+                            elements.getTypeElement( className );
                     if ( element == null ) {
                         log( Diagnostic.Kind.NOTE, "Class not found: " + className );
                         tagByClasses.remove( className );
+                        attributesByClasses.remove( className );
                     } else {
-                        checkElement( element );
+                        checkElement( element, false );
                     }
                 } catch ( Exception e ) {
                     log( Diagnostic.Kind.ERROR, "Error validating class: " + className );
@@ -270,7 +830,9 @@ public class TagsAnnotationProcessor extends AbstractProcessor {
         try ( OutputStream os = getFileForWrite() ) {
             Set<TagEntry> finalSet = new HashSet<>();
             tagByClasses.values().forEach( set -> finalSet.addAll( set ) );
-            TagUtils.writeClassTags( finalSet, os );
+            Set<TagAttribute> finalAttributes = new HashSet<>();
+            attributesByClasses.values().forEach( set -> finalAttributes.addAll( set ) );
+            TagUtils.writeClassTags( finalSet, finalAttributes, os, format );
         }
 
         log( Diagnostic.Kind.NOTE, "Completed class tags annotation processing." );
@@ -284,12 +846,13 @@ public class TagsAnnotationProcessor extends AbstractProcessor {
     public boolean process( Set<? extends TypeElement> annotations, RoundEnvironment roundEnv ) {
 
         try {
+            impliedTags.clear();
 
             // Loop compiling
             if ( !roundEnv.processingOver() ) {
 
                 for ( Element element : roundEnv.getRootElements() ) {
-                    checkElement( element );
+                    checkElement( element, true );
                 }
 
             } else {
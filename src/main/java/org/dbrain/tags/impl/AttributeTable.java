@@ -0,0 +1,81 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Immutable table of the attributes of one name, like {@link TagAttribute#MEMBER}, grouped by tag.
+ * <p>
+ * Unlike a {@link TagIndex}, the table keeps the attributes of the classes that are not tagged themselves, like the
+ * classes declaring tagged members. It is built once from all the tag files and should be reused for repeated
+ * queries. The table is thread-safe.
+ */
+public class AttributeTable {
+
+    private final Map<String, List<TagAttribute>> byTag;
+    private final long                            bytes;
+
+    private AttributeTable( Map<String, List<TagAttribute>> byTag, long bytes ) {
+        this.byTag = byTag;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Build the table from attributes. Attributes of other names are ignored.
+     */
+    public static AttributeTable build( String name, Collection<TagAttribute> attributes ) {
+        Map<String, TreeSet<TagAttribute>> sorted = new HashMap<>();
+        for ( TagAttribute a : attributes ) {
+            if ( a.getName().equals( name ) ) {
+                sorted.computeIfAbsent( a.getTagName(), k -> new TreeSet<>( TagIndex.ATTRIBUTE_ORDER ) ).add( a );
+            }
+        }
+        Map<String, List<TagAttribute>> byTag = new HashMap<>( sorted.size() * 2 );
+        long bytes = 64;
+        for ( Map.Entry<String, TreeSet<TagAttribute>> e : sorted.entrySet() ) {
+            byTag.put( e.getKey(), Collections.unmodifiableList( new ArrayList<>( e.getValue() ) ) );
+            bytes += 96 + 2L * e.getKey().length();
+            for ( TagAttribute a : e.getValue() ) {
+                bytes += 96 + 2L * ( a.getClassName().length() + a.getValue().length() );
+            }
+        }
+        return new AttributeTable( byTag, bytes );
+    }
+
+    /**
+     * @return The attributes of a tag, sorted by class name and value. The list is read-only.
+     */
+    public List<TagAttribute> get( String tagName ) {
+        List<TagAttribute> result = byTag.get( tagName );
+        return result != null ? result : Collections.emptyList();
+    }
+
+    /**
+     * @return An estimate of the heap used by the table, in bytes.
+     */
+    public long estimateBytes() {
+        return bytes;
+    }
+
+}
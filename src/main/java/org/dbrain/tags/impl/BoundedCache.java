@@ -0,0 +1,301 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.impl;
+
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Thread-safe cache bounded in number of entries and in estimated bytes.
+ * <p>
+ * Reads are lock-free and do not write to any state shared between entries: each entry records its last access time
+ * and an approximate access count with plain writes, and the least recently or least frequently used entries are
+ * evicted when an insertion exceeds a bound. Eviction scans the entries, so the cache is
+ * meant for hundreds or thousands of entries, not millions. Values can be held through soft or weak references, in
+ * which case the garbage collector may clear them at any time and they count as evicted.
+ */
+public class BoundedCache<K, V> {
+
+    /**
+     * Entries evicted first.
+     */
+    public enum Eviction {
+        /**
+         * Least recently used.
+         */
+        LRU,
+        /**
+         * Least frequently used.
+         */
+        LFU
+    }
+
+    /**
+     * How values are referenced.
+     */
+    public enum References {
+        STRONG,
+        SOFT,
+        WEAK
+    }
+
+    /**
+     * Snapshot of the statistics of a cache.
+     */
+    public static class Stats {
+
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final int  size;
+        private final long bytes;
+
+        private Stats( long hits, long misses, long evictions, int size, long bytes ) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.size = size;
+            this.bytes = bytes;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * @return The number of entries evicted or cleared by the garbage collector.
+         */
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /**
+         * @return The number of entries.
+         */
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * @return The estimated size of the entries, in bytes.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", size=" + size + ", bytes=" + bytes;
+        }
+    }
+
+    /**
+     * Cached value with its usage. The usage is written without synchronization, so eviction may see slightly stale or
+     * lost updates under concurrent reads, which is fine for a heuristic.
+     */
+    private static class Node<V> {
+
+        private final Object value;
+        private final long   bytes;
+        private long         lastAccess;
+        private long         accessCount;
+
+        private Node( V value, long bytes, References references, long now ) {
+            this.value = references == References.SOFT ? new SoftReference<>( value ) :
+                         references == References.WEAK ? new WeakReference<>( value ) : value;
+            this.bytes = bytes;
+            this.lastAccess = now;
+        }
+
+        @SuppressWarnings( "unchecked" )
+        private V get() {
+            return value instanceof Reference ? ( (Reference<V>) value ).get() : (V) value;
+        }
+    }
+
+    private final ConcurrentHashMap<K, Node<V>> map = new ConcurrentHashMap<>();
+    private final int                           maxEntries;
+    private final long                          maxBytes;
+    private final Eviction                      eviction;
+    private final References                    references;
+    private final ToLongFunction<? super V>     weigher;
+
+    private final AtomicLong bytes     = new AtomicLong();
+    private final LongAdder  hits      = new LongAdder();
+    private final LongAdder  misses    = new LongAdder();
+    private final LongAdder  evictions = new LongAdder();
+
+    /**
+     * @param maxEntries The maximum number of entries.
+     * @param maxBytes   The maximum estimated size of the entries, in bytes.
+     * @param weigher    Estimate the size of a value, in bytes.
+     */
+    public BoundedCache( int maxEntries, long maxBytes, Eviction eviction, References references, ToLongFunction<? super V> weigher ) {
+        if ( maxEntries < 0 || maxBytes < 0 ) {
+            throw new IllegalArgumentException( "Negative cache bound." );
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.eviction = Objects.requireNonNull( eviction );
+        this.references = Objects.requireNonNull( references );
+        this.weigher = Objects.requireNonNull( weigher );
+    }
+
+    /**
+     * @return The cached value, or null if there is none.
+     */
+    public V get( K key ) {
+        Node<V> node = map.get( key );
+        V value = node != null ? node.get() : null;
+        if ( value == null ) {
+            if ( node != null && map.remove( key, node ) ) {
+                // Cleared by the garbage collector.
+                bytes.addAndGet( -node.bytes );
+                evictions.increment();
+            }
+            misses.increment();
+            return null;
+        }
+        node.lastAccess = System.nanoTime();
+        node.accessCount++;
+        hits.increment();
+        return value;
+    }
+
+    /**
+     * @return The cached value, computed and cached if there is none. Concurrent calls may compute the same value.
+     */
+    public <E extends Exception> V get( K key, Loader<? super K, ? extends V, E> loader ) throws E {
+        V value = get( key );
+        if ( value == null ) {
+            value = loader.load( key );
+            put( key, value );
+        }
+        return value;
+    }
+
+    /**
+     * Compute a value, possibly throwing a checked exception.
+     */
+    public interface Loader<K, V, E extends Exception> {
+
+        V load( K key ) throws E;
+
+    }
+
+    /**
+     * Cache a value, evicting entries if a bound is exceeded. Values larger than the byte bound are not cached.
+     */
+    public void put( K key, V value ) {
+        long size = weigher.applyAsLong( value );
+        if ( size > maxBytes || maxEntries == 0 ) {
+            return;
+        }
+        Node<V> node = new Node<>( value, size, references, System.nanoTime() );
+        Node<V> previous = map.put( key, node );
+        bytes.addAndGet( size - ( previous != null ? previous.bytes : 0 ) );
+        if ( map.size() > maxEntries || bytes.get() > maxBytes ) {
+            evict( node );
+        }
+    }
+
+    /**
+     * Evict entries until the cache is within its bounds, sparing the entry just inserted if possible.
+     */
+    private synchronized void evict( Node<V> inserted ) {
+        while ( map.size() > maxEntries || bytes.get() > maxBytes ) {
+            Map.Entry<K, Node<V>> victim = null;
+            for ( Map.Entry<K, Node<V>> e : map.entrySet() ) {
+                if ( victim == null || victim.getValue() == inserted || ( e.getValue() != inserted && usage( e.getValue() ) < usage( victim.getValue() ) ) ) {
+                    victim = e;
+                }
+            }
+            if ( victim == null ) {
+                return;
+            }
+            if ( map.remove( victim.getKey(), victim.getValue() ) ) {
+                bytes.addAndGet( -victim.getValue().bytes );
+                evictions.increment();
+            }
+        }
+    }
+
+    private long usage( Node<V> node ) {
+        if ( node.get() == null ) {
+            return Long.MIN_VALUE;
+        }
+        return eviction == Eviction.LFU ? node.accessCount : node.lastAccess;
+    }
+
+    /**
+     * Remove the entry of a key, if any.
+     */
+    public void remove( K key ) {
+        Node<V> node = map.remove( key );
+        if ( node != null ) {
+            bytes.addAndGet( -node.bytes );
+        }
+    }
+
+    /**
+     * Remove the entries whose key matches a predicate.
+     */
+    public void removeIf( Predicate<? super K> predicate ) {
+        Iterator<Map.Entry<K, Node<V>>> it = map.entrySet().iterator();
+        while ( it.hasNext() ) {
+            Map.Entry<K, Node<V>> e = it.next();
+            if ( predicate.test( e.getKey() ) && map.remove( e.getKey(), e.getValue() ) ) {
+                bytes.addAndGet( -e.getValue().bytes );
+            }
+        }
+    }
+
+    /**
+     * Remove all the entries. Statistics are kept.
+     */
+    public void clear() {
+        removeIf( k -> true );
+    }
+
+    /**
+     * @return The number of entries.
+     */
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * @return A snapshot of the statistics.
+     */
+    public Stats getStats() {
+        return new Stats( hits.sum(), misses.sum(), evictions.sum(), map.size(), bytes.get() );
+    }
+
+}
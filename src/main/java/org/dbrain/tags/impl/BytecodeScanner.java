@@ -0,0 +1,303 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Build tag entries from compiled classes, for libraries that were not compiled with the annotation processor.
+ * <p>
+ * Class files are parsed directly from jars and directories, without loading any class. Tags are resolved like the
+ * annotation processor does: a class gets the tag annotations it carries, the inherited tag annotations of its super
+ * classes, the tag interfaces it implements and the tags of its package, along with the tags implied by the
+ * meta-annotations of these annotations. Super types that were not scanned, like the ones of the JDK, are ignored.
+ */
+public class BytecodeScanner {
+
+    /**
+     * Name of the annotation marking the tags.
+     */
+    public static final String TAG_ANNOTATION = "org.dbrain.tags.Tag";
+
+    private static final String INHERITED_ANNOTATION = "java.lang.annotation.Inherited";
+    private static final String PACKAGE_INFO         = "package-info";
+    private static final String CLASS_SUFFIX         = ".class";
+
+    // Generated factories do not get the tags of their package, see the annotation processor.
+    private static final String FACTORY_SUFFIX = "$$TagFactory";
+
+    private final Map<String, ClassFileInfo> classes = new ConcurrentHashMap<>();
+
+    /**
+     * Scan jars and directories in parallel.
+     *
+     * @param parallelism The number of inputs scanned at the same time.
+     */
+    public BytecodeScanner scan( Collection<Path> inputs, int parallelism ) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool( Math.max( 1, parallelism ) );
+        try {
+            List<Future<?>> tasks = new ArrayList<>( inputs.size() );
+            for ( Path input : inputs ) {
+                tasks.add( executor.submit( () -> {
+                    scan( input );
+                    return null;
+                } ) );
+            }
+            for ( Future<?> task : tasks ) {
+                task.get();
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Scan interrupted.", e );
+        } catch ( ExecutionException e ) {
+            if ( e.getCause() instanceof IOException ) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException( e.getCause() );
+        } finally {
+            executor.shutdownNow();
+        }
+        return this;
+    }
+
+    /**
+     * Scan a jar or a directory of classes. When a class is found more than once, the first one scanned is kept.
+     */
+    public BytecodeScanner scan( Path input ) throws IOException {
+        if ( Files.isDirectory( input ) ) {
+            try ( Stream<Path> files = Files.walk( input ) ) {
+                List<Path> classFiles = files.filter( p -> isClassFile( input.relativize( p ).toString().replace( '\\', '/' ) ) )
+                                             .collect( Collectors.toList() );
+                for ( Path p : classFiles ) {
+                    try ( InputStream is = Files.newInputStream( p ) ) {
+                        add( is, p.toString() );
+                    }
+                }
+            } catch ( UncheckedIOException e ) {
+                throw e.getCause();
+            }
+        } else {
+            try ( ZipFile zip = new ZipFile( input.toFile() ) ) {
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while ( entries.hasMoreElements() ) {
+                    ZipEntry entry = entries.nextElement();
+                    if ( !entry.isDirectory() && isClassFile( entry.getName() ) ) {
+                        try ( InputStream is = zip.getInputStream( entry ) ) {
+                            add( is, input + "!/" + entry.getName() );
+                        }
+                    }
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * True for the class files, excluding the module descriptors and the versioned classes of multi-release jars.
+     */
+    private static boolean isClassFile( String path ) {
+        return path.endsWith( CLASS_SUFFIX ) && !path.startsWith( "META-INF/" ) && !path.endsWith( "module-info" + CLASS_SUFFIX );
+    }
+
+    private void add( InputStream is, String location ) throws IOException {
+        try {
+            ClassFileInfo info = ClassFileInfo.read( is );
+            classes.putIfAbsent( info.getClassName(), info );
+        } catch ( IOException | RuntimeException e ) {
+            throw new IOException( "Invalid class file: " + location, e );
+        }
+    }
+
+    /**
+     * @return The classes scanned so far, by name.
+     */
+    public Map<String, ClassFileInfo> getClasses() {
+        return Collections.unmodifiableMap( classes );
+    }
+
+    /**
+     * Resolve the tags of the scanned classes.
+     *
+     * @param tagNames The tag annotations and interfaces to look for. Scanned types annotated with
+     *                 {@link #TAG_ANNOTATION} are tags as well.
+     */
+    public Set<TagEntry> index( Set<String> tagNames ) {
+        Set<String> tags = new HashSet<>( tagNames );
+        Set<String> inherited = new HashSet<>();
+        for ( ClassFileInfo info : classes.values() ) {
+            if ( info.getAnnotationNames().contains( TAG_ANNOTATION ) ) {
+                tags.add( info.getClassName() );
+            }
+            if ( info.isAnnotation() && info.getAnnotationNames().contains( INHERITED_ANNOTATION ) ) {
+                inherited.add( info.getClassName() );
+            }
+        }
+
+        Map<String, Set<String>> interfaces = new HashMap<>();
+        Map<String, Set<String>> implied = new HashMap<>();
+        Set<TagEntry> result = new HashSet<>();
+        for ( ClassFileInfo info : classes.values() ) {
+            String className = info.getClassName();
+            int dot = className.lastIndexOf( '.' );
+            String packageName = dot >= 0 ? className.substring( 0, dot ) : "";
+            if ( isPackageInfo( className ) ) {
+                continue;
+            }
+
+            Set<String> candidates = new HashSet<>( info.getAnnotationNames() );
+            for ( ClassFileInfo s = superClassOf( info ); s != null; s = superClassOf( s ) ) {
+                for ( String annotationName : s.getAnnotationNames() ) {
+                    if ( inherited.contains( annotationName ) ) {
+                        candidates.add( annotationName );
+                    }
+                }
+            }
+            candidates.addAll( listAllInterfaces( className, interfaces ) );
+            ClassFileInfo packageInfo = classes.get( packageName.isEmpty() ? PACKAGE_INFO : packageName + '.' + PACKAGE_INFO );
+            if ( packageInfo != null && !className.endsWith( FACTORY_SUFFIX ) ) {
+                candidates.addAll( packageInfo.getAnnotationNames() );
+            }
+
+            Set<String> classTags = new HashSet<>();
+            for ( String candidate : candidates ) {
+                if ( tags.contains( candidate ) ) {
+                    classTags.add( candidate );
+                }
+                classTags.addAll( listImpliedTags( candidate, tags, implied ) );
+            }
+            for ( String tagName : classTags ) {
+                result.add( new TagEntry( className, tagName ) );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * List the direct supertypes of the scanned classes as {@link TagAttribute#SUPER} attributes, along with the
+     * {@link TagAttribute#ABSTRACT} attributes, like the annotation processor does.
+     */
+    public Set<TagAttribute> supertypes() {
+        Set<TagAttribute> result = new HashSet<>();
+        for ( ClassFileInfo info : classes.values() ) {
+            String className = info.getClassName();
+            if ( isPackageInfo( className ) ) {
+                continue;
+            }
+            if ( info.getSuperClassName() != null && !info.getSuperClassName().equals( Object.class.getName() ) ) {
+                result.add( new TagAttribute( className, "", TagAttribute.SUPER, info.getSuperClassName() ) );
+            }
+            for ( String interfaceName : info.getInterfaceNames() ) {
+                result.add( new TagAttribute( className, "", TagAttribute.SUPER, interfaceName ) );
+            }
+            if ( info.isAbstract() ) {
+                result.add( new TagAttribute( className, "", TagAttribute.ABSTRACT, "true" ) );
+            }
+        }
+        return result;
+    }
+
+    private static boolean isPackageInfo( String className ) {
+        return className.equals( PACKAGE_INFO ) || className.endsWith( '.' + PACKAGE_INFO );
+    }
+
+    private ClassFileInfo superClassOf( ClassFileInfo info ) {
+        return info.getSuperClassName() != null ? classes.get( info.getSuperClassName() ) : null;
+    }
+
+    /**
+     * List the tags implied by the meta-annotations of an annotation type, followed transitively. Cycles between
+     * annotation types are followed once.
+     */
+    private Set<String> listImpliedTags( String annotationName, Set<String> tags, Map<String, Set<String>> memo ) {
+        Set<String> result = memo.get( annotationName );
+        if ( result == null ) {
+            result = new HashSet<>();
+            ClassFileInfo info = classes.get( annotationName );
+            if ( info != null && info.isAnnotation() ) {
+                Set<String> visited = new HashSet<>();
+                visited.add( annotationName );
+                collectImpliedTags( info, tags, visited, result, memo );
+            }
+            memo.put( annotationName, result );
+        }
+        return result;
+    }
+
+    private void collectImpliedTags( ClassFileInfo annotation, Set<String> tags, Set<String> visited, Set<String> to,
+                                     Map<String, Set<String>> memo ) {
+        for ( String name : annotation.getAnnotationNames() ) {
+            if ( !visited.add( name ) ) {
+                continue;
+            }
+            if ( tags.contains( name ) ) {
+                to.add( name );
+            }
+            Set<String> known = memo.get( name );
+            ClassFileInfo info = classes.get( name );
+            if ( known != null ) {
+                to.addAll( known );
+            } else if ( info != null && info.isAnnotation() ) {
+                collectImpliedTags( info, tags, visited, to, memo );
+            }
+        }
+    }
+
+    /**
+     * List the interfaces of a class, including the super interfaces and the ones of the super classes.
+     */
+    private Set<String> listAllInterfaces( String className, Map<String, Set<String>> memo ) {
+        Set<String> result = memo.get( className );
+        if ( result == null ) {
+            result = new HashSet<>();
+            memo.put( className, result );
+            ClassFileInfo info = classes.get( className );
+            if ( info != null ) {
+                for ( String interfaceName : info.getInterfaceNames() ) {
+                    result.add( interfaceName );
+                    result.addAll( listAllInterfaces( interfaceName, memo ) );
+                }
+                if ( info.getSuperClassName() != null ) {
+                    result.addAll( listAllInterfaces( info.getSuperClassName(), memo ) );
+                }
+            }
+        }
+        return result;
+    }
+
+}
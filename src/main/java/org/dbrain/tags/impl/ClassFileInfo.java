@@ -0,0 +1,264 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Type information read directly from a class file, without loading the class.
+ * <p>
+ * Only the constant pool, the super types and the class-level annotations are decoded, everything else is skipped.
+ * Names are loadable class names, like mypackage.MyClass$InnerClass.
+ */
+public class ClassFileInfo {
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final int ACC_INTERFACE  = 0x0200;
+    private static final int ACC_ABSTRACT   = 0x0400;
+    private static final int ACC_ANNOTATION = 0x2000;
+
+    private static final String RUNTIME_VISIBLE_ANNOTATIONS   = "RuntimeVisibleAnnotations";
+    private static final String RUNTIME_INVISIBLE_ANNOTATIONS = "RuntimeInvisibleAnnotations";
+
+    private final String       className;
+    private final int          accessFlags;
+    private final String       superClassName;
+    private final List<String> interfaceNames;
+    private final List<String> annotationNames;
+
+    private ClassFileInfo( String className, int accessFlags, String superClassName, List<String> interfaceNames, List<String> annotationNames ) {
+        this.className = className;
+        this.accessFlags = accessFlags;
+        this.superClassName = superClassName;
+        this.interfaceNames = Collections.unmodifiableList( interfaceNames );
+        this.annotationNames = Collections.unmodifiableList( annotationNames );
+    }
+
+    /**
+     * Parse a class file.
+     */
+    public static ClassFileInfo read( byte[] classFile ) throws IOException {
+        return read( new ByteArrayInputStream( classFile ) );
+    }
+
+    /**
+     * Parse a class file. The stream is read up to the end of the class attributes and is not closed.
+     */
+    public static ClassFileInfo read( InputStream is ) throws IOException {
+        DataInputStream in = new DataInputStream( is );
+        if ( in.readInt() != MAGIC ) {
+            throw new IOException( "Not a class file." );
+        }
+        in.readUnsignedShort(); // Minor version
+        in.readUnsignedShort(); // Major version
+
+        // Constant pool, only the strings and the class references are kept.
+        int count = in.readUnsignedShort();
+        String[] utf8 = new String[count];
+        int[] classRefs = new int[count];
+        for ( int i = 1; i < count; i++ ) {
+            int tag = in.readUnsignedByte();
+            switch ( tag ) {
+                case 1: // Utf8
+                    utf8[i] = in.readUTF();
+                    break;
+                case 7: // Class
+                    classRefs[i] = in.readUnsignedShort();
+                    break;
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    in.skipBytes( 2 );
+                    break;
+                case 15: // MethodHandle
+                    in.skipBytes( 3 );
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    in.skipBytes( 4 );
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    in.skipBytes( 8 );
+                    i++;
+                    break;
+                default:
+                    throw new IOException( "Invalid constant pool tag: " + tag );
+            }
+        }
+
+        int accessFlags = in.readUnsignedShort();
+        String className = classNameAt( utf8, classRefs, in.readUnsignedShort() );
+        int superClass = in.readUnsignedShort();
+        String superClassName = superClass != 0 ? classNameAt( utf8, classRefs, superClass ) : null;
+        int interfaceCount = in.readUnsignedShort();
+        List<String> interfaceNames = new ArrayList<>( interfaceCount );
+        for ( int i = 0; i < interfaceCount; i++ ) {
+            interfaceNames.add( classNameAt( utf8, classRefs, in.readUnsignedShort() ) );
+        }
+
+        // Skip fields and methods.
+        for ( int members = 0; members < 2; members++ ) {
+            int memberCount = in.readUnsignedShort();
+            for ( int i = 0; i < memberCount; i++ ) {
+                in.skipBytes( 6 );
+                skipAttributes( in );
+            }
+        }
+
+        List<String> annotationNames = new ArrayList<>();
+        int attributeCount = in.readUnsignedShort();
+        for ( int i = 0; i < attributeCount; i++ ) {
+            String name = utf8[in.readUnsignedShort()];
+            int length = in.readInt();
+            if ( RUNTIME_VISIBLE_ANNOTATIONS.equals( name ) || RUNTIME_INVISIBLE_ANNOTATIONS.equals( name ) ) {
+                int annotationCount = in.readUnsignedShort();
+                for ( int j = 0; j < annotationCount; j++ ) {
+                    annotationNames.add( readAnnotation( in, utf8 ) );
+                }
+            } else {
+                skipFully( in, length );
+            }
+        }
+        return new ClassFileInfo( className, accessFlags, superClassName, interfaceNames, annotationNames );
+    }
+
+    private static String classNameAt( String[] utf8, int[] classRefs, int index ) throws IOException {
+        if ( index <= 0 || index >= classRefs.length || utf8[classRefs[index]] == null ) {
+            throw new IOException( "Invalid class reference: " + index );
+        }
+        return utf8[classRefs[index]].replace( '/', '.' );
+    }
+
+    private static void skipAttributes( DataInputStream in ) throws IOException {
+        int count = in.readUnsignedShort();
+        for ( int i = 0; i < count; i++ ) {
+            in.skipBytes( 2 );
+            skipFully( in, in.readInt() );
+        }
+    }
+
+    private static void skipFully( DataInputStream in, int length ) throws IOException {
+        if ( in.skipBytes( length ) != length ) {
+            throw new IOException( "Unexpected end of class file." );
+        }
+    }
+
+    /**
+     * Read an annotation, skipping its values.
+     *
+     * @return The loadable class name of the annotation type.
+     */
+    private static String readAnnotation( DataInputStream in, String[] utf8 ) throws IOException {
+        String descriptor = utf8[in.readUnsignedShort()];
+        int pairCount = in.readUnsignedShort();
+        for ( int i = 0; i < pairCount; i++ ) {
+            in.skipBytes( 2 );
+            skipElementValue( in, utf8 );
+        }
+        return Descriptors.toClassName( descriptor );
+    }
+
+    private static void skipElementValue( DataInputStream in, String[] utf8 ) throws IOException {
+        int tag = in.readUnsignedByte();
+        switch ( tag ) {
+            case 'e':
+                in.skipBytes( 4 );
+                break;
+            case '@':
+                readAnnotation( in, utf8 );
+                break;
+            case '[':
+                int count = in.readUnsignedShort();
+                for ( int i = 0; i < count; i++ ) {
+                    skipElementValue( in, utf8 );
+                }
+                break;
+            default:
+                in.skipBytes( 2 );
+        }
+    }
+
+    /**
+     * @return The loadable name of the class.
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * @return The loadable name of the super class, or null for java.lang.Object and module-info.
+     */
+    public String getSuperClassName() {
+        return superClassName;
+    }
+
+    /**
+     * @return The names of the interfaces directly implemented by the class.
+     */
+    public List<String> getInterfaceNames() {
+        return interfaceNames;
+    }
+
+    /**
+     * @return The names of the annotations on the class, whatever their retention.
+     */
+    public List<String> getAnnotationNames() {
+        return annotationNames;
+    }
+
+    /**
+     * True if the class is an interface, including annotation types.
+     */
+    public boolean isInterface() {
+        return ( accessFlags & ACC_INTERFACE ) != 0;
+    }
+
+    /**
+     * True if the class is an annotation type.
+     */
+    public boolean isAnnotation() {
+        return ( accessFlags & ACC_ANNOTATION ) != 0;
+    }
+
+    /**
+     * True if the class is an interface or an abstract class.
+     */
+    public boolean isAbstract() {
+        return ( accessFlags & ( ACC_INTERFACE | ACC_ABSTRACT ) ) != 0;
+    }
+
+    @Override
+    public String toString() {
+        return className;
+    }
+
+}
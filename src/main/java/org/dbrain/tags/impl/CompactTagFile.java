@@ -0,0 +1,570 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact binary encoding of a tag file.
+ * <p>
+ * Class names are sorted and front-coded in blocks of a fixed number of classes, tags are stored once in a table and
+ * referenced by varint ids. Each block can optionally be deflated. A directory holding the first class name and the
+ * set of tags of each block allows a reader to decode only the blocks a query touches.
+ * <p>
+ * Layout: magic, version, flags, tag table, block directory, the blocks, then the attribute lines if any.
+ */
+public class CompactTagFile {
+
+    /**
+     * Magic bytes at the start of a compact file. The leading zero can never start a text tag file.
+     */
+    public static final byte[] MAGIC = { 0, 'T', 'A', 'G' };
+
+    /**
+     * Default number of classes per block.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 64;
+
+    private static final int     VERSION      = 1;
+    private static final int     FLAG_DEFLATE = 1;
+    private static final int     FLAG_ATTRS   = 2;
+    private static final Charset UTF8         = Charset.forName( TagUtils.TAG_FILE_CHARSET );
+
+    private final byte[]   data;
+    private final boolean  deflated;
+    private final String[] tagNames;
+    private final String[] blockFirstClass;
+    private final int[]    blockClassCount;
+    private final int[]    blockOffset;
+    private final int[]    blockLength;
+    private final int[][]  blockTags;
+    private final int      attributesOffset;
+    private final int      attributesLength;
+
+    private CompactTagFile( byte[] data ) throws IOException {
+        this.data = data;
+        Cursor in = new Cursor( data, 0, data.length );
+        for ( byte b : MAGIC ) {
+            if ( in.readByte() != b ) {
+                throw new IOException( "Not a compact tag file." );
+            }
+        }
+        int version = in.readByte();
+        if ( version != VERSION ) {
+            throw new IOException( "Unsupported compact tag file version: " + version );
+        }
+        int flags = in.readByte();
+        deflated = ( flags & FLAG_DEFLATE ) != 0;
+
+        tagNames = new String[in.readVarInt()];
+        for ( int i = 0; i < tagNames.length; i++ ) {
+            tagNames[i] = in.readString();
+        }
+
+        int blockCount = in.readVarInt();
+        blockFirstClass = new String[blockCount];
+        blockClassCount = new int[blockCount];
+        blockOffset = new int[blockCount];
+        blockLength = new int[blockCount];
+        blockTags = new int[blockCount][];
+        for ( int b = 0; b < blockCount; b++ ) {
+            blockFirstClass[b] = in.readString();
+            blockClassCount[b] = in.readVarInt();
+            blockOffset[b] = in.readVarInt();
+            blockLength[b] = in.readVarInt();
+            int[] tags = new int[in.readVarInt()];
+            for ( int t = 0; t < tags.length; t++ ) {
+                tags[t] = in.readVarInt();
+            }
+            blockTags[b] = tags;
+        }
+
+        // Block offsets are relative to the end of the directory.
+        int base = in.position();
+        int blocksEnd = base;
+        for ( int b = 0; b < blockCount; b++ ) {
+            blockOffset[b] += base;
+            blocksEnd = Math.max( blocksEnd, blockOffset[b] + blockLength[b] );
+            if ( blockOffset[b] + blockLength[b] > data.length ) {
+                throw new IOException( "Truncated compact tag file." );
+            }
+        }
+
+        // Attributes are stored as text lines after the blocks.
+        if ( ( flags & FLAG_ATTRS ) != 0 ) {
+            Cursor attrs = new Cursor( data, blocksEnd, data.length );
+            attributesLength = attrs.readVarInt();
+            attributesOffset = attrs.position();
+            if ( attributesOffset + attributesLength > data.length ) {
+                throw new IOException( "Truncated compact tag file." );
+            }
+        } else {
+            attributesOffset = 0;
+            attributesLength = 0;
+        }
+    }
+
+    /**
+     * True if the header starts with the compact file magic.
+     */
+    public static boolean isCompact( byte[] header, int length ) {
+        if ( length < MAGIC.length ) {
+            return false;
+        }
+        for ( int i = 0; i < MAGIC.length; i++ ) {
+            if ( header[i] != MAGIC[i] ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read a compact tag file. Only the header and the block directory are decoded.
+     */
+    public static CompactTagFile read( InputStream is ) throws IOException {
+        return read( TagUtils.readFully( is ) );
+    }
+
+    /**
+     * Read a compact tag file from its bytes. Only the header and the block directory are decoded.
+     */
+    public static CompactTagFile read( byte[] data ) throws IOException {
+        return new CompactTagFile( data );
+    }
+
+    /**
+     * Write tags to the compact format.
+     */
+    public static void write( Collection<TagEntry> entries, OutputStream os, int blockSize, boolean deflate ) throws IOException {
+        write( entries, Collections.emptyList(), os, blockSize, deflate );
+    }
+
+    /**
+     * Write tags and attributes to the compact format.
+     */
+    public static void write( Collection<TagEntry> entries,
+                              Collection<TagAttribute> attributes,
+                              OutputStream os,
+                              int blockSize,
+                              boolean deflate ) throws IOException {
+        if ( blockSize < 1 ) {
+            throw new IllegalArgumentException( "Block size must be positive." );
+        }
+
+        // Group tags by class, sorted.
+        TreeMap<String, Set<String>> byClass = new TreeMap<>();
+        Set<String> allTags = new TreeSet<>();
+        for ( TagEntry e : entries ) {
+            byClass.computeIfAbsent( e.getClassName(), k -> new TreeSet<>() ).add( e.getTagName() );
+            allTags.add( e.getTagName() );
+        }
+        Map<String, Integer> tagIds = new HashMap<>();
+        for ( String tag : allTags ) {
+            tagIds.put( tag, tagIds.size() );
+        }
+
+        // Encode the blocks.
+        ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+        ByteArrayOutputStream directory = new ByteArrayOutputStream();
+        List<Map.Entry<String, Set<String>>> classes = new ArrayList<>( byClass.entrySet() );
+        int blockCount = ( classes.size() + blockSize - 1 ) / blockSize;
+        writeVarInt( directory, blockCount );
+        for ( int b = 0; b < blockCount; b++ ) {
+            List<Map.Entry<String, Set<String>>> block = classes.subList( b * blockSize, Math.min( classes.size(), ( b + 1 ) * blockSize ) );
+            ByteArrayOutputStream raw = new ByteArrayOutputStream();
+            Set<Integer> tagsInBlock = new TreeSet<>();
+            byte[] previous = new byte[0];
+            for ( Map.Entry<String, Set<String>> c : block ) {
+                byte[] name = c.getKey().getBytes( UTF8 );
+                int shared = sharedPrefix( previous, name );
+                writeVarInt( raw, shared );
+                writeVarInt( raw, name.length - shared );
+                raw.write( name, shared, name.length - shared );
+                writeVarInt( raw, c.getValue().size() );
+                for ( String tag : c.getValue() ) {
+                    int id = tagIds.get( tag );
+                    writeVarInt( raw, id );
+                    tagsInBlock.add( id );
+                }
+                previous = name;
+            }
+            byte[] encoded = deflate ? deflate( raw.toByteArray() ) : raw.toByteArray();
+
+            writeString( directory, block.get( 0 ).getKey() );
+            writeVarInt( directory, block.size() );
+            writeVarInt( directory, blocks.size() );
+            writeVarInt( directory, encoded.length );
+            writeVarInt( directory, tagsInBlock.size() );
+            for ( Integer id : tagsInBlock ) {
+                writeVarInt( directory, id );
+            }
+            blocks.write( encoded );
+        }
+
+        os.write( MAGIC );
+        os.write( VERSION );
+        os.write( ( deflate ? FLAG_DEFLATE : 0 ) | ( attributes.isEmpty() ? 0 : FLAG_ATTRS ) );
+        ByteArrayOutputStream tagTable = new ByteArrayOutputStream();
+        writeVarInt( tagTable, allTags.size() );
+        for ( String tag : allTags ) {
+            writeString( tagTable, tag );
+        }
+        tagTable.writeTo( os );
+        directory.writeTo( os );
+        blocks.writeTo( os );
+        if ( !attributes.isEmpty() ) {
+            StringBuilder lines = new StringBuilder();
+            for ( String line : TagUtils.sortedLines( attributes ) ) {
+                lines.append( line ).append( '\n' );
+            }
+            byte[] raw = lines.toString().getBytes( UTF8 );
+            byte[] encoded = deflate ? deflate( raw ) : raw;
+            writeVarInt( os, encoded.length );
+            os.write( encoded );
+        }
+        os.flush();
+    }
+
+    /**
+     * @return The tags referenced by this file.
+     */
+    public List<String> getTagNames() {
+        return Collections.unmodifiableList( Arrays.asList( tagNames ) );
+    }
+
+    /**
+     * @return The number of blocks in this file.
+     */
+    public int getBlockCount() {
+        return blockFirstClass.length;
+    }
+
+    /**
+     * @return The number of classes in this file.
+     */
+    public int getClassCount() {
+        int result = 0;
+        for ( int count : blockClassCount ) {
+            result += count;
+        }
+        return result;
+    }
+
+    /**
+     * Decode the entries into a collection. Blocks that do not hold any of the specified tags are skipped entirely.
+     *
+     * @param tagFilter If not null, only the entries of these tags are decoded.
+     * @param filter    If not null, only the entries accepted by the filter are added.
+     */
+    public <T extends Collection<TagEntry>> T loadEntries( T to, Set<String> tagFilter, Predicate<TagEntry> filter ) throws IOException {
+        boolean[] wanted = new boolean[tagNames.length];
+        for ( int i = 0; i < tagNames.length; i++ ) {
+            wanted[i] = tagFilter == null || tagFilter.contains( tagNames[i] );
+        }
+        for ( int b = 0; b < blockFirstClass.length; b++ ) {
+            if ( !containsAny( blockTags[b], wanted ) ) {
+                continue;
+            }
+            decodeBlock( b, ( className, tagId ) -> {
+                if ( wanted[tagId] ) {
+                    TagEntry entry = new TagEntry( className, tagNames[tagId] );
+                    if ( filter == null || filter.test( entry ) ) {
+                        to.add( entry );
+                    }
+                }
+            } );
+        }
+        return to;
+    }
+
+    /**
+     * Iterate over the entries, sorted by class then tag, decoding one block at a time. Blocks that do not hold any of
+     * the specified tags are skipped entirely.
+     *
+     * @param tagFilter If not null, only the entries of these tags are returned.
+     */
+    public Iterator<TagEntry> iterator( Set<String> tagFilter ) {
+        boolean[] wanted = new boolean[tagNames.length];
+        for ( int i = 0; i < tagNames.length; i++ ) {
+            wanted[i] = tagFilter == null || tagFilter.contains( tagNames[i] );
+        }
+        return new Iterator<TagEntry>() {
+
+            private final List<TagEntry> block = new ArrayList<>();
+            private int                  next;
+            private int                  nextBlock;
+
+            @Override
+            public boolean hasNext() {
+                while ( next == block.size() && nextBlock < blockFirstClass.length ) {
+                    block.clear();
+                    next = 0;
+                    int b = nextBlock++;
+                    if ( containsAny( blockTags[b], wanted ) ) {
+                        try {
+                            decodeBlock( b, ( className, tagId ) -> {
+                                if ( wanted[tagId] ) {
+                                    block.add( new TagEntry( className, tagNames[tagId] ) );
+                                }
+                            } );
+                        } catch ( IOException e ) {
+                            throw new UncheckedIOException( e );
+                        }
+                    }
+                }
+                return next < block.size();
+            }
+
+            @Override
+            public TagEntry next() {
+                if ( !hasNext() ) {
+                    throw new NoSuchElementException();
+                }
+                return block.get( next++ );
+            }
+        };
+    }
+
+    /**
+     * Decode the attributes into a collection.
+     *
+     * @param tagFilter If not null, only the class attributes and the attributes of these tags are decoded.
+     * @param filter    If not null, only the attributes accepted by the filter are added.
+     */
+    public <T extends Collection<TagAttribute>> T loadAttributes( T to, Set<String> tagFilter, Predicate<TagAttribute> filter ) throws IOException {
+        if ( attributesLength == 0 ) {
+            return to;
+        }
+        byte[] raw = deflated ? inflate( data, attributesOffset, attributesLength ) : Arrays.copyOfRange( data, attributesOffset, attributesOffset + attributesLength );
+        for ( String line : new String( raw, UTF8 ).split( "\n" ) ) {
+            TagAttribute attribute = TagAttribute.parse( line );
+            if ( attribute != null && TagUtils.accept( attribute, tagFilter ) && ( filter == null || filter.test( attribute ) ) ) {
+                to.add( attribute );
+            }
+        }
+        return to;
+    }
+
+    /**
+     * Retrieve the tags of a single class, decoding only the block that can contain it.
+     *
+     * @return The tags of the class, empty if the class is not in the file.
+     */
+    public Set<String> getTags( String className ) throws IOException {
+        int b = Arrays.binarySearch( blockFirstClass, className );
+        if ( b < 0 ) {
+            b = -b - 2;
+        }
+        Set<String> result = new TreeSet<>();
+        if ( b >= 0 ) {
+            decodeBlock( b, ( name, tagId ) -> {
+                if ( name.equals( className ) ) {
+                    result.add( tagNames[tagId] );
+                }
+            } );
+        }
+        return result;
+    }
+
+    private interface BlockVisitor {
+
+        void visit( String className, int tagId );
+
+    }
+
+    private void decodeBlock( int b, BlockVisitor visitor ) throws IOException {
+        Cursor in;
+        if ( deflated ) {
+            byte[] raw = inflate( data, blockOffset[b], blockLength[b] );
+            in = new Cursor( raw, 0, raw.length );
+        } else {
+            in = new Cursor( data, blockOffset[b], blockOffset[b] + blockLength[b] );
+        }
+        byte[] name = new byte[0];
+        for ( int c = 0; c < blockClassCount[b]; c++ ) {
+            int shared = in.readVarInt();
+            int suffix = in.readVarInt();
+            if ( shared < 0 || shared > name.length || suffix < 0 || suffix > in.end - in.pos ) {
+                throw new IOException( "Invalid class name in compact tag file." );
+            }
+            byte[] next = new byte[shared + suffix];
+            System.arraycopy( name, 0, next, 0, shared );
+            in.readBytes( next, shared, suffix );
+            name = next;
+            String className = new String( name, UTF8 );
+            int tagCount = in.readVarInt();
+            for ( int t = 0; t < tagCount; t++ ) {
+                int tagId = in.readVarInt();
+                if ( tagId < 0 || tagId >= tagNames.length ) {
+                    throw new IOException( "Invalid tag reference in compact tag file." );
+                }
+                visitor.visit( className, tagId );
+            }
+        }
+    }
+
+    private static boolean containsAny( int[] tags, boolean[] wanted ) {
+        for ( int id : tags ) {
+            if ( id < wanted.length && wanted[id] ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int sharedPrefix( byte[] a, byte[] b ) {
+        int max = Math.min( a.length, b.length );
+        int i = 0;
+        while ( i < max && a[i] == b[i] ) {
+            i++;
+        }
+        return i;
+    }
+
+    private static byte[] deflate( byte[] raw ) {
+        Deflater deflater = new Deflater( Deflater.BEST_COMPRESSION, true );
+        try {
+            deflater.setInput( raw );
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream( raw.length / 2 + 16 );
+            byte[] buffer = new byte[4096];
+            while ( !deflater.finished() ) {
+                int n = deflater.deflate( buffer );
+                out.write( buffer, 0, n );
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate( byte[] data, int offset, int length ) throws IOException {
+        Inflater inflater = new Inflater( true );
+        try {
+            // The extra byte is required by the nowrap mode.
+            byte[] input = Arrays.copyOfRange( data, offset, offset + length + 1 );
+            inflater.setInput( input );
+            ByteArrayOutputStream out = new ByteArrayOutputStream( length * 4 );
+            byte[] buffer = new byte[4096];
+            while ( !inflater.finished() ) {
+                int n = inflater.inflate( buffer );
+                if ( n == 0 && ( inflater.needsInput() || inflater.needsDictionary() ) ) {
+                    throw new IOException( "Truncated block in compact tag file." );
+                }
+                out.write( buffer, 0, n );
+            }
+            return out.toByteArray();
+        } catch ( DataFormatException e ) {
+            throw new IOException( "Corrupted block in compact tag file.", e );
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void writeVarInt( OutputStream os, int value ) throws IOException {
+        while ( ( value & ~0x7F ) != 0 ) {
+            os.write( ( value & 0x7F ) | 0x80 );
+            value >>>= 7;
+        }
+        os.write( value );
+    }
+
+    private static void writeString( OutputStream os, String s ) throws IOException {
+        byte[] bytes = s.getBytes( UTF8 );
+        writeVarInt( os, bytes.length );
+        os.write( bytes );
+    }
+
+    /**
+     * Sequential reader over a byte range.
+     */
+    private static class Cursor {
+
+        private final byte[] data;
+        private final int    end;
+        private int          pos;
+
+        private Cursor( byte[] data, int start, int end ) {
+            this.data = data;
+            this.pos = start;
+            this.end = end;
+        }
+
+        private int position() {
+            return pos;
+        }
+
+        private int readByte() throws IOException {
+            if ( pos >= end ) {
+                throw new IOException( "Unexpected end of compact tag file." );
+            }
+            return data[pos++];
+        }
+
+        private int readVarInt() throws IOException {
+            int result = 0;
+            for ( int shift = 0; shift < 32; shift += 7 ) {
+                int b = readByte();
+                result |= ( b & 0x7F ) << shift;
+                if ( ( b & 0x80 ) == 0 ) {
+                    return result;
+                }
+            }
+            throw new IOException( "Malformed varint in compact tag file." );
+        }
+
+        private void readBytes( byte[] to, int offset, int length ) throws IOException {
+            if ( length < 0 || pos + length > end ) {
+                throw new IOException( "Unexpected end of compact tag file." );
+            }
+            System.arraycopy( data, pos, to, offset, length );
+            pos += length;
+        }
+
+        private String readString() throws IOException {
+            int length = readVarInt();
+            if ( length < 0 || pos + length > end ) {
+                throw new IOException( "Unexpected end of compact tag file." );
+            }
+            String result = new String( data, pos, length, UTF8 );
+            pos += length;
+            return result;
+        }
+    }
+}
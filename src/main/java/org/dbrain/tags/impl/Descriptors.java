@@ -0,0 +1,123 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Utilities about JVM type descriptors, like I, [J or Ljava/lang/String;.
+ */
+public class Descriptors {
+
+    /**
+     * Split the parameters of a method descriptor like (ILjava/lang/String;)V into single type descriptors.
+     */
+    public static List<String> parameterDescriptors( String methodDescriptor ) {
+        if ( !methodDescriptor.startsWith( "(" ) ) {
+            throw new IllegalArgumentException( "Not a method descriptor: " + methodDescriptor );
+        }
+        List<String> result = new ArrayList<>();
+        int i = 1;
+        while ( methodDescriptor.charAt( i ) != ')' ) {
+            int end = endOfType( methodDescriptor, i );
+            result.add( methodDescriptor.substring( i, end ) );
+            i = end;
+        }
+        return result;
+    }
+
+    /**
+     * Convert a type descriptor to a class name as accepted by Class.forName, like java.lang.String or
+     * [Ljava.lang.String;. Primitive types are returned by their keyword.
+     */
+    public static String toClassName( String descriptor ) {
+        switch ( descriptor.charAt( 0 ) ) {
+            case 'Z':
+                return "boolean";
+            case 'B':
+                return "byte";
+            case 'C':
+                return "char";
+            case 'S':
+                return "short";
+            case 'I':
+                return "int";
+            case 'J':
+                return "long";
+            case 'F':
+                return "float";
+            case 'D':
+                return "double";
+            case 'V':
+                return "void";
+            case 'L':
+                return descriptor.substring( 1, descriptor.length() - 1 ).replace( '/', '.' );
+            case '[':
+                return descriptor.replace( '/', '.' );
+            default:
+                throw new IllegalArgumentException( "Invalid descriptor: " + descriptor );
+        }
+    }
+
+    /**
+     * Resolve a type descriptor to a class without initializing it.
+     */
+    public static Class<?> toClass( String descriptor, ClassLoader cl ) throws ClassNotFoundException {
+        switch ( descriptor.charAt( 0 ) ) {
+            case 'Z':
+                return boolean.class;
+            case 'B':
+                return byte.class;
+            case 'C':
+                return char.class;
+            case 'S':
+                return short.class;
+            case 'I':
+                return int.class;
+            case 'J':
+                return long.class;
+            case 'F':
+                return float.class;
+            case 'D':
+                return double.class;
+            case 'V':
+                return void.class;
+            default:
+                return Class.forName( toClassName( descriptor ), false, cl );
+        }
+    }
+
+    /**
+     * @return The index following the type descriptor that starts at the specified index.
+     */
+    private static int endOfType( String s, int start ) {
+        int i = start;
+        while ( s.charAt( i ) == '[' ) {
+            i++;
+        }
+        if ( s.charAt( i ) == 'L' ) {
+            int end = s.indexOf( ';', i );
+            if ( end < 0 ) {
+                throw new IllegalArgumentException( "Invalid descriptor: " + s );
+            }
+            return end + 1;
+        }
+        return i + 1;
+    }
+
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipFile;
+
+/**
+ * Runtime fallback for the class path jars that do not have a tag file.
+ * <p>
+ * The jars are scanned with the {@link BytecodeScanner}, so no class is loaded, and the result is written as a
+ * standard tag file in a cache directory. Cache files are named after a hash of the jar content and of the tags looked
+ * for, so each version of a jar is scanned once. Tags are resolved within the jar only: the tags of the super types
+ * found in other jars are not seen.
+ * <p>
+ * Cached tag files name classes that are loaded later on, so the cache directory must not be shared: it is created
+ * readable and writable by its owner only, directories owned by another user or writable by others are refused, and
+ * cached files owned by another user are scanned again.
+ */
+public class FallbackScanner {
+
+    private static final String CACHE_SUFFIX = ".tags";
+
+    // Tag files already resolved in this process, by jar location, size, modification time and tags.
+    private static final Map<String, Optional<URL>> RESOLVED = new ConcurrentHashMap<>();
+
+    // Owner of the files created by this process, resolved on first use.
+    private static volatile UserPrincipal currentUser;
+
+    private final Path        cacheDirectory;
+    private final Set<String> tagNames;
+
+    /**
+     * @param cacheDirectory The directory holding the tag files of the scanned jars.
+     * @param tagNames       The tags to look for, in addition to the types annotated with {@link BytecodeScanner#TAG_ANNOTATION}.
+     */
+    public FallbackScanner( Path cacheDirectory, Collection<String> tagNames ) {
+        this.cacheDirectory = cacheDirectory;
+        this.tagNames = Collections.unmodifiableSet( new TreeSet<>( tagNames ) );
+    }
+
+    /**
+     * @return The default cache directory, .cache/dbrain-tags under the home directory of the user.
+     */
+    public static Path getDefaultCacheDirectory() {
+        return Paths.get( System.getProperty( "user.home" ), ".cache", "dbrain-tags" );
+    }
+
+    /**
+     * List the jars of the class path of a class loader and its parents, or of the system class path if the system
+     * class loader is not a URLClassLoader.
+     */
+    public static List<Path> listClassPathJars( ClassLoader cl ) {
+        Set<Path> result = new LinkedHashSet<>();
+        boolean system = false;
+        for ( ClassLoader c = cl; c != null; c = c.getParent() ) {
+            if ( c instanceof URLClassLoader ) {
+                for ( URL url : ( (URLClassLoader) c ).getURLs() ) {
+                    if ( "file".equals( url.getProtocol() ) ) {
+                        try {
+                            result.add( Paths.get( url.toURI() ) );
+                        } catch ( URISyntaxException | IllegalArgumentException e ) {
+                            // Not a local file.
+                        }
+                    }
+                }
+            } else if ( c == ClassLoader.getSystemClassLoader() ) {
+                system = true;
+            }
+        }
+        if ( system ) {
+            for ( String entry : System.getProperty( "java.class.path", "" ).split( File.pathSeparator ) ) {
+                if ( !entry.isEmpty() ) {
+                    result.add( Paths.get( entry ) );
+                }
+            }
+        }
+        List<Path> jars = new ArrayList<>();
+        for ( Path p : result ) {
+            if ( Files.isRegularFile( p ) && p.getFileName().toString().endsWith( ".jar" ) ) {
+                jars.add( p.toAbsolutePath() );
+            }
+        }
+        return jars;
+    }
+
+    /**
+     * True if the jar has its own tag file.
+     */
+    public static boolean isIndexed( Path jar ) throws IOException {
+        try ( ZipFile zip = new ZipFile( jar.toFile() ) ) {
+            return zip.getEntry( TagUtils.TAG_FILE_NAME ) != null;
+        }
+    }
+
+    /**
+     * Resolve the tag files of the jars that do not have one, scanning them in parallel if needed.
+     *
+     * @return The tag files, in the order of the jars.
+     */
+    public List<URL> resolve( List<Path> jars, int parallelism ) throws IOException {
+        // Jars already resolved in this process are answered without threads.
+        List<Optional<URL>> resolved = new ArrayList<>( jars.size() );
+        List<Integer> pending = new ArrayList<>();
+        for ( Path jar : jars ) {
+            Optional<URL> known = RESOLVED.get( keyOf( jar ) );
+            if ( known == null ) {
+                pending.add( resolved.size() );
+            }
+            resolved.add( known );
+        }
+        if ( !pending.isEmpty() ) {
+            scanAll( jars, pending, resolved, parallelism );
+        }
+        List<URL> result = new ArrayList<>();
+        for ( Optional<URL> url : resolved ) {
+            url.ifPresent( result::add );
+        }
+        return result;
+    }
+
+    /**
+     * Resolve the pending jars in parallel.
+     */
+    private void scanAll( List<Path> jars, List<Integer> pending, List<Optional<URL>> resolved, int parallelism ) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool( Math.max( 1, Math.min( parallelism, pending.size() ) ) );
+        try {
+            List<Future<URL>> tasks = new ArrayList<>( pending.size() );
+            for ( int i : pending ) {
+                tasks.add( executor.submit( () -> resolve( jars.get( i ) ) ) );
+            }
+            for ( int i = 0; i < pending.size(); i++ ) {
+                resolved.set( pending.get( i ), Optional.ofNullable( tasks.get( i ).get() ) );
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Scan interrupted.", e );
+        } catch ( ExecutionException e ) {
+            if ( e.getCause() instanceof IOException ) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException( e.getCause() );
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Resolve the tag file of a jar, scanning it if it is not in the cache yet.
+     *
+     * @return The tag file, or null if the jar has its own.
+     */
+    public URL resolve( Path jar ) throws IOException {
+        String key = keyOf( jar );
+        Optional<URL> result = RESOLVED.get( key );
+        if ( result == null ) {
+            result = Optional.ofNullable( isIndexed( jar ) ? null : scan( jar ) );
+            RESOLVED.put( key, result );
+        }
+        return result.orElse( null );
+    }
+
+    private String keyOf( Path jar ) throws IOException {
+        return jar.toAbsolutePath() + "|" + Files.size( jar ) + "|" + Files.getLastModifiedTime( jar ).toMillis() + "|" + tagNames;
+    }
+
+    private URL scan( Path jar ) throws IOException {
+        checkCacheDirectory();
+        Path cached = cacheDirectory.resolve( hash( jar ) + CACHE_SUFFIX );
+        if ( !Files.isRegularFile( cached ) || !isOwned( cached ) ) {
+            Set<TagEntry> entries = new BytecodeScanner().scan( jar ).index( tagNames );
+            Path tmp = Files.createTempFile( cacheDirectory, "scan", CACHE_SUFFIX );
+            try {
+                try ( OutputStream os = Files.newOutputStream( tmp ) ) {
+                    TagUtils.writeClassTags( entries, os, TagFileFormat.COMPACT );
+                }
+                try {
+                    Files.move( tmp, cached, StandardCopyOption.ATOMIC_MOVE );
+                } catch ( AtomicMoveNotSupportedException e ) {
+                    Files.move( tmp, cached, StandardCopyOption.REPLACE_EXISTING );
+                }
+            } finally {
+                Files.deleteIfExists( tmp );
+            }
+        }
+        return cached.toUri().toURL();
+    }
+
+    /**
+     * Create the cache directory if needed, for its owner only, and check that it is not shared with other users.
+     */
+    private void checkCacheDirectory() throws IOException {
+        boolean posix = cacheDirectory.getFileSystem().supportedFileAttributeViews().contains( "posix" );
+        if ( !Files.isDirectory( cacheDirectory ) ) {
+            if ( posix ) {
+                Files.createDirectories( cacheDirectory, PosixFilePermissions.asFileAttribute( PosixFilePermissions.fromString( "rwx------" ) ) );
+            } else {
+                Files.createDirectories( cacheDirectory );
+            }
+        }
+        if ( !isOwned( cacheDirectory ) ) {
+            throw new IOException( "Cache directory owned by another user: " + cacheDirectory );
+        }
+        if ( posix && Files.getPosixFilePermissions( cacheDirectory ).contains( PosixFilePermission.OTHERS_WRITE ) ) {
+            throw new IOException( "Cache directory writable by other users: " + cacheDirectory );
+        }
+    }
+
+    /**
+     * True if a file is owned by the user running this process, or if the file system does not record owners.
+     */
+    private static boolean isOwned( Path path ) throws IOException {
+        try {
+            return Files.getOwner( path ).equals( getCurrentUser() );
+        } catch ( UnsupportedOperationException e ) {
+            return true;
+        }
+    }
+
+    /**
+     * @return The owner of the files created by this process.
+     */
+    private static UserPrincipal getCurrentUser() throws IOException {
+        UserPrincipal result = currentUser;
+        if ( result == null ) {
+            Path probe = Files.createTempFile( "dbrain-tags", ".owner" );
+            try {
+                result = Files.getOwner( probe );
+            } finally {
+                Files.deleteIfExists( probe );
+            }
+            currentUser = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return The hexadecimal SHA-256 of the jar content and of the tags looked for.
+     */
+    private String hash( Path jar ) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+            byte[] buffer = new byte[64 * 1024];
+            try ( InputStream is = Files.newInputStream( jar ) ) {
+                for ( int n = is.read( buffer ); n >= 0; n = is.read( buffer ) ) {
+                    digest.update( buffer, 0, n );
+                }
+            }
+            digest.update( String.join( "\n", tagNames ).getBytes( StandardCharsets.UTF_8 ) );
+            StringBuilder sb = new StringBuilder();
+            for ( byte b : digest.digest() ) {
+                sb.append( Character.forDigit( ( b >> 4 ) & 0xF, 16 ) ).append( Character.forDigit( b & 0xF, 16 ) );
+            }
+            return sb.toString();
+        } catch ( NoSuchAlgorithmException e ) {
+            throw new IllegalStateException( e );
+        }
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.impl;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.util.function.Supplier;
+
+/**
+ * Cache of instance factories.
+ * <p>
+ * The factory of each class is resolved once and kept on the class itself, so the cache follows the life cycle of the
+ * class loaders and does not prevent them from being unloaded. Factories generated by the annotation processor are
+ * used when available, otherwise the no-arg constructor is called through a method handle.
+ */
+public class InstanceFactories {
+
+    private static final MethodType OBJECT_FACTORY = MethodType.methodType( Object.class );
+
+    private static final ClassValue<Holder> FACTORIES = new ClassValue<Holder>() {
+
+        @Override
+        protected Holder computeValue( Class<?> type ) {
+            return new Holder();
+        }
+    };
+
+    /**
+     * Factory of a class, resolved on first use.
+     */
+    private static class Holder {
+
+        private volatile Resolved resolved;
+
+    }
+
+    /**
+     * A factory and the name of the generated factory that was tried to get it, null if none was.
+     */
+    private static class Resolved {
+
+        private final Supplier<?> factory;
+        private final String      generatedFactory;
+
+        private Resolved( Supplier<?> factory, String generatedFactory ) {
+            this.factory = factory;
+            this.generatedFactory = generatedFactory;
+        }
+    }
+
+    /**
+     * Retrieve the factory of a class. The factory throws an IllegalStateException if the class cannot be
+     * instantiated through a no-arg constructor.
+     */
+    public static <T> Supplier<T> get( Class<T> type ) {
+        return get( type, null );
+    }
+
+    /**
+     * Retrieve the factory of a class, using the factory class generated by the annotation processor if any.
+     * The generated factory is loaded once, then instances are created by plain constructor calls. A constructor
+     * handle resolved before the generated factory was known is replaced by it.
+     * <p>
+     * Classes that cannot be instantiated are not cached, so they are resolved again on the next call.
+     *
+     * @param generatedFactory The name of the generated factory class, or null if there is none.
+     */
+    @SuppressWarnings( "unchecked" )
+    public static <T> Supplier<T> get( Class<T> type, String generatedFactory ) {
+        Holder holder = FACTORIES.get( type );
+        Resolved resolved = holder.resolved;
+        if ( resolved != null && ( generatedFactory == null || generatedFactory.equals( resolved.generatedFactory ) ) ) {
+            return (Supplier<T>) resolved.factory;
+        }
+        Supplier<?> result = generatedFactory != null ? loadGeneratedFactory( type, generatedFactory ) : null;
+        if ( result == null ) {
+            result = resolved != null ? resolved.factory : createFactory( type );
+        }
+        if ( result == null ) {
+            return () -> {
+                throw new IllegalStateException( "Class does not have an accessible no-arg constructor: " + type.getName() );
+            };
+        }
+        holder.resolved = new Resolved( result, generatedFactory );
+        return (Supplier<T>) result;
+    }
+
+    private static Supplier<?> loadGeneratedFactory( Class<?> type, String generatedFactory ) {
+        try {
+            ClassLoader cl = type.getClassLoader() != null ? type.getClassLoader() : ClassLoader.getSystemClassLoader();
+            Object factory = cl.loadClass( generatedFactory ).getConstructor().newInstance();
+            return factory instanceof Supplier ? (Supplier<?>) factory : null;
+        } catch ( ReflectiveOperationException | LinkageError | RuntimeException e ) {
+            // Fall back on the constructor handle.
+            return null;
+        }
+    }
+
+    /**
+     * Create a factory calling the no-arg constructor through a method handle, or return null if the class cannot be
+     * instantiated by a class of its package.
+     */
+    private static Supplier<?> createFactory( Class<?> type ) {
+        final MethodHandle constructor;
+        try {
+            Constructor<?> c = type.getDeclaredConstructor();
+            if ( !isInstantiable( type, c ) ) {
+                return null;
+            }
+            c.setAccessible( true );
+            constructor = MethodHandles.lookup().unreflectConstructor( c ).asType( OBJECT_FACTORY );
+        } catch ( NoSuchMethodException | IllegalAccessException | RuntimeException e ) {
+            return null;
+        }
+        return () -> {
+            try {
+                return constructor.invokeExact();
+            } catch ( RuntimeException | Error e ) {
+                throw e;
+            } catch ( Throwable t ) {
+                throw new IllegalStateException( "Error instantiating class: " + type.getName(), t );
+            }
+        };
+    }
+
+    /**
+     * True if a class of the same package can call the constructor, following the same rules as the factories
+     * generated by the annotation processor: neither the constructor nor the enclosing classes are private, and the
+     * class is neither local, anonymous nor inner.
+     */
+    private static boolean isInstantiable( Class<?> type, Constructor<?> c ) {
+        if ( Modifier.isPrivate( c.getModifiers() ) || Modifier.isAbstract( type.getModifiers() ) ) {
+            return false;
+        }
+        for ( Class<?> t = type; t != null; t = t.getEnclosingClass() ) {
+            if ( Modifier.isPrivate( t.getModifiers() ) || t.isLocalClass() || t.isAnonymousClass() ) {
+                return false;
+            }
+            if ( t.isMemberClass() && !Modifier.isStatic( t.getModifiers() ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.impl;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.net.URL;
+
+/**
+ * Recorder emitting Flight Recorder events. Only loaded by {@link TagEvents} when jdk.jfr is available.
+ */
+class JfrRecorder extends TagEvents.Recorder {
+
+    @Name( "org.dbrain.tags.ResourcesListed" )
+    @Label( "Tag Files Listed" )
+    @Category( { "dbrain", "Tags" } )
+    @Enabled( false )
+    @StackTrace( false )
+    static class ResourcesEvent extends Event {
+
+        @Label( "Class Loader" )
+        String classLoader;
+
+        @Label( "Tag Files" )
+        int resources;
+
+    }
+
+    @Name( "org.dbrain.tags.ResourceParsed" )
+    @Label( "Tag File Parsed" )
+    @Category( { "dbrain", "Tags" } )
+    @Enabled( false )
+    @StackTrace( false )
+    static class ParseEvent extends Event {
+
+        @Label( "URL" )
+        String url;
+
+        @Label( "Size" )
+        @DataAmount
+        long bytes;
+
+        @Label( "Entries" )
+        int entries;
+
+        @Label( "Attributes" )
+        int attributes;
+
+    }
+
+    @Name( "org.dbrain.tags.QuerySelected" )
+    @Label( "Query Entries Selected" )
+    @Category( { "dbrain", "Tags" } )
+    @Enabled( false )
+    @StackTrace( false )
+    static class SelectEvent extends Event {
+
+        @Label( "Candidate Classes" )
+        int candidates;
+
+        @Label( "Selected Classes" )
+        int selected;
+
+    }
+
+    @Name( "org.dbrain.tags.ClassLoaded" )
+    @Label( "Tagged Class Loaded" )
+    @Category( { "dbrain", "Tags" } )
+    @Enabled( false )
+    @StackTrace( false )
+    static class LoadClassEvent extends Event {
+
+        @Label( "Class Name" )
+        String className;
+
+        @Label( "Loaded" )
+        boolean loaded;
+
+    }
+
+    // Instances used to check whether each event is enabled, without allocating.
+    private static final ResourcesEvent RESOURCES  = new ResourcesEvent();
+    private static final ParseEvent     PARSE      = new ParseEvent();
+    private static final SelectEvent    SELECT     = new SelectEvent();
+    private static final LoadClassEvent LOAD_CLASS = new LoadClassEvent();
+
+    @Override
+    Object begin( TagEvents.Type type ) {
+        Event event;
+        switch ( type ) {
+            case RESOURCES:
+                event = RESOURCES.isEnabled() ? new ResourcesEvent() : null;
+                break;
+            case PARSE:
+                event = PARSE.isEnabled() ? new ParseEvent() : null;
+                break;
+            case SELECT:
+                event = SELECT.isEnabled() ? new SelectEvent() : null;
+                break;
+            case LOAD_CLASS:
+                event = LOAD_CLASS.isEnabled() ? new LoadClassEvent() : null;
+                break;
+            default:
+                event = null;
+        }
+        if ( event != null ) {
+            event.begin();
+        }
+        return event;
+    }
+
+    @Override
+    void endResources( Object event, ClassLoader cl, int resources ) {
+        ResourcesEvent e = (ResourcesEvent) event;
+        e.end();
+        if ( e.shouldCommit() ) {
+            e.classLoader = String.valueOf( cl );
+            e.resources = resources;
+            e.commit();
+        }
+    }
+
+    @Override
+    void endParse( Object event, URL resource, long bytes, int entries, int attributes ) {
+        ParseEvent e = (ParseEvent) event;
+        e.end();
+        if ( e.shouldCommit() ) {
+            e.url = String.valueOf( resource );
+            e.bytes = bytes;
+            e.entries = entries;
+            e.attributes = attributes;
+            e.commit();
+        }
+    }
+
+    @Override
+    void endSelect( Object event, int candidates, int selected ) {
+        SelectEvent e = (SelectEvent) event;
+        e.end();
+        if ( e.shouldCommit() ) {
+            e.candidates = candidates;
+            e.selected = selected;
+            e.commit();
+        }
+    }
+
+    @Override
+    void endLoadClass( Object event, String className, boolean loaded ) {
+        LoadClassEvent e = (LoadClassEvent) event;
+        e.end();
+        if ( e.shouldCommit() ) {
+            e.className = className;
+            e.loaded = loaded;
+            e.commit();
+        }
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.impl;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * K-way merge of tag files into an index.
+ * <p>
+ * Tag files are written sorted by {@link TagEntry#ORDER}, so their entries are merged through a heap holding the next
+ * entry of each file, then grouped by class as they come out, without hashing. The heap holds one entry per file, but
+ * most files are in memory anyway: compact files are decoded from a whole copy, and {@link TagUtils} buffers the tag
+ * files that are not jar entries to fingerprint them. Only the text files of jars are streamed. Files found out of
+ * order, like hand-written ones, have the rest of their entries moved to a sorted side set, merged at the end.
+ */
+public class SortedMerge {
+
+    /**
+     * A file being merged, with its next entry.
+     */
+    private static class Source {
+
+        private final Iterator<TagEntry> entries;
+        private final int                order;
+        private TagEntry                 head;
+
+        private Source( Iterator<TagEntry> entries, int order ) {
+            this.entries = entries;
+            this.order = order;
+        }
+
+        /**
+         * Move to the next accepted entry.
+         *
+         * @return False if the file is exhausted.
+         */
+        private boolean advance( Predicate<TagEntry> filter ) {
+            while ( entries.hasNext() ) {
+                TagEntry next = entries.next();
+                if ( filter == null || filter.test( next ) ) {
+                    head = next;
+                    return true;
+                }
+            }
+            head = null;
+            return false;
+        }
+    }
+
+    /**
+     * Merge the entries of several files in an index. Duplicates are ignored.
+     *
+     * @param sources    The entries of each file, preferably sorted by {@link TagEntry#ORDER}.
+     * @param filter     If not null, only the entries accepted by the filter are indexed.
+     * @param attributes The attributes, read once all the sources are exhausted.
+     */
+    public static TagIndex merge( List<? extends Iterator<TagEntry>> sources, Predicate<TagEntry> filter, Collection<TagAttribute> attributes ) {
+        PriorityQueue<Source> heap = new PriorityQueue<>( Math.max( 1, sources.size() ), ( a, b ) -> {
+            int c = TagEntry.ORDER.compare( a.head, b.head );
+            return c != 0 ? c : Integer.compare( a.order, b.order );
+        } );
+        for ( int i = 0; i < sources.size(); i++ ) {
+            Source source = new Source( sources.get( i ), i );
+            if ( source.advance( filter ) ) {
+                heap.add( source );
+            }
+        }
+
+        TagIndex.SortedBuilder builder = new TagIndex.SortedBuilder();
+        TreeSet<TagEntry> unsorted = null;
+        while ( !heap.isEmpty() ) {
+            Source source = heap.poll();
+            TagEntry previous = source.head;
+            builder.add( previous.getClassName(), previous.getTagName() );
+            if ( !source.advance( filter ) ) {
+                continue;
+            }
+            if ( TagEntry.ORDER.compare( source.head, previous ) >= 0 ) {
+                heap.add( source );
+                continue;
+            }
+            // Out of order, fall back on sorting the rest of the file.
+            if ( unsorted == null ) {
+                unsorted = new TreeSet<>( TagEntry.ORDER );
+            }
+            do {
+                unsorted.add( source.head );
+            } while ( source.advance( filter ) );
+        }
+        if ( unsorted == null ) {
+            return builder.build( attributes );
+        }
+
+        TagIndex.SortedBuilder result = new TagIndex.SortedBuilder();
+        Iterator<TagEntry> merged = builder.entries();
+        Iterator<TagEntry> side = unsorted.iterator();
+        TagEntry a = merged.hasNext() ? merged.next() : null;
+        TagEntry b = side.hasNext() ? side.next() : null;
+        while ( a != null || b != null ) {
+            TagEntry next;
+            if ( b == null || ( a != null && TagEntry.ORDER.compare( a, b ) <= 0 ) ) {
+                next = a;
+                a = merged.hasNext() ? merged.next() : null;
+            } else {
+                next = b;
+                b = side.hasNext() ? side.next() : null;
+            }
+            result.add( next.getClassName(), next.getTagName() );
+        }
+        return result.build( attributes );
+    }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
+
+/**
+ * Immutable graph of the types and their direct supertypes, as recorded by the annotation processor in the
+ * {@link TagAttribute#SUPER} attributes.
+ * <p>
+ * The graphs of all tag files are merged: types are referenced by ordinals following the name order, and the direct
+ * subtypes of each type are stored as compressed sparse rows. The transitive closure of a type is computed on first use
+ * and kept, so the index should be reused for repeated queries. The index is thread-safe.
+ */
+public class SubtypeIndex {
+
+    /**
+     * An index without any type.
+     */
+    public static final SubtypeIndex EMPTY = build( Collections.<TagAttribute>emptyList() );
+
+    private final String[]                    names;
+    private final int[]                       subtypeStart;
+    private final int[]                       subtypes;
+    private final BitSet                      abstractTypes;
+    private final AtomicReferenceArray<int[]> closures;
+
+    private SubtypeIndex( String[] names, int[] subtypeStart, int[] subtypes, BitSet abstractTypes ) {
+        this.names = names;
+        this.subtypeStart = subtypeStart;
+        this.subtypes = subtypes;
+        this.abstractTypes = abstractTypes;
+        this.closures = new AtomicReferenceArray<>( names.length );
+    }
+
+    /**
+     * Build the index from class attributes. Attributes other than {@link TagAttribute#SUPER} and
+     * {@link TagAttribute#ABSTRACT} are ignored.
+     */
+    public static SubtypeIndex build( Collection<TagAttribute> attributes ) {
+        TreeSet<String> allNames = new TreeSet<>();
+        int edgeCount = 0;
+        for ( TagAttribute a : attributes ) {
+            if ( a.getName().equals( TagAttribute.SUPER ) ) {
+                allNames.add( a.getClassName() );
+                allNames.add( a.getValue() );
+                edgeCount++;
+            } else if ( a.getName().equals( TagAttribute.ABSTRACT ) ) {
+                allNames.add( a.getClassName() );
+            }
+        }
+        String[] names = allNames.toArray( new String[allNames.size()] );
+
+        long[] bySupertype = new long[edgeCount];
+        BitSet abstractTypes = new BitSet( names.length );
+        int n = 0;
+        for ( TagAttribute a : attributes ) {
+            if ( a.getName().equals( TagAttribute.SUPER ) ) {
+                long sub = Arrays.binarySearch( names, a.getClassName() );
+                long sup = Arrays.binarySearch( names, a.getValue() );
+                bySupertype[n++] = ( sup << 32 ) | sub;
+            } else if ( a.getName().equals( TagAttribute.ABSTRACT ) && Boolean.parseBoolean( a.getValue() ) ) {
+                abstractTypes.set( Arrays.binarySearch( names, a.getClassName() ) );
+            }
+        }
+        Arrays.sort( bySupertype );
+        int[] subtypeStart = new int[names.length + 1];
+        int[] subtypes = TagIndex.toAdjacency( bySupertype, subtypeStart );
+        return new SubtypeIndex( names, subtypeStart, subtypes, abstractTypes );
+    }
+
+    /**
+     * @return The estimated size of the index in bytes, closures excluded as they are computed on demand.
+     */
+    public long estimateBytes() {
+        long result = 64 + 8L * names.length + abstractTypes.size() / 8;
+        for ( String name : names ) {
+            result += 40 + 2L * name.length();
+        }
+        return result + 4L * ( subtypeStart.length + subtypes.length );
+    }
+
+    /**
+     * @return The number of types in the index.
+     */
+    public int getTypeCount() {
+        return names.length;
+    }
+
+    /**
+     * @return The name of the type at the specified ordinal.
+     */
+    public String getTypeName( int ordinal ) {
+        return names[ordinal];
+    }
+
+    /**
+     * @return The ordinal of the type or a negative value if the type is not in the index.
+     */
+    public int indexOf( String typeName ) {
+        return typeName != null ? Arrays.binarySearch( names, typeName ) : -1;
+    }
+
+    /**
+     * True if the type is recorded as an interface or an abstract class. Types only known as supertypes, because they
+     * were not compiled with the option, are not.
+     */
+    public boolean isAbstract( int ordinal ) {
+        return abstractTypes.get( ordinal );
+    }
+
+    /**
+     * @return The ordinals of the direct subtypes of a type, in ascending order.
+     */
+    public IntStream directSubtypesOf( int ordinal ) {
+        return Arrays.stream( subtypes, subtypeStart[ordinal], subtypeStart[ordinal + 1] );
+    }
+
+    /**
+     * @return The ordinals of all the subtypes of a type, direct or not, in ascending order.
+     */
+    public IntStream subtypesOf( int ordinal ) {
+        int[] closure = closures.get( ordinal );
+        if ( closure == null ) {
+            BitSet visited = new BitSet( names.length );
+            int[] stack = new int[16];
+            int top = 0;
+            stack[top++] = ordinal;
+            while ( top > 0 ) {
+                int t = stack[--top];
+                for ( int i = subtypeStart[t]; i < subtypeStart[t + 1]; i++ ) {
+                    int sub = subtypes[i];
+                    if ( !visited.get( sub ) ) {
+                        visited.set( sub );
+                        int[] known = closures.get( sub );
+                        if ( known != null ) {
+                            // Reuse the closures already computed.
+                            for ( int k : known ) {
+                                visited.set( k );
+                            }
+                        } else {
+                            if ( top == stack.length ) {
+                                stack = Arrays.copyOf( stack, top * 2 );
+                            }
+                            stack[top++] = sub;
+                        }
+                    }
+                }
+            }
+            visited.clear( ordinal );
+            closure = visited.stream().toArray();
+            closures.compareAndSet( ordinal, null, closure );
+        }
+        return Arrays.stream( closure );
+    }
+
+    /**
+     * List the subtypes of a type, sorted by name.
+     *
+     * @param concreteOnly True to exclude the interfaces and abstract classes.
+     */
+    public List<String> subtypesOf( String typeName, boolean concreteOnly ) {
+        int ordinal = indexOf( typeName );
+        if ( ordinal < 0 ) {
+            return Collections.emptyList();
+        }
+        List<String> result = new ArrayList<>();
+        subtypesOf( ordinal ).filter( i -> !concreteOnly || !isAbstract( i ) ).forEach( i -> result.add( names[i] ) );
+        return result;
+    }
+
+}
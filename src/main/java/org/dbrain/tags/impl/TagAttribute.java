@@ -0,0 +1,190 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.impl;
+
+import java.util.Objects;
+
+/**
+ * Named value attached to a class, or to a tag of a class, in the meta-info database.
+ * <p>
+ * Attributes are stored in the tag file as className:tagName:name=value lines, with an empty tag name for attributes
+ * of the class itself. Older readers only accept lines with exactly two parts and therefore ignore them. Names
+ * starting with {@link #RESERVED_PREFIX} are reserved for attributes computed by the library.
+ */
+public class TagAttribute {
+
+    /**
+     * Prefix of the attribute names reserved by the library.
+     */
+    public static final String RESERVED_PREFIX = "@";
+
+    /**
+     * Name of the class attribute holding the name of the factory class generated by the annotation processor.
+     */
+    public static final String FACTORY = RESERVED_PREFIX + "factory";
+
+    /**
+     * Name of the tag attribute holding a tagged member of the class, as its name followed by its erased JVM
+     * descriptor: run()V for a method, &lt;init&gt;(I)V for a constructor and name:Ljava/lang/String; for a field.
+     */
+    public static final String MEMBER = RESERVED_PREFIX + "member";
+
+    /**
+     * Name of the tag attribute holding the name of the package that carries the tag. It is recorded on the classes
+     * of a tagged package, and on the package-info class of the package itself.
+     */
+    public static final String PACKAGE = RESERVED_PREFIX + "package";
+
+    /**
+     * Name of the class attribute holding a direct supertype of the class, java.lang.Object excepted. Recorded for all
+     * the compiled types when the supertypes option of the annotation processor is enabled.
+     */
+    public static final String SUPER = RESERVED_PREFIX + "super";
+
+    /**
+     * Name of the class attribute set to true for interfaces and abstract classes, recorded along with {@link #SUPER}.
+     */
+    public static final String ABSTRACT = RESERVED_PREFIX + "abstract";
+
+    /**
+     * Name of the tag attribute holding the type arguments that a class binds to a generic tag interface, directly or
+     * through its supertypes, like com.acme.OrderCreated for Handler&lt;OrderCreated&gt;. Arguments are separated by
+     * commas and recorded by the name of their erasure, so type variables left open by the class give their bound.
+     */
+    public static final String TYPE_ARGUMENTS = RESERVED_PREFIX + "typeArguments";
+
+    private final String className;
+    private final String tagName;
+    private final String name;
+    private final String value;
+
+    public TagAttribute( String className, String tagName, String name, String value ) {
+        this.className = Objects.requireNonNull( className );
+        this.tagName = tagName != null ? tagName : "";
+        this.name = Objects.requireNonNull( name );
+        this.value = Objects.requireNonNull( value );
+    }
+
+    /**
+     * Parse an attribute line, returning null if the line is not a valid attribute.
+     */
+    public static TagAttribute parse( String line ) {
+        int first = line.indexOf( ':' );
+        int second = first >= 0 ? line.indexOf( ':', first + 1 ) : -1;
+        int equals = second >= 0 ? line.indexOf( '=', second + 1 ) : -1;
+        if ( first <= 0 || equals < 0 || line.indexOf( ':', second + 1 ) >= 0 ) {
+            return null;
+        }
+        return new TagAttribute( line.substring( 0, first ),
+                                 line.substring( first + 1, second ),
+                                 unescape( line.substring( second + 1, equals ) ),
+                                 unescape( line.substring( equals + 1 ) ) );
+    }
+
+    /**
+     * @return The name of the class.
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * @return The name of the tag's class, or an empty string for an attribute of the class itself.
+     */
+    public String getTagName() {
+        return tagName;
+    }
+
+    /**
+     * @return The name of the attribute.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The value of the attribute.
+     */
+    public String getValue() {
+        return value;
+    }
+
+    private static String escape( String s ) {
+        StringBuilder sb = null;
+        for ( int i = 0; i < s.length(); i++ ) {
+            char c = s.charAt( i );
+            if ( c == '%' || c == ':' || c == '=' || c == '\n' || c == '\r' ) {
+                if ( sb == null ) {
+                    sb = new StringBuilder( s.length() + 8 ).append( s, 0, i );
+                }
+                sb.append( '%' ).append( Character.forDigit( c >> 4, 16 ) ).append( Character.forDigit( c & 0xF, 16 ) );
+            } else if ( sb != null ) {
+                sb.append( c );
+            }
+        }
+        return sb != null ? sb.toString() : s;
+    }
+
+    private static String unescape( String s ) {
+        if ( s.indexOf( '%' ) < 0 ) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder( s.length() );
+        for ( int i = 0; i < s.length(); i++ ) {
+            char c = s.charAt( i );
+            int hi = c == '%' && i + 2 < s.length() ? Character.digit( s.charAt( i + 1 ), 16 ) : -1;
+            int lo = hi >= 0 ? Character.digit( s.charAt( i + 2 ), 16 ) : -1;
+            if ( lo >= 0 ) {
+                sb.append( (char) ( ( hi << 4 ) | lo ) );
+                i += 2;
+            } else {
+                sb.append( c );
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals( Object o ) {
+        if ( this == o ) return true;
+        if ( o == null || getClass() != o.getClass() ) return false;
+
+        TagAttribute impl = (TagAttribute) o;
+
+        if ( !className.equals( impl.className ) ) return false;
+        if ( !tagName.equals( impl.tagName ) ) return false;
+        if ( !name.equals( impl.name ) ) return false;
+        if ( !value.equals( impl.value ) ) return false;
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = className.hashCode();
+        result = 31 * result + tagName.hashCode();
+        result = 31 * result + name.hashCode();
+        result = 31 * result + value.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return className + ':' + tagName + ':' + escape( name ) + '=' + escape( value );
+    }
+
+}
@@ -16,6 +16,7 @@
 
 package org.dbrain.tags.impl;
 
+import java.util.Comparator;
 import java.util.Objects;
 
 /**
@@ -23,6 +24,11 @@ import java.util.Objects;
  */
 public class TagEntry {
 
+    /**
+     * Order of the entries in the tag files: by class name, then by tag name.
+     */
+    public static final Comparator<TagEntry> ORDER = Comparator.comparing( TagEntry::getClassName ).thenComparing( TagEntry::getTagName );
+
     private final String      className;
     private final String      tagName;
 
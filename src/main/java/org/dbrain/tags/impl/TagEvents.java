@@ -0,0 +1,120 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.impl;
+
+import java.net.URL;
+
+/**
+ * JDK Flight Recorder events of the query engine.
+ * <p>
+ * Events are recorded only if jdk.jfr is available and the events are enabled in the recording settings, for instance
+ * with org.dbrain.tags.ResourceParsed#enabled=true; they are disabled by default. Each phase calls begin, which returns
+ * null when the event is off, then the matching end method with the same handle. This class does not reference jdk.jfr
+ * itself, so it loads on any JVM.
+ */
+public class TagEvents {
+
+    /**
+     * Phases of a query.
+     */
+    public enum Type {
+        /**
+         * Listing of the tag files of a class loader.
+         */
+        RESOURCES,
+        /**
+         * Parsing of one tag file.
+         */
+        PARSE,
+        /**
+         * Grouping and filtering of the entries of a query.
+         */
+        SELECT,
+        /**
+         * Loading of one tagged class.
+         */
+        LOAD_CLASS
+    }
+
+    private static final Recorder RECORDER = createRecorder();
+
+    /**
+     * Recorder doing nothing, overridden when jdk.jfr is available.
+     */
+    static class Recorder {
+
+        Object begin( Type type ) {
+            return null;
+        }
+
+        void endResources( Object event, ClassLoader cl, int resources ) {
+        }
+
+        void endParse( Object event, URL resource, long bytes, int entries, int attributes ) {
+        }
+
+        void endSelect( Object event, int candidates, int selected ) {
+        }
+
+        void endLoadClass( Object event, String className, boolean loaded ) {
+        }
+
+    }
+
+    private static Recorder createRecorder() {
+        try {
+            Class.forName( "jdk.jfr.Event", false, TagEvents.class.getClassLoader() );
+            return new JfrRecorder();
+        } catch ( ClassNotFoundException | LinkageError e ) {
+            return new Recorder();
+        }
+    }
+
+    /**
+     * Start an event.
+     *
+     * @return The handle to pass to the matching end method, or null if the event is off.
+     */
+    public static Object begin( Type type ) {
+        return RECORDER.begin( type );
+    }
+
+    public static void endResources( Object event, ClassLoader cl, int resources ) {
+        if ( event != null ) {
+            RECORDER.endResources( event, cl, resources );
+        }
+    }
+
+    public static void endParse( Object event, URL resource, long bytes, int entries, int attributes ) {
+        if ( event != null ) {
+            RECORDER.endParse( event, resource, bytes, entries, attributes );
+        }
+    }
+
+    public static void endSelect( Object event, int candidates, int selected ) {
+        if ( event != null ) {
+            RECORDER.endSelect( event, candidates, selected );
+        }
+    }
+
+    public static void endLoadClass( Object event, String className, boolean loaded ) {
+        if ( event != null ) {
+            RECORDER.endLoadClass( event, className, loaded );
+        }
+    }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.impl;
+
+/**
+ * Encoding of a tag file.
+ */
+public enum TagFileFormat {
+
+    /**
+     * One className:tagName entry per line.
+     */
+    TEXT,
+
+    /**
+     * Front-coded binary format, see {@link CompactTagFile}.
+     */
+    COMPACT,
+
+    /**
+     * Front-coded binary format with deflated blocks.
+     */
+    COMPACT_DEFLATE;
+
+    /**
+     * Parse a format from an option value like "text", "compact" or "compact-deflate".
+     */
+    public static TagFileFormat parse( String value ) {
+        if ( value == null || value.trim().isEmpty() ) {
+            return TEXT;
+        }
+        return valueOf( value.trim().toUpperCase().replace( '-', '_' ) );
+    }
+
+}
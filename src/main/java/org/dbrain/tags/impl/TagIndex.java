@@ -0,0 +1,545 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.impl;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.IntStream;
+
+/**
+ * Immutable, columnar in-memory index of tag entries.
+ * <p>
+ * All class and tag names are stored once in a sorted string table. Classes and tags are identified by their ordinal,
+ * which follows the name order, and the class to tag relation is stored as compressed sparse rows in both directions.
+ * Iterating classes by ordinal therefore yields them sorted by name.
+ */
+public class TagIndex {
+
+    private static final TagAttribute[] NO_ATTRIBUTES = new TagAttribute[0];
+
+    static final Comparator<TagAttribute> ATTRIBUTE_ORDER = Comparator.comparing( TagAttribute::getClassName )
+                                                                      .thenComparing( TagAttribute::getTagName )
+                                                                      .thenComparing( TagAttribute::getName )
+                                                                      .thenComparing( TagAttribute::getValue );
+
+    /**
+     * An index without any entry.
+     */
+    public static final TagIndex EMPTY = build( Collections.<TagEntry>emptyList() );
+
+    private final String[] names;
+    private final int[]    classes;
+    private final int[]    tags;
+    private final int[]    classTagStart;
+    private final int[]    classTags;
+    private final int[]    tagClassStart;
+    private final int[]    tagClasses;
+
+    // Attributes are sparse, they are kept sorted by class with a row index.
+    private final int[]          classAttributeStart;
+    private final TagAttribute[] attributes;
+
+    private TagIndex( String[] names,
+                      int[] classes,
+                      int[] tags,
+                      int[] classTagStart,
+                      int[] classTags,
+                      int[] tagClassStart,
+                      int[] tagClasses,
+                      int[] classAttributeStart,
+                      TagAttribute[] attributes ) {
+        this.names = names;
+        this.classes = classes;
+        this.tags = tags;
+        this.classTagStart = classTagStart;
+        this.classTags = classTags;
+        this.tagClassStart = tagClassStart;
+        this.tagClasses = tagClasses;
+        this.classAttributeStart = classAttributeStart;
+        this.attributes = attributes;
+    }
+
+    /**
+     * Build an index from tag entries. Duplicate entries are ignored.
+     */
+    public static TagIndex build( Collection<TagEntry> entries ) {
+        return build( entries, Collections.<TagAttribute>emptyList() );
+    }
+
+    /**
+     * Build an index from tag entries and attributes. Duplicates are ignored, as are the attributes of classes
+     * without any entry.
+     */
+    public static TagIndex build( Collection<TagEntry> entries, Collection<TagAttribute> attributes ) {
+        TreeSet<String> classNames = new TreeSet<>();
+        TreeSet<String> tagNames = new TreeSet<>();
+        for ( TagEntry e : entries ) {
+            classNames.add( e.getClassName() );
+            tagNames.add( e.getTagName() );
+        }
+        TreeSet<String> allNames = new TreeSet<>( classNames );
+        allNames.addAll( tagNames );
+        String[] names = allNames.toArray( new String[allNames.size()] );
+
+        int[] classes = toNameIds( names, classNames );
+        int[] tags = toNameIds( names, tagNames );
+        String[] sortedClassNames = classNames.toArray( new String[classNames.size()] );
+        String[] sortedTagNames = tagNames.toArray( new String[tagNames.size()] );
+
+        // Encode each relation as a long to sort it in both directions without boxing.
+        long[] byClass = new long[entries.size()];
+        long[] byTag = new long[entries.size()];
+        int n = 0;
+        for ( TagEntry e : entries ) {
+            long c = Arrays.binarySearch( sortedClassNames, e.getClassName() );
+            long t = Arrays.binarySearch( sortedTagNames, e.getTagName() );
+            byClass[n] = ( c << 32 ) | t;
+            byTag[n] = ( t << 32 ) | c;
+            n++;
+        }
+        Arrays.sort( byClass );
+        Arrays.sort( byTag );
+
+        int[] classTagStart = new int[classes.length + 1];
+        int[] classTags = toAdjacency( byClass, classTagStart );
+        int[] tagClassStart = new int[tags.length + 1];
+        int[] tagClasses = toAdjacency( byTag, tagClassStart );
+
+        int[] classAttributeStart = new int[classes.length + 1];
+        TagAttribute[] sortedAttributes = sortAttributes( attributes, sortedClassNames, classAttributeStart );
+
+        return new TagIndex( names, classes, tags, classTagStart, classTags, tagClassStart, tagClasses, classAttributeStart, sortedAttributes );
+    }
+
+    /**
+     * Sort and deduplicate the attributes of the indexed classes, and fill the start of each class's attributes.
+     */
+    private static TagAttribute[] sortAttributes( Collection<TagAttribute> attributes, String[] sortedClassNames, int[] classAttributeStart ) {
+        if ( attributes.isEmpty() ) {
+            return NO_ATTRIBUTES;
+        }
+        TreeSet<TagAttribute> kept = new TreeSet<>( ATTRIBUTE_ORDER );
+        for ( TagAttribute a : attributes ) {
+            if ( Arrays.binarySearch( sortedClassNames, a.getClassName() ) >= 0 ) {
+                kept.add( a );
+            }
+        }
+        TagAttribute[] result = kept.toArray( new TagAttribute[kept.size()] );
+        for ( TagAttribute a : result ) {
+            classAttributeStart[Arrays.binarySearch( sortedClassNames, a.getClassName() ) + 1]++;
+        }
+        for ( int i = 1; i < classAttributeStart.length; i++ ) {
+            classAttributeStart[i] += classAttributeStart[i - 1];
+        }
+        return result;
+    }
+
+    /**
+     * Builder of an index from entries received sorted by {@link TagEntry#ORDER}. Classes are grouped as they come,
+     * without hashing, and only the distinct tag names are kept in a map.
+     */
+    static class SortedBuilder {
+
+        private final List<String>             classNames    = new ArrayList<>();
+        private int[]                          classTagStart = new int[16];
+        private int[]                          classTags     = new int[16];
+        private int                            entryCount;
+        private final TreeMap<String, Integer> tagIds        = new TreeMap<>();
+        private final List<String>             tagNames      = new ArrayList<>();
+        private String                         lastClass;
+        private String                         lastTag;
+
+        /**
+         * Add an entry. Duplicates of the last entry are ignored.
+         *
+         * @throws IllegalArgumentException If the entry comes before the last one.
+         */
+        void add( String className, String tagName ) {
+            int c = lastClass != null ? className.compareTo( lastClass ) : 1;
+            int t = c == 0 ? tagName.compareTo( lastTag ) : 1;
+            if ( c < 0 || t < 0 ) {
+                throw new IllegalArgumentException( "Entry out of order: " + className + ':' + tagName );
+            }
+            if ( t == 0 ) {
+                return;
+            }
+            if ( c > 0 ) {
+                classTagStart = ensureCapacity( classTagStart, classNames.size() + 2 );
+                classNames.add( className );
+                classTagStart[classNames.size()] = entryCount;
+                lastClass = className;
+            }
+            Integer id = tagIds.get( tagName );
+            if ( id == null ) {
+                id = tagNames.size();
+                tagIds.put( tagName, id );
+                tagNames.add( tagName );
+            }
+            classTags = ensureCapacity( classTags, entryCount + 1 );
+            classTags[entryCount++] = id;
+            classTagStart[classNames.size()] = entryCount;
+            lastTag = tagName;
+        }
+
+        /**
+         * @return The entries added so far, sorted.
+         */
+        Iterator<TagEntry> entries() {
+            return new Iterator<TagEntry>() {
+
+                private int classOrdinal;
+                private int entry;
+
+                @Override
+                public boolean hasNext() {
+                    return entry < entryCount;
+                }
+
+                @Override
+                public TagEntry next() {
+                    if ( !hasNext() ) {
+                        throw new NoSuchElementException();
+                    }
+                    while ( classTagStart[classOrdinal + 1] <= entry ) {
+                        classOrdinal++;
+                    }
+                    return new TagEntry( classNames.get( classOrdinal ), tagNames.get( classTags[entry++] ) );
+                }
+            };
+        }
+
+        TagIndex build( Collection<TagAttribute> attributes ) {
+            String[] sortedClassNames = classNames.toArray( new String[classNames.size()] );
+            String[] sortedTagNames = tagIds.keySet().toArray( new String[tagIds.size()] );
+
+            // Tags were numbered as they came, renumber them in name order. Tags of a class keep their order.
+            int[] tagOrdinals = new int[sortedTagNames.length];
+            int ordinal = 0;
+            for ( Integer id : tagIds.values() ) {
+                tagOrdinals[id] = ordinal++;
+            }
+            int classCount = sortedClassNames.length;
+            int[] adjacency = new int[entryCount];
+            for ( int i = 0; i < entryCount; i++ ) {
+                adjacency[i] = tagOrdinals[classTags[i]];
+            }
+            int[] classStart = Arrays.copyOf( classTagStart, classCount + 1 );
+
+            // Transpose the relation, classes of each tag stay sorted.
+            int[] tagClassStart = new int[sortedTagNames.length + 1];
+            for ( int i = 0; i < entryCount; i++ ) {
+                tagClassStart[adjacency[i] + 1]++;
+            }
+            for ( int i = 1; i < tagClassStart.length; i++ ) {
+                tagClassStart[i] += tagClassStart[i - 1];
+            }
+            int[] tagClasses = new int[entryCount];
+            int[] fill = Arrays.copyOf( tagClassStart, sortedTagNames.length );
+            for ( int c = 0; c < classCount; c++ ) {
+                for ( int i = classStart[c]; i < classStart[c + 1]; i++ ) {
+                    tagClasses[fill[adjacency[i]]++] = c;
+                }
+            }
+
+            // Merge the two sorted name lists.
+            List<String> names = new ArrayList<>( classCount + sortedTagNames.length );
+            int[] classes = new int[classCount];
+            int[] tags = new int[sortedTagNames.length];
+            int ci = 0;
+            int ti = 0;
+            while ( ci < classCount || ti < tags.length ) {
+                int cmp = ci == classCount ? 1 : ti == tags.length ? -1 : sortedClassNames[ci].compareTo( sortedTagNames[ti] );
+                if ( cmp <= 0 ) {
+                    classes[ci++] = names.size();
+                }
+                if ( cmp >= 0 ) {
+                    tags[ti++] = names.size();
+                }
+                names.add( cmp <= 0 ? sortedClassNames[ci - 1] : sortedTagNames[ti - 1] );
+            }
+
+            int[] classAttributeStart = new int[classCount + 1];
+            TagAttribute[] sortedAttributes = sortAttributes( attributes, sortedClassNames, classAttributeStart );
+            return new TagIndex( names.toArray( new String[names.size()] ), classes, tags, classStart, adjacency, tagClassStart, tagClasses, classAttributeStart, sortedAttributes );
+        }
+
+        private static int[] ensureCapacity( int[] array, int capacity ) {
+            return array.length >= capacity ? array : Arrays.copyOf( array, Math.max( capacity, array.length * 2 ) );
+        }
+    }
+
+    private static int[] toNameIds( String[] names, Collection<String> values ) {
+        int[] result = new int[values.size()];
+        int i = 0;
+        for ( String v : values ) {
+            result[i++] = Arrays.binarySearch( names, v );
+        }
+        return result;
+    }
+
+    /**
+     * Convert sorted (row, column) pairs into compressed sparse rows, dropping duplicates.
+     */
+    static int[] toAdjacency( long[] pairs, int[] rowStart ) {
+        int[] columns = new int[pairs.length];
+        int count = 0;
+        long previous = -1;
+        for ( long pair : pairs ) {
+            if ( pair == previous ) {
+                continue;
+            }
+            previous = pair;
+            rowStart[(int) ( pair >>> 32 ) + 1]++;
+            columns[count++] = (int) pair;
+        }
+        for ( int i = 1; i < rowStart.length; i++ ) {
+            rowStart[i] += rowStart[i - 1];
+        }
+        return count == columns.length ? columns : Arrays.copyOf( columns, count );
+    }
+
+    /**
+     * @return The number of classes in the index.
+     */
+    public int getClassCount() {
+        return classes.length;
+    }
+
+    /**
+     * @return The number of distinct tags in the index.
+     */
+    public int getTagCount() {
+        return tags.length;
+    }
+
+    /**
+     * @return The name of the class at the specified ordinal.
+     */
+    public String getClassName( int classOrdinal ) {
+        return names[classes[classOrdinal]];
+    }
+
+    /**
+     * @return The name of the tag at the specified ordinal.
+     */
+    public String getTagName( int tagOrdinal ) {
+        return names[tags[tagOrdinal]];
+    }
+
+    /**
+     * @return The ordinal of the class or a negative value if the class is not in the index.
+     */
+    public int indexOfClass( String className ) {
+        int nameId = className != null ? Arrays.binarySearch( names, className ) : -1;
+        return nameId >= 0 ? Arrays.binarySearch( classes, nameId ) : -1;
+    }
+
+    /**
+     * @return The ordinal of the first class whose name is greater or equal to the specified name, or the class count
+     * if there is none.
+     */
+    public int lowerBoundOfClass( String name ) {
+        int nameId = Arrays.binarySearch( names, name );
+        if ( nameId < 0 ) {
+            nameId = -nameId - 1;
+        }
+        int ordinal = Arrays.binarySearch( classes, nameId );
+        return ordinal >= 0 ? ordinal : -ordinal - 1;
+    }
+
+    /**
+     * List the classes of a package with a range scan over the sorted class names, skipping over the sub-packages
+     * if they are not wanted.
+     *
+     * @param packageName The name of the package, empty for the default package.
+     * @param recursive   True to include the classes of the sub-packages.
+     * @return The ordinals of the classes, in ascending order.
+     */
+    public IntStream classesInPackage( String packageName, boolean recursive ) {
+        String prefix = packageName.isEmpty() ? "" : packageName + '.';
+        int from = lowerBoundOfClass( prefix );
+        int to = prefix.isEmpty() ? classes.length : lowerBoundOfClass( packageName + (char) ( '.' + 1 ) );
+        if ( recursive ) {
+            return IntStream.range( from, to );
+        }
+        IntStream.Builder result = IntStream.builder();
+        int i = from;
+        while ( i < to ) {
+            String className = getClassName( i );
+            int dot = className.indexOf( '.', prefix.length() );
+            if ( dot < 0 ) {
+                result.add( i++ );
+            } else {
+                // Skip the whole sub-package.
+                i = lowerBoundOfClass( className.substring( 0, dot ) + (char) ( '.' + 1 ) );
+            }
+        }
+        return result.build();
+    }
+
+    /**
+     * @return The ordinal of the tag or a negative value if the tag is not in the index.
+     */
+    public int indexOfTag( String tagName ) {
+        int nameId = tagName != null ? Arrays.binarySearch( names, tagName ) : -1;
+        return nameId >= 0 ? Arrays.binarySearch( tags, nameId ) : -1;
+    }
+
+    /**
+     * @return The ordinals of the tags on a class, in ascending order.
+     */
+    public IntStream tagsOf( int classOrdinal ) {
+        return Arrays.stream( classTags, classTagStart[classOrdinal], classTagStart[classOrdinal + 1] );
+    }
+
+    /**
+     * @return The ordinals of the classes having a tag, in ascending order.
+     */
+    public IntStream classesWithTag( int tagOrdinal ) {
+        return Arrays.stream( tagClasses, tagClassStart[tagOrdinal], tagClassStart[tagOrdinal + 1] );
+    }
+
+    /**
+     * True if the class has the tag.
+     */
+    public boolean hasTag( int classOrdinal, int tagOrdinal ) {
+        return tagOrdinal >= 0 && Arrays.binarySearch( classTags, classTagStart[classOrdinal], classTagStart[classOrdinal + 1], tagOrdinal ) >= 0;
+    }
+
+    /**
+     * True if the class has the tag.
+     */
+    public boolean hasTag( int classOrdinal, String tagName ) {
+        return hasTag( classOrdinal, indexOfTag( tagName ) );
+    }
+
+    /**
+     * @return A read-only view of the tag names of a class.
+     */
+    public Set<String> getTags( int classOrdinal ) {
+        return new TagSet( classOrdinal );
+    }
+
+    /**
+     * @return The attributes of a class, sorted by tag, name and value.
+     */
+    public List<TagAttribute> getAttributes( int classOrdinal ) {
+        return Collections.unmodifiableList( Arrays.asList( attributes ).subList( classAttributeStart[classOrdinal], classAttributeStart[classOrdinal + 1] ) );
+    }
+
+    /**
+     * @param tagName The name of the tag, or an empty string for an attribute of the class itself.
+     * @return The values of an attribute of a class, in ascending order.
+     */
+    public List<String> getAttributeValues( int classOrdinal, String tagName, String name ) {
+        List<String> result = new ArrayList<>( 1 );
+        for ( int i = classAttributeStart[classOrdinal]; i < classAttributeStart[classOrdinal + 1]; i++ ) {
+            TagAttribute a = attributes[i];
+            if ( a.getTagName().equals( tagName ) && a.getName().equals( name ) ) {
+                result.add( a.getValue() );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param tagName The name of the tag, or an empty string for an attribute of the class itself.
+     * @return The first value of an attribute of a class, or null if the class does not have it.
+     */
+    public String getAttribute( int classOrdinal, String tagName, String name ) {
+        for ( int i = classAttributeStart[classOrdinal]; i < classAttributeStart[classOrdinal + 1]; i++ ) {
+            TagAttribute a = attributes[i];
+            if ( a.getTagName().equals( tagName ) && a.getName().equals( name ) ) {
+                return a.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return A rough estimate of the heap used by the index, in bytes.
+     */
+    public long estimateBytes() {
+        long result = 64;
+        for ( String name : names ) {
+            result += 40 + 2L * name.length();
+        }
+        result += 4L * ( classes.length + tags.length + classTagStart.length + classTags.length + tagClassStart.length + tagClasses.length + classAttributeStart.length );
+        for ( TagAttribute a : attributes ) {
+            result += 120 + 2L * ( a.getName().length() + a.getValue().length() );
+        }
+        return result;
+    }
+
+    /**
+     * Read-only set of the tag names of a single class, backed by the index.
+     */
+    private class TagSet extends AbstractSet<String> {
+
+        private final int start;
+        private final int end;
+        private final int classOrdinal;
+
+        private TagSet( int classOrdinal ) {
+            this.classOrdinal = classOrdinal;
+            this.start = classTagStart[classOrdinal];
+            this.end = classTagStart[classOrdinal + 1];
+        }
+
+        @Override
+        public boolean contains( Object o ) {
+            return o instanceof String && hasTag( classOrdinal, (String) o );
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return new Iterator<String>() {
+
+                private int next = start;
+
+                @Override
+                public boolean hasNext() {
+                    return next < end;
+                }
+
+                @Override
+                public String next() {
+                    if ( next >= end ) {
+                        throw new NoSuchElementException();
+                    }
+                    return getTagName( classTags[next++] );
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return end - start;
+        }
+    }
+
+}
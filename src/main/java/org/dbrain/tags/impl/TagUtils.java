@@ -16,24 +16,40 @@
 
 package org.dbrain.tags.impl;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.net.JarURLConnection;
 import java.net.URL;
+import java.net.URLConnection;
 import java.nio.charset.Charset;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.jar.JarEntry;
+import java.util.zip.CRC32;
 
 /**
  * Utilities about class tags.
@@ -51,7 +67,10 @@ public class TagUtils {
      * List all resources files containing tags.
      */
     public static List<URL> listResources( ClassLoader cl ) throws IOException {
-        return Collections.list( cl.getResources( TAG_FILE_NAME ) );
+        Object event = TagEvents.begin( TagEvents.Type.RESOURCES );
+        List<URL> result = Collections.list( cl.getResources( TAG_FILE_NAME ) );
+        TagEvents.endResources( event, cl, result.size() );
+        return result;
     }
 
     /**
@@ -60,11 +79,24 @@ public class TagUtils {
     public static <T extends Collection<TagEntry>> T loadEntries( List<URL> resources,
                                                                   T to,
                                                                   Predicate<TagEntry> filter ) throws IOException {
-        for ( URL u : resources ) {
-            try ( InputStream is = u.openStream() ) {
-                TagUtils.loadEntries( is, to, filter );
+        return loadEntries( resources, to, null, filter );
+    }
+
+    /**
+     * Query all classes tagged with the specific tag. Resources with the same content as a previous one are skipped.
+     *
+     * @param tagNames If not null, only the entries of these tags are loaded. Compact files skip the other tags
+     *                 without decoding them.
+     */
+    public static <T extends Collection<TagEntry>> T loadEntries( List<URL> resources,
+                                                                  T to,
+                                                                  Set<String> tagNames,
+                                                                  Predicate<TagEntry> filter ) throws IOException {
+        loadTagFiles( resources, null, ( u, is ) -> loadTagFile( u, is, tagNames, entry -> {
+            if ( filter == null || filter.test( entry ) ) {
+                to.add( entry );
             }
-        }
+        }, null ) );
         return to;
     }
 
@@ -74,53 +106,492 @@ public class TagUtils {
      * It returns a map of class names with each a list of tag annotation names found on the class.
      */
     public static <T extends Collection<TagEntry>> T loadEntries( InputStream inf, T to, Predicate<TagEntry> filter ) throws IOException {
+        return loadEntries( inf, to, null, filter );
+    }
+
+    /**
+     * Read a file of class tags, either in text or compact format.
+     */
+    public static <T extends Collection<TagEntry>> T loadEntries( InputStream inf, T to, Set<String> tagNames, Predicate<TagEntry> filter ) throws IOException {
+        loadTagFile( inf, tagNames, entry -> {
+            if ( filter == null || filter.test( entry ) ) {
+                to.add( entry );
+            }
+        }, null );
+        return to;
+    }
+
+    public static Set<TagEntry> loadEntries( InputStream inf ) throws IOException {
+        return loadEntries( inf, new HashSet<>( ), null );
+    }
+
+    /**
+     * Load entries and attributes of all resources in an index.
+     *
+     * @param tagNames If not null, only the entries and attributes of these tags are loaded.
+     * @param filter   If not null, only the entries accepted by the filter are loaded.
+     */
+    public static TagIndex loadIndex( List<URL> resources, Set<String> tagNames, Predicate<TagEntry> filter ) throws IOException {
+        return loadIndex( resources, tagNames, filter, null );
+    }
 
-        BufferedReader in = new BufferedReader( new InputStreamReader( inf, Charset.forName( TAG_FILE_CHARSET ) ) );
-        String ln;
+    /**
+     * Load entries and attributes of all resources in an index. Resources with the same content as a previous one are
+     * skipped. Entries of the resources are merged in order, see {@link SortedMerge}.
+     *
+     * @param tagNames    If not null, only the entries and attributes of these tags are loaded.
+     * @param filter      If not null, only the entries accepted by the filter are loaded.
+     * @param onDuplicate If not null, called with each skipped resource and the resource it duplicates.
+     */
+    public static TagIndex loadIndex( List<URL> resources,
+                                      Set<String> tagNames,
+                                      Predicate<TagEntry> filter,
+                                      BiConsumer<URL, URL> onDuplicate ) throws IOException {
+        List<TagFileReader> readers = new ArrayList<>();
+        List<TagAttribute> attributes = new ArrayList<>();
         try {
-            while ( ( ln = in.readLine() ) != null ) {
+            loadTagFiles( resources, onDuplicate, ( u, is ) -> readers.add( new TagFileReader( u, is, tagNames, true, attributes::add ) ) );
+            return SortedMerge.merge( readers, filter, attributes );
+        } catch ( UncheckedIOException e ) {
+            throw e.getCause();
+        } finally {
+            for ( TagFileReader reader : readers ) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Load the attributes of all resources. Resources with the same content as a previous one are skipped.
+     *
+     * @param tagNames If not null, only the class attributes and the attributes of these tags are loaded.
+     */
+    public static <T extends Collection<TagAttribute>> T loadAttributes( List<URL> resources,
+                                                                         T to,
+                                                                         Set<String> tagNames,
+                                                                         Predicate<TagAttribute> filter ) throws IOException {
+        loadTagFiles( resources, null, ( u, is ) -> loadTagFile( u, is, tagNames, null, attribute -> {
+            if ( filter == null || filter.test( attribute ) ) {
+                to.add( attribute );
+            }
+        } ) );
+        return to;
+    }
+
+    /**
+     * Read the attributes of a file of class tags, either in text or compact format.
+     */
+    public static <T extends Collection<TagAttribute>> T loadAttributes( InputStream inf, T to, Set<String> tagNames, Predicate<TagAttribute> filter ) throws IOException {
+        loadTagFile( inf, tagNames, null, attribute -> {
+            if ( filter == null || filter.test( attribute ) ) {
+                to.add( attribute );
+            }
+        } );
+        return to;
+    }
+
+    /**
+     * Receives the content of a tag file.
+     */
+    private interface TagFileVisitor {
+
+        void visit( URL resource, InputStream content ) throws IOException;
+
+    }
+
+    /**
+     * Open tag files, skipping the files with the same content as a previous one. The visitor must close the streams.
+     * <p>
+     * Each file is fingerprinted by its size and CRC-32. For jar entries both come from the central directory of the
+     * jar, so distinct files are opened without being read twice; other files are read once, then parsed from memory.
+     * A matching fingerprint only selects candidates: a file is skipped once its bytes equal those of a candidate.
+     */
+    private static void loadTagFiles( List<URL> resources, BiConsumer<URL, URL> onDuplicate, TagFileVisitor visitor ) throws IOException {
+        Map<String, List<URL>> fingerprints = new HashMap<>();
+        for ( URL u : resources ) {
+            URLConnection connection = u.openConnection();
+            String fingerprint = null;
+            byte[] content = null;
+            if ( connection instanceof JarURLConnection ) {
+                JarEntry entry = ( (JarURLConnection) connection ).getJarEntry();
+                if ( entry != null && entry.getSize() >= 0 && entry.getCrc() >= 0 ) {
+                    fingerprint = entry.getSize() + "/" + Long.toHexString( entry.getCrc() );
+                }
+            }
+            if ( fingerprint == null ) {
+                content = readContent( connection );
+                CRC32 crc = new CRC32();
+                crc.update( content, 0, content.length );
+                fingerprint = content.length + "/" + Long.toHexString( crc.getValue() );
+            }
+            List<URL> candidates = fingerprints.computeIfAbsent( fingerprint, k -> new ArrayList<>( 1 ) );
+            URL original = null;
+            if ( !candidates.isEmpty() ) {
+                if ( content == null ) {
+                    content = readContent( connection );
+                }
+                for ( URL candidate : candidates ) {
+                    if ( Arrays.equals( content, readContent( candidate.openConnection() ) ) ) {
+                        original = candidate;
+                        break;
+                    }
+                }
+            }
+            if ( original != null ) {
+                if ( onDuplicate != null ) {
+                    onDuplicate.accept( u, original );
+                }
+                continue;
+            }
+            candidates.add( u );
+            visitor.visit( u, content != null ? new ByteArrayInputStream( content ) : connection.getInputStream() );
+        }
+    }
+
+    private static byte[] readContent( URLConnection connection ) throws IOException {
+        try ( InputStream is = connection.getInputStream() ) {
+            return readFully( is );
+        }
+    }
+
+    /**
+     * Read a tag file from an URL, recording a Flight Recorder event if enabled. The stream is closed.
+     */
+    private static void loadTagFile( URL resource,
+                                     InputStream content,
+                                     Set<String> tagNames,
+                                     Consumer<TagEntry> entries,
+                                     Consumer<TagAttribute> attributes ) throws IOException {
+        try ( TagFileReader reader = new TagFileReader( resource, content, tagNames, entries != null, attributes ) ) {
+            while ( reader.hasNext() ) {
+                entries.accept( reader.next() );
+            }
+        } catch ( UncheckedIOException e ) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Read a file of class tags, either in text or compact format, and send each entry and attribute to a consumer.
+     *
+     * @param tagNames   If not null, only the entries and attributes of these tags are read. Class attributes are
+     *                   always read.
+     * @param entries    Receives the entries. If null, entries are skipped.
+     * @param attributes Receives the attributes. If null, attributes are skipped.
+     */
+    public static void loadTagFile( InputStream inf,
+                                    Set<String> tagNames,
+                                    Consumer<TagEntry> entries,
+                                    Consumer<TagAttribute> attributes ) throws IOException {
+        loadTagFile( null, inf, tagNames, entries, attributes );
+    }
+
+    /**
+     * Iterator over the entries of a tag file, in file order. Attributes are sent to a consumer as they are read:
+     * all at once for a compact file, along with the entries for a text file. I/O errors are thrown as
+     * UncheckedIOException. The file is closed, and the Flight Recorder event committed, once exhausted.
+     */
+    private static class TagFileReader implements Iterator<TagEntry>, Closeable {
+
+        private final URL                    resource;
+        private final Set<String>            tagNames;
+        private final boolean                readEntries;
+        private final Consumer<TagAttribute> attributes;
+        private final Object                 event;
+        private final CountingInputStream    counter;
+        private int                          entryCount;
+        private int                          attributeCount;
+
+        // Text files are read line by line, compact ones are decoded block by block.
+        private BufferedReader     text;
+        private Iterator<TagEntry> compact;
+        private TagEntry           next;
+        private boolean            closed;
+
+        /**
+         * @param resource The URL of the file, to record a Flight Recorder event, or null.
+         */
+        private TagFileReader( URL resource,
+                               InputStream content,
+                               Set<String> tagNames,
+                               boolean readEntries,
+                               Consumer<TagAttribute> attributes ) throws IOException {
+            this.resource = resource;
+            this.tagNames = tagNames;
+            this.readEntries = readEntries;
+            this.attributes = attributes;
+            this.event = resource != null ? TagEvents.begin( TagEvents.Type.PARSE ) : null;
+            this.counter = event != null ? new CountingInputStream( content ) : null;
+
+            BufferedInputStream bis = new BufferedInputStream( counter != null ? counter : content );
+            try {
+                byte[] header = new byte[CompactTagFile.MAGIC.length];
+                bis.mark( header.length );
+                int headerLength = readHeader( bis, header );
+                bis.reset();
+                if ( CompactTagFile.isCompact( header, headerLength ) ) {
+                    try {
+                        CompactTagFile file = CompactTagFile.read( bis );
+                        if ( attributes != null ) {
+                            file.loadAttributes( new ConsumerCollection<>( this::acceptAttribute ), tagNames, null );
+                        }
+                        compact = readEntries ? file.iterator( tagNames ) : Collections.emptyIterator();
+                    } finally {
+                        bis.close();
+                    }
+                } else {
+                    text = new BufferedReader( new InputStreamReader( bis, Charset.forName( TAG_FILE_CHARSET ) ) );
+                }
+            } catch ( IOException | RuntimeException e ) {
+                bis.close();
+                throw e;
+            }
+        }
+
+        private void acceptAttribute( TagAttribute attribute ) {
+            attributeCount++;
+            attributes.accept( attribute );
+        }
+
+        @Override
+        public boolean hasNext() {
+            if ( next == null && !closed ) {
+                try {
+                    next = compact != null ? ( compact.hasNext() ? compact.next() : null ) : readLine();
+                    if ( next == null ) {
+                        close();
+                    }
+                } catch ( IOException e ) {
+                    throw new UncheckedIOException( e );
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public TagEntry next() {
+            if ( !hasNext() ) {
+                throw new NoSuchElementException();
+            }
+            TagEntry result = next;
+            next = null;
+            entryCount++;
+            return result;
+        }
+
+        /**
+         * Read text lines up to the next entry, sending the attributes to their consumer.
+         *
+         * @return The entry, or null at the end of the file.
+         */
+        private TagEntry readLine() throws IOException {
+            String ln;
+            while ( ( ln = text.readLine() ) != null ) {
                 String[] parts = ln.split( ":" );
                 if ( parts.length == 2 ) {
-                    TagEntry entry = new TagEntry( parts[0], parts[1] );
-                    if ( filter == null || ( filter != null && filter.test( entry ) ) ) {
-                        to.add( entry );
+                    if ( readEntries && ( tagNames == null || tagNames.contains( parts[1] ) ) ) {
+                        return new TagEntry( parts[0], parts[1] );
+                    }
+                } else if ( parts.length == 3 ) {
+                    if ( attributes == null ) {
+                        continue;
+                    }
+                    TagAttribute attribute = TagAttribute.parse( ln );
+                    if ( attribute != null && accept( attribute, tagNames ) ) {
+                        acceptAttribute( attribute );
                     }
                 } else {
                     // log( Diagnostic.Kind.WARNING, "Invalid entry found in file: " + ln );
                 }
             }
-        } finally {
-            in.close();
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if ( closed ) {
+                return;
+            }
+            closed = true;
+            if ( text != null ) {
+                text.close();
+            }
+            if ( event != null ) {
+                TagEvents.endParse( event, resource, counter.count, entryCount, attributeCount );
+            }
         }
-        return to;
     }
 
-    public static Set<TagEntry> loadEntries( InputStream inf ) throws IOException {
-        return loadEntries( inf, new HashSet<>( ), null );
+    /**
+     * Stream counting the bytes read.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        private CountingInputStream( InputStream in ) {
+            super( in );
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if ( b >= 0 ) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read( byte[] b, int off, int len ) throws IOException {
+            int n = super.read( b, off, len );
+            if ( n > 0 ) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip( long n ) throws IOException {
+            long skipped = super.skip( n );
+            count += skipped;
+            return skipped;
+        }
+
+    }
+
+    /**
+     * True if the attribute belongs to the class itself or to one of the tags.
+     */
+    static boolean accept( TagAttribute attribute, Set<String> tagNames ) {
+        return tagNames == null || attribute.getTagName().isEmpty() || tagNames.contains( attribute.getTagName() );
     }
 
     /**
      * Write tags to file.
      */
     public static void writeClassTags( Set<TagEntry> tags, OutputStream os ) throws IOException {
+        writeClassTags( tags, Collections.emptySet(), os );
+    }
 
-        List<TagEntry> tagsList = new ArrayList<>( tags );
-        Collections.sort( tagsList, Comparator.comparing( e -> e.toString() ) );
-
+    /**
+     * Write tags and attributes to file. Entries come first, sorted by {@link TagEntry#ORDER} so that readers can
+     * merge files without hashing, then attributes, sorted.
+     */
+    public static void writeClassTags( Set<TagEntry> tags, Set<TagAttribute> attributes, OutputStream os ) throws IOException {
         PrintWriter out = new PrintWriter( new OutputStreamWriter( os, TAG_FILE_CHARSET ) );
-        for ( TagEntry e : tagsList ) {
-            out.println( e );
+        List<TagEntry> sorted = new ArrayList<>( tags );
+        sorted.sort( TagEntry.ORDER );
+        for ( TagEntry entry : sorted ) {
+            out.println( entry );
+        }
+        for ( String line : sortedLines( attributes ) ) {
+            out.println( line );
         }
         out.close();
     }
 
+    /**
+     * Write tags to file using the specified format.
+     */
+    public static void writeClassTags( Set<TagEntry> tags, OutputStream os, TagFileFormat format ) throws IOException {
+        writeClassTags( tags, Collections.emptySet(), os, format );
+    }
+
+    /**
+     * Write tags and attributes to file using the specified format.
+     */
+    public static void writeClassTags( Set<TagEntry> tags, Set<TagAttribute> attributes, OutputStream os, TagFileFormat format ) throws IOException {
+        switch ( format ) {
+            case TEXT:
+                writeClassTags( tags, attributes, os );
+                break;
+            case COMPACT:
+            case COMPACT_DEFLATE:
+                CompactTagFile.write( tags, attributes, os, CompactTagFile.DEFAULT_BLOCK_SIZE, format == TagFileFormat.COMPACT_DEFLATE );
+                os.close();
+                break;
+            default:
+                throw new IllegalArgumentException( "Unsupported format: " + format );
+        }
+    }
+
+    /**
+     * Convert objects to their lines in the tag file, sorted.
+     */
+    static List<String> sortedLines( Collection<?> items ) {
+        List<String> result = new ArrayList<>( items.size() );
+        for ( Object item : items ) {
+            result.add( item.toString() );
+        }
+        Collections.sort( result );
+        return result;
+    }
+
+    /**
+     * Write-only collection forwarding added elements to a consumer.
+     */
+    private static class ConsumerCollection<T> extends AbstractCollection<T> {
+
+        private final Consumer<T> consumer;
+
+        private ConsumerCollection( Consumer<T> consumer ) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public boolean add( T t ) {
+            consumer.accept( t );
+            return true;
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return Collections.emptyIterator();
+        }
+
+        @Override
+        public int size() {
+            return 0;
+        }
+    }
+
+    /**
+     * Read a stream up to its end.
+     */
+    public static byte[] readFully( InputStream is ) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ( ( n = is.read( buffer ) ) >= 0 ) {
+            out.write( buffer, 0, n );
+        }
+        return out.toByteArray();
+    }
+
+    private static int readHeader( InputStream is, byte[] header ) throws IOException {
+        int length = 0;
+        while ( length < header.length ) {
+            int n = is.read( header, length, header.length - length );
+            if ( n < 0 ) {
+                break;
+            }
+            length += n;
+        }
+        return length;
+    }
+
     /**
      * Load a single class. In case of error, redirect error to a specific consumer and return null.
      */
     public static Class<?> loadClass( ClassLoader cl, String className, Consumer<ClassNotFoundException> onError) {
+        Object event = TagEvents.begin( TagEvents.Type.LOAD_CLASS );
         try {
-            return cl.loadClass( className );
+            Class<?> result = cl.loadClass( className );
+            TagEvents.endLoadClass( event, className, true );
+            return result;
         } catch ( ClassNotFoundException e ) {
+            TagEvents.endLoadClass( event, className, false );
             if ( onError != null ) {
                 onError.accept( e );
             }
@@ -0,0 +1,204 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.tools;
+
+import org.dbrain.tags.Tags;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Modifier;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Command line tool writing the class list of the tagged classes, for Class Data Sharing.
+ * <p>
+ * Usage: java -cp dbrain-tags.jar org.dbrain.tags.tools.ClassListGenerator [options] &lt;jar or directory&gt;...
+ * <p>
+ * The tagged classes are read from the merged tag files of the class path, and the concrete ones are listed along with
+ * all their supertypes, supertypes first. The list is accepted by -XX:SharedClassListFile, and the tool can run
+ * java -Xshare:dump to build the archive, to be used later with -XX:SharedArchiveFile. Archiving application classes
+ * requires a JDK 10 or later.
+ */
+public class ClassListGenerator {
+
+    private static final String USAGE = "Usage: ClassListGenerator [options] <jar or directory>...\n" +
+            "  -t, --tag <class>       Only list the classes with this tag, can be repeated.\n" +
+            "  -o, --output <file>     Class list to write, default to classlist.\n" +
+            "  -a, --archive <file>    Also run java -Xshare:dump to build this archive.\n" +
+            "      --java <file>       Java executable used to build the archive, default to the current one.\n" +
+            "  -h, --help              Print this message.";
+
+    public static void main( String[] args ) {
+        int status = run( args, System.out, System.err );
+        if ( status != 0 ) {
+            System.exit( status );
+        }
+    }
+
+    /**
+     * Run the generator.
+     *
+     * @return The exit status, 0 on success.
+     */
+    public static int run( String[] args, PrintStream out, PrintStream err ) {
+        Set<String> tagNames = new HashSet<>();
+        List<Path> classPath = new ArrayList<>();
+        Path output = Paths.get( "classlist" );
+        Path archive = null;
+        Path java = Paths.get( System.getProperty( "java.home" ), "bin", "java" );
+        try {
+            for ( int i = 0; i < args.length; i++ ) {
+                switch ( args[i] ) {
+                    case "-t":
+                    case "--tag":
+                        tagNames.add( ToolSupport.value( args, ++i ) );
+                        break;
+                    case "-o":
+                    case "--output":
+                        output = Paths.get( ToolSupport.value( args, ++i ) );
+                        break;
+                    case "-a":
+                    case "--archive":
+                        archive = Paths.get( ToolSupport.value( args, ++i ) );
+                        break;
+                    case "--java":
+                        java = Paths.get( ToolSupport.value( args, ++i ) );
+                        break;
+                    case "-h":
+                    case "--help":
+                        out.println( USAGE );
+                        return 0;
+                    default:
+                        if ( args[i].startsWith( "-" ) ) {
+                            throw new IllegalArgumentException( "Unknown option: " + args[i] );
+                        }
+                        classPath.add( Paths.get( args[i] ) );
+                }
+            }
+            if ( classPath.isEmpty() ) {
+                throw new IllegalArgumentException( "No input." );
+            }
+        } catch ( IllegalArgumentException e ) {
+            err.println( e.getMessage() );
+            err.println( USAGE );
+            return 2;
+        }
+
+        try ( URLClassLoader cl = new URLClassLoader( ToolSupport.toUrls( classPath ), null ) ) {
+            List<String> classes = classList( cl, tagNames, name -> err.println( "Skipped " + name + ", it does not load." ) );
+            if ( output.getParent() != null ) {
+                Files.createDirectories( output.getParent() );
+            }
+            Files.write( output, classes, StandardCharsets.UTF_8 );
+            out.println( "Listed " + classes.size() + " classes into " + output + "." );
+            if ( archive != null ) {
+                return dump( java, classPath, output, archive, out );
+            }
+            return 0;
+        } catch ( IOException e ) {
+            err.println( "Error: " + e.getMessage() );
+            return 1;
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            err.println( "Interrupted." );
+            return 1;
+        }
+    }
+
+    /**
+     * List the concrete tagged classes of a class loader and their supertypes, supertypes first, by their internal
+     * names like java/lang/Object.
+     *
+     * @param tagNames  The tags of the classes to list, or an empty set for all the tagged classes.
+     * @param onSkipped Called with the name of the tagged classes that fail to load.
+     */
+    public static List<String> classList( ClassLoader cl, Set<String> tagNames, Consumer<String> onSkipped ) throws IOException {
+        Set<String> result = new LinkedHashSet<>();
+        for ( Tags.ClassTags tags : Tags.query().classLoader( cl ).listAsClassTags() ) {
+            if ( !tagNames.isEmpty() && tags.getTags().stream().noneMatch( tagNames::contains ) ) {
+                continue;
+            }
+            Class<?> c;
+            try {
+                c = Class.forName( tags.getClassName(), false, cl );
+            } catch ( ClassNotFoundException | LinkageError e ) {
+                onSkipped.accept( tags.getClassName() );
+                continue;
+            }
+            if ( !c.isInterface() && !Modifier.isAbstract( c.getModifiers() ) ) {
+                addWithSupertypes( c, result );
+            }
+        }
+        return new ArrayList<>( result );
+    }
+
+    private static void addWithSupertypes( Class<?> c, Set<String> result ) {
+        String name = c.getName().replace( '.', '/' );
+        if ( result.contains( name ) ) {
+            return;
+        }
+        if ( c.getSuperclass() != null ) {
+            addWithSupertypes( c.getSuperclass(), result );
+        }
+        for ( Class<?> i : c.getInterfaces() ) {
+            addWithSupertypes( i, result );
+        }
+        result.add( name );
+    }
+
+    /**
+     * Run java -Xshare:dump on the class list, echoing its output.
+     *
+     * @return The exit status of the JVM.
+     */
+    private static int dump( Path java, List<Path> classPath, Path classList, Path archive, PrintStream out ) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add( java.toString() );
+        command.add( "-Xshare:dump" );
+        command.add( "-XX:SharedClassListFile=" + classList );
+        command.add( "-XX:SharedArchiveFile=" + archive );
+        command.add( "-cp" );
+        command.add( classPath.stream().map( Path::toString ).collect( Collectors.joining( File.pathSeparator ) ) );
+        Process process = new ProcessBuilder( command ).redirectErrorStream( true ).start();
+        try ( InputStream is = process.getInputStream() ) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ( ( read = is.read( buffer ) ) >= 0 ) {
+                out.write( buffer, 0, read );
+            }
+        }
+        int status = process.waitFor();
+        if ( status == 0 ) {
+            out.println( "Archived the classes into " + archive + "." );
+        }
+        return status;
+    }
+
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.tools;
+
+import org.dbrain.tags.impl.TagEntry;
+import org.dbrain.tags.impl.TagUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Command line tool reporting the cost of each tag file of a class path: size, parse time, entries, duplicates, tag
+ * histogram and time to load the tagged classes.
+ * <p>
+ * Usage: java -jar dbrain-tags.jar [options] &lt;jar or directory&gt;...
+ */
+public class IndexInspector {
+
+    private static final String USAGE = "Usage: IndexInspector [options] <jar or directory>...\n" +
+            "  -n, --no-load           Do not load the tagged classes.\n" +
+            "      --json              Print the report as JSON.\n" +
+            "  -h, --help              Print this message.";
+
+    /**
+     * Statistics of a tag file.
+     */
+    static class ResourceStats {
+
+        private final URL                  url;
+        private long                       bytes;
+        private long                       parseNanos;
+        private int                        entries;
+        private int                        duplicates;
+        private int                        attributes;
+        private final Map<String, Integer> tags    = new HashMap<>();
+        private final List<String>         classes = new ArrayList<>();
+        private int                        failedClasses;
+        private long                       loadNanos;
+
+        private ResourceStats( URL url ) {
+            this.url = url;
+        }
+
+        int getEntries() {
+            return entries;
+        }
+
+        int getDuplicates() {
+            return duplicates;
+        }
+
+        Map<String, Integer> getTags() {
+            return tags;
+        }
+
+        int getClassCount() {
+            return classes.size();
+        }
+
+        int getFailedClasses() {
+            return failedClasses;
+        }
+    }
+
+    public static void main( String[] args ) {
+        int status = run( args, System.out, System.err );
+        if ( status != 0 ) {
+            System.exit( status );
+        }
+    }
+
+    /**
+     * Run the inspector.
+     *
+     * @return The exit status, 0 on success.
+     */
+    public static int run( String[] args, PrintStream out, PrintStream err ) {
+        List<Path> classPath = new ArrayList<>();
+        boolean load = true;
+        boolean json = false;
+        try {
+            for ( String arg : args ) {
+                switch ( arg ) {
+                    case "-n":
+                    case "--no-load":
+                        load = false;
+                        break;
+                    case "--json":
+                        json = true;
+                        break;
+                    case "-h":
+                    case "--help":
+                        out.println( USAGE );
+                        return 0;
+                    default:
+                        if ( arg.startsWith( "-" ) ) {
+                            throw new IllegalArgumentException( "Unknown option: " + arg );
+                        }
+                        classPath.add( Paths.get( arg ) );
+                }
+            }
+            if ( classPath.isEmpty() ) {
+                throw new IllegalArgumentException( "No input." );
+            }
+        } catch ( IllegalArgumentException e ) {
+            err.println( e.getMessage() );
+            err.println( USAGE );
+            return 2;
+        }
+
+        try ( URLClassLoader cl = new URLClassLoader( ToolSupport.toUrls( classPath ), null ) ) {
+            List<ResourceStats> stats = inspect( cl, load );
+            if ( json ) {
+                printJson( stats, out );
+            } else {
+                printText( stats, out );
+            }
+            return 0;
+        } catch ( IOException e ) {
+            err.println( "Error: " + e.getMessage() );
+            return 1;
+        }
+    }
+
+    /**
+     * Collect the statistics of the tag files of a class loader. Entries already read from a previous file, or twice
+     * from the same file, are counted as duplicates. Each tagged class is loaded once, and accounted to the first file
+     * listing it.
+     */
+    static List<ResourceStats> inspect( ClassLoader cl, boolean loadClasses ) throws IOException {
+        List<ResourceStats> result = new ArrayList<>();
+        Set<TagEntry> seen = new HashSet<>();
+        Set<String> seenClasses = new HashSet<>();
+        for ( URL u : TagUtils.listResources( cl ) ) {
+            ResourceStats stats = new ResourceStats( u );
+            byte[] content;
+            try ( InputStream is = u.openStream() ) {
+                content = TagUtils.readFully( is );
+            }
+            stats.bytes = content.length;
+            long start = System.nanoTime();
+            TagUtils.loadTagFile( new ByteArrayInputStream( content ), null, entry -> {
+                stats.entries++;
+                if ( !seen.add( entry ) ) {
+                    stats.duplicates++;
+                }
+                stats.tags.merge( entry.getTagName(), 1, Integer::sum );
+                if ( seenClasses.add( entry.getClassName() ) ) {
+                    stats.classes.add( entry.getClassName() );
+                }
+            }, attribute -> stats.attributes++ );
+            stats.parseNanos = System.nanoTime() - start;
+            result.add( stats );
+        }
+        if ( loadClasses ) {
+            for ( ResourceStats stats : result ) {
+                long start = System.nanoTime();
+                for ( String className : stats.classes ) {
+                    if ( TagUtils.loadClass( cl, className, null ) == null ) {
+                        stats.failedClasses++;
+                    }
+                }
+                stats.loadNanos = System.nanoTime() - start;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The tags sorted by decreasing number of entries.
+     */
+    private static Map<String, Integer> histogram( ResourceStats stats ) {
+        return stats.tags.entrySet().stream()
+                         .sorted( Map.Entry.<String, Integer>comparingByValue( Comparator.reverseOrder() ).thenComparing( Map.Entry.comparingByKey() ) )
+                         .collect( Collectors.toMap( Map.Entry::getKey, Map.Entry::getValue, ( a, b ) -> a, LinkedHashMap::new ) );
+    }
+
+    private static String millis( long nanos ) {
+        return String.format( "%.3f ms", nanos / 1e6 );
+    }
+
+    private static void printText( List<ResourceStats> stats, PrintStream out ) {
+        long bytes = 0, parseNanos = 0, loadNanos = 0;
+        int entries = 0, duplicates = 0, classes = 0;
+        for ( ResourceStats s : stats ) {
+            out.println( s.url );
+            out.println( "  " + s.bytes + " bytes, parsed in " + millis( s.parseNanos ) );
+            out.println( "  " + s.entries + " entries, " + s.duplicates + " duplicates, " + s.attributes + " attributes" );
+            out.println( "  " + s.classes.size() + " classes, loaded in " + millis( s.loadNanos ) + ", " + s.failedClasses + " failed" );
+            for ( Map.Entry<String, Integer> e : histogram( s ).entrySet() ) {
+                out.println( "    " + e.getValue() + "\t" + e.getKey() );
+            }
+            bytes += s.bytes;
+            parseNanos += s.parseNanos;
+            loadNanos += s.loadNanos;
+            entries += s.entries;
+            duplicates += s.duplicates;
+            classes += s.classes.size();
+        }
+        out.println( "Total: " + stats.size() + " tag files, " + bytes + " bytes, parsed in " + millis( parseNanos ) + ", " +
+                     entries + " entries, " + duplicates + " duplicates, " + classes + " classes, loaded in " + millis( loadNanos ) + "." );
+    }
+
+    private static void printJson( List<ResourceStats> stats, PrintStream out ) {
+        StringBuilder sb = new StringBuilder( "{\"resources\":[" );
+        for ( int i = 0; i < stats.size(); i++ ) {
+            ResourceStats s = stats.get( i );
+            sb.append( i > 0 ? "," : "" ).append( "{\"url\":" ).append( quote( s.url.toString() ) )
+              .append( ",\"bytes\":" ).append( s.bytes )
+              .append( ",\"parseNanos\":" ).append( s.parseNanos )
+              .append( ",\"entries\":" ).append( s.entries )
+              .append( ",\"duplicates\":" ).append( s.duplicates )
+              .append( ",\"attributes\":" ).append( s.attributes )
+              .append( ",\"classes\":" ).append( s.classes.size() )
+              .append( ",\"failedClasses\":" ).append( s.failedClasses )
+              .append( ",\"loadNanos\":" ).append( s.loadNanos )
+              .append( ",\"tags\":{" );
+            boolean first = true;
+            for ( Map.Entry<String, Integer> e : histogram( s ).entrySet() ) {
+                sb.append( first ? "" : "," ).append( quote( e.getKey() ) ).append( ':' ).append( e.getValue() );
+                first = false;
+            }
+            sb.append( "}}" );
+        }
+        out.println( sb.append( "]}" ) );
+    }
+
+    private static String quote( String s ) {
+        StringBuilder sb = new StringBuilder( s.length() + 2 ).append( '"' );
+        for ( int i = 0; i < s.length(); i++ ) {
+            char c = s.charAt( i );
+            if ( c == '"' || c == '\\' ) {
+                sb.append( '\\' ).append( c );
+            } else if ( c < 0x20 ) {
+                sb.append( String.format( "\\u%04x", (int) c ) );
+            } else {
+                sb.append( c );
+            }
+        }
+        return sb.append( '"' ).toString();
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.tools;
+
+import org.dbrain.tags.impl.BytecodeScanner;
+import org.dbrain.tags.impl.TagEntry;
+import org.dbrain.tags.impl.TagFileFormat;
+import org.dbrain.tags.impl.TagUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Command line tool building a tag file from compiled classes, for third-party libraries that were not compiled with
+ * the annotation processor.
+ * <p>
+ * Usage: java -cp dbrain-tags.jar org.dbrain.tags.tools.TagIndexer [options] &lt;jar or directory&gt;...
+ * <p>
+ * The resulting file can be packaged as META-INF/org.dbrain.tags.impl.TagEntry in a jar or passed to
+ * {@link org.dbrain.tags.Tags.Query#resource(java.net.URL)}.
+ */
+public class TagIndexer {
+
+    private static final String USAGE = "Usage: TagIndexer [options] <jar or directory>...\n" +
+            "  -t, --tag <class>       Tag annotation or interface to index, can be repeated. Types annotated with\n" +
+            "                          @Tag are always indexed.\n" +
+            "  -o, --output <file>     Tag file to write, default to " + TagUtils.TAG_FILE_NAME + ".\n" +
+            "  -f, --format <format>   text (default), compact or compact-deflate.\n" +
+            "  -s, --supertypes        Record the direct supertypes of all the classes, to query subtypes.\n" +
+            "  -j, --threads <count>   Number of inputs scanned in parallel, default to the number of processors.\n" +
+            "  -h, --help              Print this message.";
+
+    public static void main( String[] args ) {
+        int status = run( args, System.out, System.err );
+        if ( status != 0 ) {
+            System.exit( status );
+        }
+    }
+
+    /**
+     * Run the indexer.
+     *
+     * @return The exit status, 0 on success.
+     */
+    public static int run( String[] args, PrintStream out, PrintStream err ) {
+        Set<String> tagNames = new HashSet<>();
+        List<Path> inputs = new ArrayList<>();
+        Path output = Paths.get( TagUtils.TAG_FILE_NAME );
+        TagFileFormat format = TagFileFormat.TEXT;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean supertypes = false;
+        try {
+            for ( int i = 0; i < args.length; i++ ) {
+                switch ( args[i] ) {
+                    case "-t":
+                    case "--tag":
+                        tagNames.add( ToolSupport.value( args, ++i ) );
+                        break;
+                    case "-o":
+                    case "--output":
+                        output = Paths.get( ToolSupport.value( args, ++i ) );
+                        break;
+                    case "-f":
+                    case "--format":
+                        format = TagFileFormat.parse( ToolSupport.value( args, ++i ) );
+                        break;
+                    case "-s":
+                    case "--supertypes":
+                        supertypes = true;
+                        break;
+                    case "-j":
+                    case "--threads":
+                        threads = Integer.parseInt( ToolSupport.value( args, ++i ) );
+                        break;
+                    case "-h":
+                    case "--help":
+                        out.println( USAGE );
+                        return 0;
+                    default:
+                        if ( args[i].startsWith( "-" ) ) {
+                            throw new IllegalArgumentException( "Unknown option: " + args[i] );
+                        }
+                        inputs.add( Paths.get( args[i] ) );
+                }
+            }
+            if ( inputs.isEmpty() ) {
+                throw new IllegalArgumentException( "No input." );
+            }
+        } catch ( IllegalArgumentException e ) {
+            err.println( e.getMessage() );
+            err.println( USAGE );
+            return 2;
+        }
+
+        try {
+            BytecodeScanner scanner = new BytecodeScanner().scan( inputs, threads );
+            Set<TagEntry> entries = scanner.index( tagNames );
+            if ( output.getParent() != null ) {
+                Files.createDirectories( output.getParent() );
+            }
+            try ( OutputStream os = Files.newOutputStream( output ) ) {
+                TagUtils.writeClassTags( entries, supertypes ? scanner.supertypes() : Collections.emptySet(), os, format );
+            }
+            out.println( "Indexed " + entries.size() + " entries from " + scanner.getClasses().size() + " classes into " + output + "." );
+            return 0;
+        } catch ( IOException e ) {
+            err.println( "Error: " + e.getMessage() );
+            return 1;
+        }
+    }
+
+}
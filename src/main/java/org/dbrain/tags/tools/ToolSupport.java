@@ -0,0 +1,53 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.tools;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Helpers shared by the command line tools.
+ */
+final class ToolSupport {
+
+    private ToolSupport() {
+    }
+
+    /**
+     * Convert a class path to the URLs of a class loader.
+     */
+    static URL[] toUrls( List<Path> classPath ) throws MalformedURLException {
+        URL[] result = new URL[classPath.size()];
+        for ( int i = 0; i < result.length; i++ ) {
+            result[i] = classPath.get( i ).toUri().toURL();
+        }
+        return result;
+    }
+
+    /**
+     * Return the argument at i, the value of the option before it. Throw an IllegalArgumentException if it is missing.
+     */
+    static String value( String[] args, int i ) {
+        if ( i >= args.length ) {
+            throw new IllegalArgumentException( "Missing value for " + args[i - 1] + "." );
+        }
+        return args[i];
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags;
+
+import org.dbrain.tags.samples.attributes.Handler;
+import org.dbrain.tags.samples.attributes.OrdersHandler;
+import org.dbrain.tags.samples.attributes.PaymentsHandler;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test queries on the attributes of tag annotations.
+ */
+public class ClassQuery_attributes_Test {
+
+    private static Map<String, Tags.ClassTags> handlers() throws Exception {
+        return Tags.query().filter( ct -> ct.containsTag( Handler.class ) ).mapTagsByClassName();
+    }
+
+    @Test
+    public void testValues() throws Exception {
+        Tags.ClassTags orders = handlers().get( OrdersHandler.class.getName() );
+        Assert.assertEquals( "orders", orders.getAttribute( Handler.class, "topic" ) );
+        Assert.assertEquals( "1", orders.getAttribute( Handler.class, "priority" ) );
+        Assert.assertEquals( "LOW", orders.getAttribute( Handler.class, "level" ) );
+        Assert.assertEquals( String.class.getName(), orders.getAttribute( Handler.class, "type" ) );
+        Assert.assertEquals( Arrays.asList( "purchases", "sales" ), orders.getAttributeValues( Handler.class, "aliases" ) );
+        Assert.assertNull( orders.getAttribute( Handler.class, "unknown" ) );
+    }
+
+    @Test
+    public void testDefaults() throws Exception {
+        Tags.ClassTags payments = handlers().get( PaymentsHandler.class.getName() );
+        Assert.assertEquals( "5", payments.getAttribute( Handler.class, "priority" ) );
+        Assert.assertEquals( "HIGH", payments.getAttribute( Handler.class, "level" ) );
+        Assert.assertEquals( Object.class.getName(), payments.getAttribute( Handler.class, "type" ) );
+        Assert.assertEquals( Collections.emptyList(), payments.getAttributeValues( Handler.class, "aliases" ) );
+    }
+
+    @Test
+    public void testFilterWithoutLoading() throws Exception {
+        List<String> result = Tags.query().filter( ct -> ct.hasAttribute( Handler.class, "aliases", "sales" ) ).listClassNames();
+        Assert.assertEquals( Collections.singletonList( OrdersHandler.class.getName() ), result );
+    }
+
+    @Test
+    public void testGroup() throws Exception {
+        Map<String, List<Tags.ClassTags>> byTopic = Tags.query().filter( ct -> ct.containsTag( Handler.class ) ).groupByAttribute( Handler.class, "topic" );
+        Assert.assertEquals( Arrays.asList( "orders", "payments" ), Arrays.asList( byTopic.keySet().toArray() ) );
+        Assert.assertEquals( PaymentsHandler.class.getName(), byTopic.get( "payments" ).get( 0 ).getClassName() );
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags;
+
+import org.dbrain.tags.impl.BoundedCache;
+import org.dbrain.tags.samples.members.Endpoint;
+import org.dbrain.tags.samples.members.EndpointHolder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.List;
+
+/**
+ * Test queries on tagged members.
+ */
+public class ClassQuery_members_Test {
+
+    @Test
+    public void testListMembers() throws Exception {
+        List<Tags.TaggedMember> members = Tags.query().listMembers( Endpoint.class );
+        Assert.assertEquals( 4, members.size() );
+
+        Tags.TaggedMember constructor = members.get( 0 );
+        Assert.assertEquals( EndpointHolder.class.getName(), constructor.getClassName() );
+        Assert.assertEquals( Endpoint.class.getName(), constructor.getTagName() );
+        Assert.assertTrue( constructor.isConstructor() );
+        Assert.assertEquals( "(J)V", constructor.getDescriptor() );
+
+        Tags.TaggedMember method = members.get( 1 );
+        Assert.assertEquals( "get", method.getName() );
+        Assert.assertEquals( "(I[Ljava/lang/String;)Ljava/lang/String;", method.getDescriptor() );
+
+        Tags.TaggedMember field = members.get( 2 );
+        Assert.assertTrue( field.isField() );
+        Assert.assertEquals( "routes", field.getName() );
+        Assert.assertEquals( "Ljava/util/List;", field.getDescriptor() );
+
+        Tags.TaggedMember nested = members.get( 3 );
+        Assert.assertEquals( EndpointHolder.Nested.class.getName(), nested.getClassName() );
+        Assert.assertEquals( "(Ljava/lang/Number;Ljava/util/List;)V", nested.getDescriptor() );
+
+        // Tagged members do not tag their class.
+        Assert.assertTrue( Tags.listAllClassByTag( Endpoint.class ).isEmpty() );
+    }
+
+    @Test
+    public void testResolve() throws Exception {
+        ClassLoader cl = getClass().getClassLoader();
+        List<Tags.TaggedMember> members = Tags.query().listMembers( Endpoint.class );
+        Assert.assertEquals( EndpointHolder.class.getDeclaredConstructor( long.class ), (Constructor<?>) members.get( 0 ).resolve( cl ) );
+        Assert.assertEquals( EndpointHolder.class.getMethod( "get", int.class, String[].class ), (Method) members.get( 1 ).resolve( cl ) );
+        Assert.assertEquals( EndpointHolder.class.getDeclaredField( "routes" ), (Field) members.get( 2 ).resolve( cl ) );
+        Method update = (Method) members.get( 3 ).resolve( cl );
+        Assert.assertEquals( "update", update.getName() );
+        Assert.assertEquals( 2, update.getParameterCount() );
+    }
+
+    @Test
+    public void testTableBuiltOnce() throws Exception {
+        Tags.configureCache( 1024, 64L * 1024 * 1024, BoundedCache.Eviction.LRU, BoundedCache.References.SOFT );
+        List<Tags.TaggedMember> members = Tags.query().listMembers( Endpoint.class );
+        Assert.assertEquals( members.toString(), Tags.query().listMembers( Endpoint.class ).toString() );
+        Assert.assertTrue( Tags.query().listMembers( Tag.class ).isEmpty() );
+        Assert.assertEquals( 1, Tags.getAttributeTableCacheStats().getMisses() );
+        Assert.assertEquals( 2, Tags.getAttributeTableCacheStats().getHits() );
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags;
+
+import org.dbrain.tags.samples.meta.Component;
+import org.dbrain.tags.samples.meta.Controller;
+import org.dbrain.tags.samples.meta.CycleComponent;
+import org.dbrain.tags.samples.meta.HomeController;
+import org.dbrain.tags.samples.meta.OrdersEndpoint;
+import org.dbrain.tags.samples.meta.RestEndpoint;
+import org.dbrain.tags.samples.meta.Service;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test the tags implied by composed annotations.
+ */
+public class ClassQuery_meta_Test {
+
+    @Test
+    public void testComposedAnnotations() throws Exception {
+        List<Class> result = Tags.listClassByTag( Component.class );
+        Assert.assertEquals( new HashSet<>( Arrays.asList( OrdersEndpoint.class, HomeController.class, CycleComponent.class ) ),
+                             new HashSet<>( result ) );
+
+        // The composed annotations are recorded as well.
+        List<Class> all = Tags.listAllClassByTag( Component.class );
+        Assert.assertTrue( all.containsAll( Arrays.asList( Service.class, RestEndpoint.class, Controller.class ) ) );
+    }
+
+    @Test
+    public void testImpliedTagsAreRecorded() throws Exception {
+        Map<String, Tags.ClassTags> byName = Tags.query().mapTagsByClassName();
+        Assert.assertEquals( Collections.singleton( Component.class.getName() ), byName.get( OrdersEndpoint.class.getName() ).getTags() );
+        Assert.assertEquals( new HashSet<>( Arrays.asList( Component.class.getName(), Controller.class.getName() ) ),
+                             byName.get( HomeController.class.getName() ).getTags() );
+        Assert.assertEquals( Collections.singletonList( HomeController.class ), Tags.listClassByTag( Controller.class ) );
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags;
+
+import org.dbrain.tags.impl.BoundedCache;
+import org.dbrain.tags.impl.TagAttribute;
+import org.dbrain.tags.samples.packages.Module;
+import org.dbrain.tags.samples.packages.billing.Invoice;
+import org.dbrain.tags.samples.packages.billing.Ledger;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test tags put on packages.
+ */
+public class ClassQuery_packages_Test {
+
+    @Test
+    public void testClassesOfTaggedPackage() throws Exception {
+        List<Class> all = Tags.listAllClassByTag( Module.class );
+        Assert.assertEquals( Arrays.asList( Invoice.class, Invoice.Line.class, Ledger.class ), all );
+
+        List<Class> concrete = Tags.listClassByTag( Module.class );
+        Assert.assertEquals( Arrays.asList( Invoice.class, Invoice.Line.class ), concrete );
+    }
+
+    @Test
+    public void testListPackageNames() throws Exception {
+        Assert.assertEquals( Collections.singletonList( Invoice.class.getPackage().getName() ),
+                             Tags.query().listPackageNames( Module.class ) );
+        Assert.assertTrue( Tags.query().listPackageNames( Tag.class ).isEmpty() );
+    }
+
+    @Test
+    public void testTableBuiltOnce() throws Exception {
+        Tags.configureCache( 1024, 64L * 1024 * 1024, BoundedCache.Eviction.LRU, BoundedCache.References.SOFT );
+        Tags.query().listPackageNames( Module.class );
+        Tags.query().listPackageNames( Tag.class );
+        Assert.assertEquals( 1, Tags.getAttributeTableCacheStats().getMisses() );
+        Assert.assertEquals( 1, Tags.getAttributeTableCacheStats().getHits() );
+    }
+
+    @Test
+    public void testInPackage() throws Exception {
+        String samples = "org.dbrain.tags.samples";
+        String billing = Invoice.class.getPackage().getName();
+
+        Assert.assertTrue( Tags.query().inPackage( samples + ".packages", false ).listClassNames().isEmpty() );
+        Assert.assertEquals( Arrays.asList( Invoice.class.getName(), Invoice.Line.class.getName(), Ledger.class.getName() ),
+                             Tags.query().inPackage( samples + ".packages", true ).listClassNames() );
+        Assert.assertEquals( Arrays.asList( Invoice.class, Invoice.Line.class ),
+                             Tags.query().inPackage( billing, false ).listClass() );
+
+        // Composed with tag filters.
+        Assert.assertEquals( Arrays.asList( Ledger.class.getName() ),
+                             Tags.query().inPackage( samples, true ).filter( ct -> "ledger".equals( ct.getAttribute( Module.class, "value" ) ) ).listClassNames() );
+        Assert.assertTrue( Tags.query().inPackage( samples, true ).filter( ct -> ct.containsTag( Module.class ) ).listClassNames().stream().allMatch( n -> n.startsWith( billing ) ) );
+        Assert.assertTrue( Tags.query().inPackage( samples + ".none", true ).listClassNames().isEmpty() );
+    }
+
+    @Test
+    public void testPackageAttributes() throws Exception {
+        Map<String, Tags.ClassTags> tags = Tags.query().mapTagsByClassName();
+        Tags.ClassTags invoice = tags.get( Invoice.class.getName() );
+        Assert.assertEquals( "billing", invoice.getAttribute( Module.class, "value" ) );
+        Assert.assertEquals( Invoice.class.getPackage().getName(), invoice.getAttribute( Module.class, TagAttribute.PACKAGE ) );
+
+        Tags.ClassTags ledger = tags.get( Ledger.class.getName() );
+        Assert.assertEquals( Collections.singletonList( "ledger" ), ledger.getAttributeValues( Module.class, "value" ) );
+        Assert.assertEquals( Invoice.class.getPackage().getName(), ledger.getAttribute( Module.class, TagAttribute.PACKAGE ) );
+
+        // The package-info itself is not listed as a class.
+        Assert.assertFalse( tags.keySet().stream().anyMatch( n -> n.endsWith( "package-info" ) ) );
+    }
+}
@@ -28,6 +28,8 @@ import org.dbrain.tags.samples.inheritanceinft.InheritedIntf2;
 import org.dbrain.tags.samples.inheritanceinft.InheritedIntfTag;
 import org.dbrain.tags.samples.multiple.MultiClass;
 import org.dbrain.tags.samples.multiple.MultiTag1;
+import org.dbrain.tags.samples.multiple.MultiTag2;
+import org.dbrain.tags.samples.multiple.MultiTag3;
 import org.dbrain.tags.samples.simple.SimpleClass1;
 import org.dbrain.tags.samples.simple.SimpleClass2;
 import org.dbrain.tags.samples.simple.SimpleTag;
@@ -42,6 +44,8 @@ import org.dbrain.tags.samples.taggedintf.TaggedIntfClass3;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -208,5 +212,28 @@ public class ClassQuery_queryName_Test {
 
     }
 
+    @Test
+    public void testBatch() throws Exception {
+        Map<Class<?>, List<Class<?>>> result = Tags.listClassByTags( SimpleTag.class, TaggedIntf.class, MultiTag1.class, InheritedIntfTag.class );
+        Assert.assertEquals( Arrays.asList( SimpleTag.class, TaggedIntf.class, MultiTag1.class, InheritedIntfTag.class ), new ArrayList<>( result.keySet() ) );
+        Assert.assertEquals( Tags.listClassByTag( SimpleTag.class ), result.get( SimpleTag.class ) );
+        Assert.assertEquals( Tags.listClassByTag( TaggedIntf.class ), result.get( TaggedIntf.class ) );
+        Assert.assertEquals( Arrays.asList( MultiClass.class ), result.get( MultiTag1.class ) );
+        // Only interfaces carry this tag.
+        Assert.assertTrue( result.get( InheritedIntfTag.class ).isEmpty() );
+
+        Map<String, List<String>> names = Tags.query().listClassNamesByTags( Arrays.asList( InheritedIntfTag.class.getName(), "x.Unknown" ) );
+        Assert.assertEquals( Arrays.asList( InheritedIntf1.class.getName() ), names.get( InheritedIntfTag.class.getName() ) );
+        Assert.assertTrue( names.get( "x.Unknown" ).isEmpty() );
+    }
+
+    @Test
+    public void testBatchLoadsOnce() throws Exception {
+        Query_Test.CustomClassLoader cl = new Query_Test.CustomClassLoader();
+        Map<Class<?>, List<Class<?>>> result = Tags.query().classLoader( cl ).listClassByTags( Arrays.asList( MultiTag1.class, MultiTag2.class, MultiTag3.class ) );
+        Assert.assertEquals( 3, result.size() );
+        Assert.assertTrue( result.values().stream().allMatch( classes -> classes.equals( Arrays.asList( MultiClass.class ) ) ) );
+        Assert.assertEquals( Arrays.asList( MultiClass.class.getName() ), cl.requestedClassNames );
+    }
 
 }
@@ -0,0 +1,70 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags;
+
+import org.dbrain.tags.impl.BoundedCache;
+import org.dbrain.tags.samples.subtypes.AbstractShape;
+import org.dbrain.tags.samples.subtypes.Circle;
+import org.dbrain.tags.samples.subtypes.Polygon;
+import org.dbrain.tags.samples.subtypes.Shape;
+import org.dbrain.tags.samples.subtypes.Square;
+import org.dbrain.tags.samples.taggedintf.TaggedIntf;
+import org.dbrain.tags.samples.taggedintf.TaggedIntfClass3;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * Test subtype queries on untagged types.
+ */
+public class ClassQuery_subtypes_Test {
+
+    @Test
+    public void testListSubtypeNames() throws Exception {
+        Assert.assertEquals( Arrays.asList( AbstractShape.class.getName(), Circle.class.getName(), Polygon.class.getName(),
+                                            Square.class.getName(), Square.Rounded.class.getName() ),
+                             Tags.query().listSubtypeNames( Shape.class, false ) );
+        Assert.assertEquals( Arrays.asList( Circle.class.getName(), Square.class.getName(), Square.Rounded.class.getName() ),
+                             Tags.query().listSubtypeNames( Shape.class, true ) );
+        Assert.assertEquals( Arrays.asList( Square.class.getName(), Square.Rounded.class.getName() ),
+                             Tags.query().listSubtypeNames( Polygon.class, true ) );
+        Assert.assertTrue( Tags.query().listSubtypeNames( Circle.class, false ).isEmpty() );
+        Assert.assertTrue( Tags.query().listSubtypeNames( Object.class, false ).isEmpty() );
+        Assert.assertTrue( Tags.query().listSubtypeNames( TaggedIntf.class, true ).contains( TaggedIntfClass3.class.getName() ) );
+    }
+
+    @Test
+    public void testListSubtypes() throws Exception {
+        Assert.assertEquals( Arrays.asList( Circle.class, Square.class, Square.Rounded.class ), Tags.query().listSubtypes( Shape.class ) );
+    }
+
+    @Test
+    public void testIndexBuiltOnce() throws Exception {
+        Tags.configureCache( 1024, 64L * 1024 * 1024, BoundedCache.Eviction.LRU, BoundedCache.References.SOFT );
+        Tags.query().listSubtypeNames( Shape.class, false );
+        Tags.query().listSubtypeNames( Polygon.class, true );
+        Assert.assertEquals( 1, Tags.getSubtypeIndexCacheStats().getMisses() );
+        Assert.assertEquals( 1, Tags.getSubtypeIndexCacheStats().getHits() );
+
+        // Built again after a refresh.
+        Tags.refresh();
+        Assert.assertEquals( 0, Tags.getSubtypeIndexCacheStats().getSize() );
+        Tags.query().listSubtypeNames( Shape.class, false );
+        Assert.assertEquals( 2, Tags.getSubtypeIndexCacheStats().getMisses() );
+    }
+}
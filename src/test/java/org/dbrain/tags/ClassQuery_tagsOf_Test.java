@@ -0,0 +1,73 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags;
+
+import org.dbrain.tags.samples.meta.Component;
+import org.dbrain.tags.samples.meta.OrdersEndpoint;
+import org.dbrain.tags.samples.multiple.MultiClass;
+import org.dbrain.tags.samples.multiple.MultiTag1;
+import org.dbrain.tags.samples.multiple.MultiTag2;
+import org.dbrain.tags.samples.multiple.MultiTag3;
+import org.dbrain.tags.samples.simple.SimpleClass1;
+import org.dbrain.tags.samples.simple.SimpleTag;
+import org.dbrain.tags.samples.taggedintf.TaggedIntf;
+import org.dbrain.tags.samples.taggedintf.TaggedIntfClass2;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+/**
+ * Test the tag lookups by class.
+ */
+public class ClassQuery_tagsOf_Test {
+
+    @Test
+    public void testTagsOf() throws Exception {
+        Assert.assertEquals( new HashSet<>( Arrays.asList( MultiTag1.class.getName(), MultiTag2.class.getName(), MultiTag3.class.getName() ) ),
+                             Tags.tagsOf( MultiClass.class ) );
+        Assert.assertEquals( Collections.singleton( TaggedIntf.class.getName() ), Tags.tagsOf( TaggedIntfClass2.class ) );
+        Assert.assertEquals( Collections.emptySet(), Tags.tagsOf( String.class ) );
+    }
+
+    @Test
+    public void testHasTag() throws Exception {
+        Assert.assertTrue( Tags.hasTag( MultiClass.class, MultiTag2.class ) );
+        Assert.assertFalse( Tags.hasTag( MultiClass.class, SimpleTag.class ) );
+        Assert.assertTrue( Tags.hasTag( SimpleClass1.class, SimpleTag.class ) );
+        Assert.assertTrue( Tags.hasTag( TaggedIntfClass2.class, TaggedIntf.class ) );
+        Assert.assertTrue( Tags.hasTag( OrdersEndpoint.class, Component.class ) );
+        Assert.assertFalse( Tags.hasTag( String.class, SimpleTag.class ) );
+
+        // Tags are resolved again after a refresh.
+        Tags.refresh();
+        Assert.assertTrue( Tags.hasTag( MultiClass.class, MultiTag2.class ) );
+        Assert.assertFalse( Tags.hasTag( MultiTag2.class, MultiClass.class ) );
+    }
+
+    @Test
+    public void testIndexLoadedOnce() throws Exception {
+        Tags.refresh();
+        long lookups = Tags.getIndexCacheStats().getHits() + Tags.getIndexCacheStats().getMisses();
+        Assert.assertTrue( Tags.hasTag( MultiClass.class, MultiTag2.class ) );
+        Assert.assertTrue( Tags.hasTag( SimpleClass1.class, SimpleTag.class ) );
+        Assert.assertFalse( Tags.hasTag( ClassQuery_tagsOf_Test.class, SimpleTag.class ) );
+        Assert.assertEquals( lookups + 1, Tags.getIndexCacheStats().getHits() + Tags.getIndexCacheStats().getMisses() );
+    }
+}
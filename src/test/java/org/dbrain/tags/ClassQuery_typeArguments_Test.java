@@ -0,0 +1,69 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags;
+
+import org.dbrain.tags.impl.TagAttribute;
+import org.dbrain.tags.samples.generic.BatchHandler;
+import org.dbrain.tags.samples.generic.EventHandler;
+import org.dbrain.tags.samples.generic.OrderCreated;
+import org.dbrain.tags.samples.generic.OrderCreatedHandler;
+import org.dbrain.tags.samples.generic.OrderHandler;
+import org.dbrain.tags.samples.generic.OrderShipped;
+import org.dbrain.tags.samples.generic.OrderShippedHandler;
+import org.dbrain.tags.samples.generic.RawHandler;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test the type arguments bound to generic tag interfaces.
+ */
+public class ClassQuery_typeArguments_Test {
+
+    private static Map<String, Tags.ClassTags> handlers() throws Exception {
+        return Tags.query().filter( ct -> ct.containsTag( EventHandler.class.getName() ) ).mapTagsByClassName();
+    }
+
+    @Test
+    public void testTypeArguments() throws Exception {
+        Map<String, Tags.ClassTags> handlers = handlers();
+        Assert.assertEquals( Collections.singletonList( OrderCreated.class.getName() ),
+                             handlers.get( OrderCreatedHandler.class.getName() ).getTypeArguments( EventHandler.class ) );
+        Assert.assertEquals( Collections.singletonList( OrderShipped.class.getName() ),
+                             handlers.get( OrderShippedHandler.class.getName() ).getTypeArguments( EventHandler.class ) );
+        Assert.assertEquals( Collections.singletonList( List.class.getName() ),
+                             handlers.get( BatchHandler.class.getName() ).getTypeArguments( EventHandler.class ) );
+
+        // Type variables are recorded by their bound, raw implementations have none.
+        Assert.assertEquals( Collections.singletonList( Object.class.getName() ),
+                             handlers.get( OrderHandler.class.getName() ).getTypeArguments( EventHandler.class ) );
+        Assert.assertEquals( Collections.emptyList(), handlers.get( RawHandler.class.getName() ).getTypeArguments( EventHandler.class ) );
+    }
+
+    @Test
+    public void testRoutingTable() throws Exception {
+        Map<String, List<Tags.ClassTags>> byEvent = Tags.query().filter( ct -> ct.containsTag( EventHandler.class.getName() ) ).
+                groupByAttribute( EventHandler.class.getName(), TagAttribute.TYPE_ARGUMENTS );
+        Assert.assertEquals( Arrays.asList( Object.class.getName(), List.class.getName(), OrderCreated.class.getName(), OrderShipped.class.getName() ),
+                             Arrays.asList( byEvent.keySet().toArray() ) );
+        Assert.assertEquals( OrderCreatedHandler.class.getName(), byEvent.get( OrderCreated.class.getName() ).get( 0 ).getClassName() );
+    }
+}
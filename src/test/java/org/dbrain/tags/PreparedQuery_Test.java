@@ -0,0 +1,160 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags;
+
+import org.dbrain.tags.impl.BoundedCache;
+import org.dbrain.tags.samples.simple.SimpleClass1;
+import org.dbrain.tags.samples.simple.SimpleClass2;
+import org.dbrain.tags.samples.simple.SimpleTag;
+import org.dbrain.tags.samples.simpleintf.SimpleIntfTag;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Test the prepared queries.
+ */
+public class PreparedQuery_Test {
+
+    private static Tags.PreparedQuery prepareSimple() {
+        return Tags.query().filter( ct -> ct.containsTag( SimpleTag.class ) ).prepare();
+    }
+
+    @Test
+    public void testMemoized() throws Exception {
+        Tags.PreparedQuery q = prepareSimple();
+        List<Class> classes = q.listClass();
+        Assert.assertEquals( Arrays.asList( SimpleClass1.class, SimpleClass2.class ), classes );
+        Assert.assertSame( classes, q.listClass() );
+        Assert.assertSame( q.listAllClass(), q.listAllClass() );
+        Assert.assertSame( q.listAsClassTags(), q.listAsClassTags() );
+
+        // Results are read-only.
+        try {
+            classes.clear();
+            Assert.fail();
+        } catch ( UnsupportedOperationException e ) {
+            // Expected
+        }
+
+        // Recomputed after a refresh.
+        long version = Tags.getIndexVersion();
+        Tags.refresh();
+        Assert.assertEquals( version + 1, Tags.getIndexVersion() );
+        Assert.assertNotSame( classes, q.listClass() );
+        Assert.assertEquals( classes, q.listClass() );
+    }
+
+    @Test
+    public void testIndependentFromBuilder() throws Exception {
+        Tags.Query builder = Tags.query().filter( ct -> ct.containsTag( SimpleTag.class ) );
+        Tags.PreparedQuery q = builder.prepare();
+        builder.filter( ct -> ct.containsTag( SimpleIntfTag.class ) );
+        Assert.assertEquals( Arrays.asList( SimpleClass1.class.getName(), SimpleClass2.class.getName() ), q.listClassNames() );
+    }
+
+    @Test
+    public void testPerClassLoader() throws Exception {
+        Tags.PreparedQuery q = prepareSimple();
+        try ( URLClassLoader empty = new URLClassLoader( new URL[0], null ) ) {
+            Assert.assertTrue( q.listClass( empty ).isEmpty() );
+        }
+        Assert.assertEquals( 2, q.listClass().size() );
+        Assert.assertEquals( 2, q.listClass( getClass().getClassLoader() ).size() );
+    }
+
+    @Test
+    public void testConcurrentCalls() throws Exception {
+        Tags.PreparedQuery q = prepareSimple();
+        ExecutorService executor = Executors.newFixedThreadPool( 8 );
+        try {
+            List<Future<List<Class>>> results = new ArrayList<>();
+            for ( int i = 0; i < 64; i++ ) {
+                results.add( executor.submit( () -> q.listClass() ) );
+            }
+            for ( Future<List<Class>> result : results ) {
+                Assert.assertEquals( Arrays.asList( SimpleClass1.class, SimpleClass2.class ), result.get() );
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testBoundedCache() throws Exception {
+        Tags.configureCache( 1, Long.MAX_VALUE, BoundedCache.Eviction.LRU, BoundedCache.References.STRONG );
+        try {
+            Tags.PreparedQuery q1 = prepareSimple();
+            Tags.PreparedQuery q2 = Tags.query().filter( ct -> ct.containsTag( SimpleIntfTag.class ) ).prepare();
+            List<Class> classes = q1.listClass();
+            Assert.assertSame( classes, q1.listClass() );
+
+            // The second query evicts the results of the first one, but reuses the parsed tag files.
+            q2.listClass();
+            Assert.assertEquals( 1, Tags.getResultCacheStats().getEvictions() );
+            Assert.assertEquals( 1, Tags.getIndexCacheStats().getMisses() );
+            Assert.assertEquals( 1, Tags.getIndexCacheStats().getHits() );
+            Assert.assertNotSame( classes, q1.listClass() );
+            Assert.assertEquals( 1, Tags.getResultCacheStats().getSize() );
+        } finally {
+            Tags.configureCache( 1024, 64L * 1024 * 1024, BoundedCache.Eviction.LRU, BoundedCache.References.SOFT );
+        }
+    }
+
+    /**
+     * Query with a class loader that is not referenced anymore once done.
+     */
+    private static WeakReference<ClassLoader> queryWithTemporaryLoader( Tags.PreparedQuery q ) throws Exception {
+        try ( URLClassLoader cl = new URLClassLoader( new URL[0], null ) ) {
+            Assert.assertTrue( q.listClassNames( cl ).isEmpty() );
+            return new WeakReference<>( cl );
+        }
+    }
+
+    @Test
+    public void testCollectedClassLoader() throws Exception {
+        Tags.configureCache( 16, Long.MAX_VALUE, BoundedCache.Eviction.LRU, BoundedCache.References.STRONG );
+        try {
+            Tags.PreparedQuery q = prepareSimple();
+            WeakReference<ClassLoader> loader = queryWithTemporaryLoader( q );
+            Assert.assertEquals( 1, Tags.getResultCacheStats().getSize() );
+
+            // Cached results do not keep their class loader, even when strongly referenced.
+            for ( int i = 0; i < 100 && loader.get() != null; i++ ) {
+                System.gc();
+                Thread.sleep( 10 );
+            }
+            Assert.assertNull( loader.get() );
+
+            // The results of the collected class loader are purged on the next miss.
+            Thread.sleep( 100 );
+            q.listClassNames();
+            Assert.assertEquals( 1, Tags.getResultCacheStats().getSize() );
+        } finally {
+            Tags.configureCache( 1024, 64L * 1024 * 1024, BoundedCache.Eviction.LRU, BoundedCache.References.SOFT );
+        }
+    }
+}
@@ -16,18 +16,48 @@
 
 package org.dbrain.tags;
 
+import org.dbrain.tags.impl.TagAttribute;
+import org.dbrain.tags.impl.TagUtils;
+import org.dbrain.tags.samples.factory.FactoryClass1;
+import org.dbrain.tags.samples.factory.FactoryClass2;
+import org.dbrain.tags.samples.factory.FactoryIntf;
+import org.dbrain.tags.samples.taggedintf.TaggedIntf;
+import org.dbrain.tags.samples.taggedintf.TaggedIntfClass2;
+import org.dbrain.tags.samples.taggedintf.TaggedIntfClass3;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 /**
  * Created by epoitras on 21/01/15.
  */
 public class Query_Test {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     public static class ClassNotFoundConsumer implements Consumer<ClassNotFoundException> {
 
         public List<ClassNotFoundException> exceptions = new ArrayList<>();
@@ -75,4 +105,150 @@ public class Query_Test {
         Assert.assertEquals( 2, c.requestedClassNames.size() );
 
     }
+
+    @Test
+    public void testAsync() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CompletableFuture<List<Class>> all = Tags.query().filter( tags -> tags.containsTag( TaggedIntf.class.getName() ) ).listAllClassAsync( executor );
+            CompletableFuture<List<Class>> concrete = Tags.query().filter( tags -> tags.containsTag( TaggedIntf.class.getName() ) ).listClassAsync( executor );
+            Assert.assertEquals( 4, all.get().size() );
+            Assert.assertEquals( Tags.listClassByTag( TaggedIntf.class ), concrete.get() );
+
+            List<Class<?>> streamed = new ArrayList<>();
+            Tags.query().filter( tags -> tags.containsTag( TaggedIntf.class.getName() ) ).forEachClassAsync( executor, streamed::add ).get();
+            Assert.assertEquals( concrete.get(), streamed );
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testAsyncCancel() throws Exception {
+        List<Runnable> pending = new ArrayList<>();
+        CompletableFuture<List<Class>> result = Tags.query().listAllClassAsync( pending::add );
+        result.cancel( true );
+        pending.forEach( Runnable::run );
+        Assert.assertTrue( result.isCancelled() );
+    }
+
+    @Test
+    public void testInstantiate() throws Exception {
+        List<TaggedIntf> instances = Tags.query().filter( tags -> tags.containsTag( TaggedIntf.class.getName() ) ).instantiate( TaggedIntf.class, true );
+        Assert.assertEquals( 2, instances.size() );
+        Assert.assertTrue( instances.get( 0 ) instanceof TaggedIntfClass2 );
+        Assert.assertTrue( instances.get( 1 ) instanceof TaggedIntfClass3 );
+
+        List<Supplier<TaggedIntf>> factories = Tags.query().filter( tags -> tags.containsTag( TaggedIntf.class.getName() ) ).listFactories( TaggedIntf.class );
+        Assert.assertEquals( 2, factories.size() );
+        Assert.assertNotSame( factories.get( 0 ).get(), factories.get( 0 ).get() );
+
+        // Classes not assignable to the requested type are skipped.
+        Assert.assertTrue( Tags.query().filter( tags -> tags.containsTag( TaggedIntf.class.getName() ) ).instantiate( Runnable.class ).isEmpty() );
+    }
+
+    @Test
+    public void testGeneratedFactories() throws Exception {
+        Map<String, Tags.ClassTags> tags = Tags.query().filter( t -> t.containsTag( FactoryIntf.class.getName() ) ).mapTagsByClassName();
+        Assert.assertEquals( FactoryClass1.class.getName() + "$$TagFactory", tags.get( FactoryClass1.class.getName() ).getAttribute( "", TagAttribute.FACTORY ) );
+        Assert.assertEquals( FactoryClass1.Nested.class.getName() + "$$TagFactory", tags.get( FactoryClass1.Nested.class.getName() ).getAttribute( "", TagAttribute.FACTORY ) );
+        Assert.assertNull( tags.get( FactoryClass2.class.getName() ).getAttribute( "", TagAttribute.FACTORY ) );
+
+        Supplier<?> factory = Class.forName( FactoryClass1.class.getName() + "$$TagFactory" ).asSubclass( Supplier.class ).getDeclaredConstructor().newInstance();
+        Assert.assertTrue( factory.get() instanceof FactoryClass1 );
+
+        List<Supplier<FactoryIntf>> factories = Tags.query().filter( t -> t.containsTag( FactoryIntf.class.getName() ) ).listFactories( FactoryIntf.class );
+        Assert.assertEquals( 3, factories.size() );
+        Assert.assertTrue( factories.get( 0 ).get() instanceof FactoryClass1 );
+        Assert.assertTrue( factories.get( 1 ).get() instanceof FactoryClass1.Nested );
+        try {
+            factories.get( 2 ).get();
+            Assert.fail( "FactoryClass2 does not have a no-arg constructor." );
+        } catch ( IllegalStateException e ) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testDuplicateResources() throws Exception {
+        URL sample = getClass().getResource( "/sample.txt" );
+        byte[] content;
+        try ( InputStream is = sample.openStream() ) {
+            content = TagUtils.readFully( is );
+        }
+        File jar = folder.newFile( "copy.jar" );
+        try ( ZipOutputStream zos = new ZipOutputStream( new FileOutputStream( jar ) ) ) {
+            zos.putNextEntry( new ZipEntry( TagUtils.TAG_FILE_NAME ) );
+            zos.write( content );
+            zos.closeEntry();
+        }
+        URL copy = new URL( "jar:" + jar.toURI().toURL() + "!/" + TagUtils.TAG_FILE_NAME );
+
+        Map<URL, URL> duplicates = new HashMap<>();
+        List<String> q = Tags.query().resource( sample ).resource( copy ).onDuplicateResource( duplicates::put )
+                             .filter( tags -> tags.containsTag( "org.dbrain.tools.classtags.ResourceRest" ) ).listClassNames();
+        Assert.assertEquals( 2, q.size() );
+        Assert.assertEquals( Collections.singletonMap( copy, sample ), duplicates );
+    }
+
+    @Test
+    public void testFingerprintCollision() throws Exception {
+        byte[] first = null;
+        byte[] second = null;
+        for ( char c = 'a'; second == null; c++ ) {
+            first = ( "p.A:t.T\n#" + c + c + c + c ).getBytes( StandardCharsets.ISO_8859_1 );
+            second = forgeCrc( "p.B:t.T\n#".getBytes( StandardCharsets.ISO_8859_1 ), crcOf( first ) );
+        }
+        Assert.assertEquals( crcOf( first ), crcOf( second ) );
+        File a = folder.newFile( "a.txt" );
+        File b = folder.newFile( "b.txt" );
+        Files.write( a.toPath(), first );
+        Files.write( b.toPath(), second );
+
+        Map<URL, URL> duplicates = new HashMap<>();
+        List<String> q = Tags.query().resource( a.toURI().toURL() ).resource( b.toURI().toURL() ).onDuplicateResource( duplicates::put )
+                             .filter( tags -> tags.containsTag( "t.T" ) ).listClassNames();
+        Assert.assertEquals( Arrays.asList( "p.A", "p.B" ), q );
+        Assert.assertTrue( duplicates.isEmpty() );
+    }
+
+    private static long crcOf( byte[] content ) {
+        CRC32 crc = new CRC32();
+        crc.update( content, 0, content.length );
+        return crc.getValue();
+    }
+
+    /**
+     * Append 4 bytes to the prefix so that its CRC-32 is the target, or return null if a byte would start a new line
+     * or a new field.
+     */
+    private static byte[] forgeCrc( byte[] prefix, long target ) {
+        int[] table = new int[256];
+        int[] byTopByte = new int[256];
+        for ( int i = 0; i < 256; i++ ) {
+            int r = i;
+            for ( int k = 0; k < 8; k++ ) {
+                r = ( r & 1 ) != 0 ? ( r >>> 1 ) ^ 0xEDB88320 : r >>> 1;
+            }
+            table[i] = r;
+            byTopByte[r >>> 24] = i;
+        }
+        int[] indexes = new int[4];
+        int reg = ~(int) target;
+        for ( int i = 3; i >= 0; i-- ) {
+            indexes[i] = byTopByte[reg >>> 24];
+            reg = ( reg ^ table[indexes[i]] ) << 8;
+        }
+        byte[] result = Arrays.copyOf( prefix, prefix.length + 4 );
+        reg = ~(int) crcOf( prefix );
+        for ( int i = 0; i < 4; i++ ) {
+            int b = ( reg ^ indexes[i] ) & 0xFF;
+            if ( b == '\n' || b == '\r' || b == ':' ) {
+                return null;
+            }
+            result[prefix.length + i] = (byte) b;
+            reg = ( reg >>> 8 ) ^ table[indexes[i]];
+        }
+        return result;
+    }
 }
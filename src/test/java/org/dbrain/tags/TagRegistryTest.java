@@ -0,0 +1,146 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags;
+
+import org.dbrain.tags.impl.TagEntry;
+import org.dbrain.tags.impl.TagUtils;
+import org.dbrain.tags.samples.simple.SimpleClass1;
+import org.dbrain.tags.samples.simple.SimpleTag;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Test the runtime registry of class loaders.
+ */
+public class TagRegistryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Create a directory holding a tag file with the specific entries.
+     */
+    private File pluginDirectory( TagEntry... entries ) throws Exception {
+        File dir = folder.newFolder();
+        File tagFile = new File( dir, TagUtils.TAG_FILE_NAME );
+        Files.createDirectories( tagFile.getParentFile().toPath() );
+        try ( OutputStream os = Files.newOutputStream( tagFile.toPath() ) ) {
+            TagUtils.writeClassTags( new HashSet<>( Arrays.asList( entries ) ), os );
+        }
+        return dir;
+    }
+
+    @Test
+    public void testSnapshots() throws Exception {
+        TagRegistry registry = new TagRegistry();
+        List<Long> notified = new ArrayList<>();
+        registry.addListener( ( previous, next ) -> notified.add( next.getVersion() ) );
+        TagRegistry.Snapshot empty = registry.snapshot();
+
+        // Only the tag files of the plugin are read, not the ones of its parent.
+        URLClassLoader plugin = new URLClassLoader( new URL[]{ pluginDirectory( new TagEntry( "p.B", "p.Tag" ), new TagEntry( "p.A", "p.Tag" ) ).toURI().toURL() },
+                                                    getClass().getClassLoader() );
+        TagRegistry.Registration registration = registry.register( plugin );
+        Assert.assertEquals( 1, registration.getResources().size() );
+        Assert.assertEquals( 2, registration.getClassCount() );
+
+        TagRegistry.Snapshot registered = registry.snapshot();
+        Assert.assertEquals( Arrays.asList( "p.A", "p.B" ), registered.listClassNames( "p.Tag" ) );
+        Assert.assertEquals( Collections.emptyList(), registered.listClassNames( SimpleTag.class.getName() ) );
+
+        // Published snapshots do not change.
+        Assert.assertTrue( registry.unregister( plugin ) );
+        Assert.assertFalse( registry.unregister( registration ) );
+        Assert.assertEquals( Collections.emptyList(), empty.listClassNames( "p.Tag" ) );
+        Assert.assertEquals( Arrays.asList( "p.A", "p.B" ), registered.listClassNames( "p.Tag" ) );
+        Assert.assertEquals( Collections.emptyList(), registry.snapshot().listClassNames( "p.Tag" ) );
+        Assert.assertEquals( Arrays.asList( 1L, 2L ), notified );
+        plugin.close();
+    }
+
+    @Test
+    public void testFailingListener() throws Exception {
+        TagRegistry registry = new TagRegistry();
+        List<Long> notified = new ArrayList<>();
+        registry.addListener( ( previous, next ) -> {
+            throw new IllegalStateException( "listener" );
+        } );
+        registry.addListener( ( previous, next ) -> notified.add( next.getVersion() ) );
+
+        List<Throwable> uncaught = new ArrayList<>();
+        Thread thread = Thread.currentThread();
+        Thread.UncaughtExceptionHandler handler = thread.getUncaughtExceptionHandler();
+        thread.setUncaughtExceptionHandler( ( t, e ) -> uncaught.add( e ) );
+        try {
+            File dir = pluginDirectory( new TagEntry( "p.A", "p.Tag" ) );
+            TagRegistry.Registration registration = registry.register( null, Collections.singletonList( new File( dir, TagUtils.TAG_FILE_NAME ).toURI().toURL() ) );
+            Assert.assertNotNull( registration );
+        } finally {
+            thread.setUncaughtExceptionHandler( handler );
+        }
+        Assert.assertEquals( Collections.singletonList( 1L ), notified );
+        Assert.assertEquals( 1, uncaught.size() );
+        Assert.assertEquals( "listener", uncaught.get( 0 ).getMessage() );
+    }
+
+    @Test
+    public void testLoadClasses() throws Exception {
+        TagRegistry registry = new TagRegistry();
+        File dir = pluginDirectory( new TagEntry( SimpleClass1.class.getName(), SimpleTag.class.getName() ), new TagEntry( "p.Missing", SimpleTag.class.getName() ) );
+        registry.register( null, Collections.singletonList( new File( dir, TagUtils.TAG_FILE_NAME ).toURI().toURL() ) );
+        Assert.assertEquals( Collections.singletonList( SimpleClass1.class ), registry.snapshot().listAllClass( SimpleTag.class ) );
+    }
+
+    @Test
+    public void testConcurrentRegistrations() throws Exception {
+        TagRegistry registry = new TagRegistry();
+        List<URL> resources = new ArrayList<>();
+        for ( int i = 0; i < 16; i++ ) {
+            resources.add( new File( pluginDirectory( new TagEntry( "p.C" + i, "p.Tag" ) ), TagUtils.TAG_FILE_NAME ).toURI().toURL() );
+        }
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        try {
+            List<Future<TagRegistry.Registration>> tasks = new ArrayList<>();
+            for ( URL resource : resources ) {
+                tasks.add( executor.submit( () -> registry.register( null, Collections.singletonList( resource ) ) ) );
+            }
+            for ( Future<TagRegistry.Registration> task : tasks ) {
+                task.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals( 16, registry.snapshot().getVersion() );
+        Assert.assertEquals( 16, registry.snapshot().listClassNames( "p.Tag" ).size() );
+    }
+}
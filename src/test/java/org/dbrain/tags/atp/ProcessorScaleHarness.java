@@ -0,0 +1,399 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.atp;
+
+import org.dbrain.tags.Tag;
+import org.dbrain.tags.impl.TagEntry;
+import org.dbrain.tags.impl.TagUtils;
+
+import javax.annotation.processing.Completion;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticListener;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Measure the cost of the annotation processor on a synthetic code base.
+ * <p>
+ * The generated code base has tag annotations, interfaces of which some are tags, and classes organized in
+ * inheritance chains. Each class implements a few interfaces and is annotated with a tag according to the tag density.
+ * Sources are compiled in process with the processor attached, either in full or after touching a single file, and the
+ * wall time, processor time and peak heap of the compilation are reported.
+ * <p>
+ * Usage: ProcessorScaleHarness [types] [depth] [fanOut] [tagDensity] [directory]
+ */
+public class ProcessorScaleHarness {
+
+    private static final String PACKAGE = "synthetic";
+
+    private final int    types;
+    private final int    depth;
+    private final int    fanOut;
+    private final double tagDensity;
+    private final int    tagCount;
+    private final int    interfaceCount;
+    private final Path   directory;
+
+    /**
+     * @param types      The number of classes.
+     * @param depth      The length of the inheritance chains.
+     * @param fanOut     The number of interfaces implemented by each class.
+     * @param tagDensity The fraction of the classes annotated with a tag.
+     * @param directory  The working directory, holding the sources and the compiled classes.
+     */
+    public ProcessorScaleHarness( int types, int depth, int fanOut, double tagDensity, Path directory ) {
+        this.types = types;
+        this.depth = Math.max( 1, depth );
+        this.fanOut = fanOut;
+        this.tagDensity = tagDensity;
+        this.tagCount = 10;
+        this.interfaceCount = Math.max( fanOut, Math.max( 1, types / 20 ) );
+        this.directory = directory;
+    }
+
+    /**
+     * Result of a compilation.
+     */
+    public static class Report {
+
+        private final String scenario;
+        private final int    sourceCount;
+        private final long   wallNanos;
+        private final long   processorNanos;
+        private final long   peakHeapBytes;
+        private final int    entryCount;
+
+        private Report( String scenario, int sourceCount, long wallNanos, long processorNanos, long peakHeapBytes, int entryCount ) {
+            this.scenario = scenario;
+            this.sourceCount = sourceCount;
+            this.wallNanos = wallNanos;
+            this.processorNanos = processorNanos;
+            this.peakHeapBytes = peakHeapBytes;
+            this.entryCount = entryCount;
+        }
+
+        public long getWallNanos() {
+            return wallNanos;
+        }
+
+        public long getProcessorNanos() {
+            return processorNanos;
+        }
+
+        public long getPeakHeapBytes() {
+            return peakHeapBytes;
+        }
+
+        /**
+         * @return The number of entries in the tag file written by the processor.
+         */
+        public int getEntryCount() {
+            return entryCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format( "%-12s %8d sources %8d ms wall %8d ms processor %6d MB peak heap %8d entries",
+                                  scenario, sourceCount, wallNanos / 1000000, processorNanos / 1000000, peakHeapBytes >> 20, entryCount );
+        }
+    }
+
+    private Path sources() {
+        return directory.resolve( "src" );
+    }
+
+    private Path classes() {
+        return directory.resolve( "classes" );
+    }
+
+    private Path sourceOf( String simpleName ) {
+        return sources().resolve( PACKAGE ).resolve( simpleName + ".java" );
+    }
+
+    private boolean isTaggedInterface( int i ) {
+        return i % 3 == 0;
+    }
+
+    private boolean isAnnotated( int c ) {
+        return ( ( c * 2654435761L ) & 0xFFFF ) < tagDensity * 0x10000;
+    }
+
+    private boolean hasSuperClass( int c ) {
+        return c % depth != 0;
+    }
+
+    private int interfaceOf( int c, int j ) {
+        return (int) ( ( c * 31L + j * 17L ) % interfaceCount );
+    }
+
+    /**
+     * Generate the sources.
+     *
+     * @return The number of entries the processor should write.
+     */
+    public int generate() throws IOException {
+        Files.createDirectories( sources().resolve( PACKAGE ) );
+        for ( int t = 0; t < tagCount; t++ ) {
+            write( "Tag" + t, "@" + Tag.class.getName() + "\npublic @interface Tag" + t + " {}\n" );
+        }
+        for ( int i = 0; i < interfaceCount; i++ ) {
+            String tag = isTaggedInterface( i ) ? "@" + Tag.class.getName() + "\n" : "";
+            String parent = i > 0 && i % 4 != 0 ? " extends Intf" + ( i - 1 ) : "";
+            write( "Intf" + i, tag + "public interface Intf" + i + parent + " {}\n" );
+        }
+        for ( int c = 0; c < types; c++ ) {
+            write( "C" + c, classSource( c, "" ) );
+        }
+
+        // Compute the expected entries: tagged super interfaces of the interfaces, then annotations and tagged
+        // interfaces of the classes and of their super classes.
+        int expected = 0;
+        for ( int i = 0; i < interfaceCount; i++ ) {
+            for ( int s = i; s > 0 && s % 4 != 0; s-- ) {
+                if ( isTaggedInterface( s - 1 ) ) {
+                    expected++;
+                }
+            }
+        }
+        for ( int c = 0; c < types; c++ ) {
+            Set<String> tags = new HashSet<>();
+            if ( isAnnotated( c ) ) {
+                tags.add( "Tag" + c % tagCount );
+            }
+            for ( int s = c; ; s-- ) {
+                for ( int j = 0; j < fanOut; j++ ) {
+                    for ( int i = interfaceOf( s, j ); ; i-- ) {
+                        if ( isTaggedInterface( i ) ) {
+                            tags.add( "Intf" + i );
+                        }
+                        if ( i == 0 || i % 4 == 0 ) {
+                            break;
+                        }
+                    }
+                }
+                if ( !hasSuperClass( s ) ) {
+                    break;
+                }
+            }
+            expected += tags.size();
+        }
+        return expected;
+    }
+
+    private String classSource( int c, String body ) {
+        StringBuilder sb = new StringBuilder();
+        if ( isAnnotated( c ) ) {
+            sb.append( "@Tag" ).append( c % tagCount ).append( '\n' );
+        }
+        sb.append( "public class C" ).append( c );
+        if ( hasSuperClass( c ) ) {
+            sb.append( " extends C" ).append( c - 1 );
+        }
+        for ( int j = 0; j < fanOut; j++ ) {
+            sb.append( j == 0 ? " implements " : ", " ).append( "Intf" ).append( interfaceOf( c, j ) );
+        }
+        sb.append( " {\n" ).append( body ).append( "}\n" );
+        return sb.toString();
+    }
+
+    private void write( String simpleName, String body ) throws IOException {
+        Files.write( sourceOf( simpleName ), ( "package " + PACKAGE + ";\n\n" + body ).getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    /**
+     * Compile all the sources from scratch.
+     */
+    public Report compileFull() throws IOException {
+        List<File> files = new ArrayList<>();
+        try ( Stream<Path> paths = Files.list( sources().resolve( PACKAGE ) ) ) {
+            paths.forEach( p -> files.add( p.toFile() ) );
+        }
+        deleteClasses();
+        return compile( "full", files );
+    }
+
+    /**
+     * Change a single class and compile it alone, against the classes of a previous compilation.
+     */
+    public Report compileIncremental() throws IOException {
+        int c = types / 2;
+        Files.write( sourceOf( "C" + c ), ( "package " + PACKAGE + ";\n\n" + classSource( c, "    public int touched() { return " + System.nanoTime() % 1000 + "; }\n" ) ).getBytes( StandardCharsets.UTF_8 ) );
+        return compile( "incremental", Collections.singletonList( sourceOf( "C" + c ).toFile() ) );
+    }
+
+    private void deleteClasses() throws IOException {
+        if ( Files.exists( classes() ) ) {
+            try ( Stream<Path> paths = Files.walk( classes() ) ) {
+                paths.sorted( ( a, b ) -> b.compareTo( a ) ).forEach( p -> p.toFile().delete() );
+            }
+        }
+        Files.createDirectories( classes() );
+    }
+
+    private Report compile( String scenario, List<File> files ) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if ( compiler == null ) {
+            throw new IllegalStateException( "A JDK is required to run the harness." );
+        }
+        // Only keep the errors, the notes of the processor would weight on the heap.
+        List<Diagnostic<? extends JavaFileObject>> errors = new ArrayList<>();
+        DiagnosticListener<JavaFileObject> diagnostics = d -> {
+            if ( d.getKind() == Diagnostic.Kind.ERROR ) {
+                errors.add( d );
+            }
+        };
+        try ( StandardJavaFileManager fm = compiler.getStandardFileManager( diagnostics, null, StandardCharsets.UTF_8 ) ) {
+            File tagClasses = Paths.get( Tag.class.getProtectionDomain().getCodeSource().getLocation().toURI() ).toFile();
+            fm.setLocation( StandardLocation.CLASS_OUTPUT, Collections.singletonList( classes().toFile() ) );
+            fm.setLocation( StandardLocation.SOURCE_OUTPUT, Collections.singletonList( classes().toFile() ) );
+            fm.setLocation( StandardLocation.CLASS_PATH, Arrays.asList( tagClasses, classes().toFile() ) );
+
+            TimedProcessor processor = new TimedProcessor( new TagsAnnotationProcessor() );
+            JavaCompiler.CompilationTask task = compiler.getTask( new PrintWriter( System.err ), fm, diagnostics,
+                                                                  Arrays.asList( "-source", "8", "-target", "8", "-nowarn", "-Xlint:-options" ),
+                                                                  null, fm.getJavaFileObjectsFromFiles( files ) );
+            task.setProcessors( Collections.singletonList( processor ) );
+
+            System.gc();
+            List<MemoryPoolMXBean> pools = new ArrayList<>();
+            for ( MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() ) {
+                if ( pool.getType() == MemoryType.HEAP ) {
+                    pool.resetPeakUsage();
+                    pools.add( pool );
+                }
+            }
+            long start = System.nanoTime();
+            boolean success = task.call();
+            long wall = System.nanoTime() - start;
+            long peak = 0;
+            for ( MemoryPoolMXBean pool : pools ) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+            if ( !success ) {
+                throw new IllegalStateException( "Compilation failed: " + errors );
+            }
+            return new Report( scenario, files.size(), wall, processor.nanos, peak, countEntries() );
+        } catch ( URISyntaxException e ) {
+            throw new IOException( e );
+        }
+    }
+
+    private int countEntries() throws IOException {
+        Path tagFile = classes().resolve( TagUtils.TAG_FILE_NAME );
+        if ( !Files.exists( tagFile ) ) {
+            return 0;
+        }
+        try ( InputStream is = Files.newInputStream( tagFile ) ) {
+            Set<TagEntry> entries = TagUtils.loadEntries( is );
+            return entries.size();
+        }
+    }
+
+    /**
+     * Processor measuring the time spent in another processor.
+     */
+    private static class TimedProcessor implements Processor {
+
+        private final Processor delegate;
+        private long            nanos;
+
+        private TimedProcessor( Processor delegate ) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Set<String> getSupportedOptions() {
+            return delegate.getSupportedOptions();
+        }
+
+        @Override
+        public Set<String> getSupportedAnnotationTypes() {
+            return delegate.getSupportedAnnotationTypes();
+        }
+
+        @Override
+        public SourceVersion getSupportedSourceVersion() {
+            return delegate.getSupportedSourceVersion();
+        }
+
+        @Override
+        public void init( ProcessingEnvironment processingEnv ) {
+            long start = System.nanoTime();
+            delegate.init( processingEnv );
+            nanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public boolean process( Set<? extends TypeElement> annotations, RoundEnvironment roundEnv ) {
+            long start = System.nanoTime();
+            try {
+                return delegate.process( annotations, roundEnv );
+            } finally {
+                nanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public Iterable<? extends Completion> getCompletions( Element element, AnnotationMirror annotation, ExecutableElement member, String userText ) {
+            return delegate.getCompletions( element, annotation, member, userText );
+        }
+    }
+
+    public static void main( String[] args ) throws Exception {
+        int types = args.length > 0 ? Integer.parseInt( args[0] ) : 10000;
+        int depth = args.length > 1 ? Integer.parseInt( args[1] ) : 5;
+        int fanOut = args.length > 2 ? Integer.parseInt( args[2] ) : 2;
+        double tagDensity = args.length > 3 ? Double.parseDouble( args[3] ) : 0.2;
+        Path directory = args.length > 4 ? Paths.get( args[4] ) : Files.createTempDirectory( "tags-scale" );
+
+        ProcessorScaleHarness harness = new ProcessorScaleHarness( types, depth, fanOut, tagDensity, directory );
+        System.out.println( "Generating " + types + " types in " + directory + ", " + harness.generate() + " entries expected." );
+        System.out.println( harness.compileFull() );
+        System.out.println( harness.compileIncremental() );
+    }
+
+}
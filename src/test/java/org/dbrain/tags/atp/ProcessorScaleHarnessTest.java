@@ -0,0 +1,47 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.atp;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Smoke test of the processor scale harness on a small code base.
+ */
+public class ProcessorScaleHarnessTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSmallCodeBase() throws Exception {
+        ProcessorScaleHarness harness = new ProcessorScaleHarness( 200, 4, 2, 0.3, folder.getRoot().toPath() );
+        int expected = harness.generate();
+        Assert.assertTrue( expected > 0 );
+
+        ProcessorScaleHarness.Report full = harness.compileFull();
+        Assert.assertEquals( expected, full.getEntryCount() );
+        Assert.assertTrue( full.getProcessorNanos() > 0 );
+        Assert.assertTrue( full.getWallNanos() >= full.getProcessorNanos() );
+
+        // The processor keeps the entries of the classes that are not compiled.
+        ProcessorScaleHarness.Report incremental = harness.compileIncremental();
+        Assert.assertEquals( expected, incremental.getEntryCount() );
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the bounded cache.
+ */
+public class BoundedCacheTest {
+
+    private static BoundedCache<String, String> cache( int maxEntries, long maxBytes, BoundedCache.Eviction eviction ) {
+        return new BoundedCache<>( maxEntries, maxBytes, eviction, BoundedCache.References.STRONG, String::length );
+    }
+
+    @Test
+    public void testLru() throws Exception {
+        BoundedCache<String, String> cache = cache( 2, Long.MAX_VALUE, BoundedCache.Eviction.LRU );
+        cache.put( "a", "A" );
+        cache.put( "b", "B" );
+        Assert.assertEquals( "A", cache.get( "a" ) );
+        cache.put( "c", "C" );
+        Assert.assertEquals( "A", cache.get( "a" ) );
+        Assert.assertNull( cache.get( "b" ) );
+        Assert.assertEquals( "C", cache.get( "c" ) );
+
+        BoundedCache.Stats stats = cache.getStats();
+        Assert.assertEquals( 3, stats.getHits() );
+        Assert.assertEquals( 1, stats.getMisses() );
+        Assert.assertEquals( 1, stats.getEvictions() );
+        Assert.assertEquals( 2, stats.getSize() );
+    }
+
+    @Test
+    public void testLfu() throws Exception {
+        BoundedCache<String, String> cache = cache( 2, Long.MAX_VALUE, BoundedCache.Eviction.LFU );
+        cache.put( "a", "A" );
+        cache.put( "b", "B" );
+        cache.get( "a" );
+        cache.get( "a" );
+        cache.get( "b" );
+        cache.put( "c", "C" );
+        // b is less used than a, the inserted entry is spared.
+        Assert.assertEquals( 1, cache.getStats().getEvictions() );
+        Assert.assertNull( cache.get( "b" ) );
+        Assert.assertEquals( "A", cache.get( "a" ) );
+        Assert.assertEquals( "C", cache.get( "c" ) );
+    }
+
+    @Test
+    public void testByteBound() throws Exception {
+        BoundedCache<String, String> cache = cache( 100, 10, BoundedCache.Eviction.LRU );
+        cache.put( "a", "12345" );
+        cache.put( "b", "12345" );
+        Assert.assertEquals( 10, cache.getStats().getBytes() );
+        cache.put( "c", "123" );
+        Assert.assertNull( cache.get( "a" ) );
+        Assert.assertEquals( 8, cache.getStats().getBytes() );
+
+        // Values larger than the bound are not cached.
+        cache.put( "d", "12345678901" );
+        Assert.assertNull( cache.get( "d" ) );
+        Assert.assertEquals( 2, cache.size() );
+    }
+
+    @Test
+    public void testLoader() throws Exception {
+        BoundedCache<String, String> cache = cache( 10, Long.MAX_VALUE, BoundedCache.Eviction.LRU );
+        Assert.assertEquals( "A", cache.get( "a", k -> "A" ) );
+        Assert.assertEquals( "A", cache.get( "a", k -> {
+            throw new AssertionError();
+        } ) );
+        cache.clear();
+        Assert.assertEquals( 0, cache.size() );
+        Assert.assertEquals( 0, cache.getStats().getBytes() );
+    }
+
+    @Test
+    public void testWeakValues() throws Exception {
+        BoundedCache<String, Object> cache = new BoundedCache<>( 10, Long.MAX_VALUE, BoundedCache.Eviction.LRU, BoundedCache.References.WEAK, v -> 1 );
+        cache.put( "a", new Object() );
+        for ( int i = 0; i < 100 && cache.get( "a" ) != null; i++ ) {
+            System.gc();
+            Thread.sleep( 10 );
+        }
+        Assert.assertNull( cache.get( "a" ) );
+        Assert.assertEquals( 0, cache.size() );
+        Assert.assertEquals( 1, cache.getStats().getEvictions() );
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.impl;
+
+import org.dbrain.tags.samples.attributes.Handler;
+import org.dbrain.tags.samples.attributes.OrdersHandler;
+import org.dbrain.tags.samples.factory.FactoryClass1;
+import org.dbrain.tags.samples.taggedintf.TaggedIntf2;
+import org.dbrain.tags.samples.taggedintf.TaggedIntfClass3;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Test the class file parser and the bytecode scanner against the output of the annotation processor.
+ */
+public class BytecodeScannerTest {
+
+    private static final String SAMPLES = "org.dbrain.tags.samples.";
+
+    private static ClassFileInfo read( Class<?> c ) throws Exception {
+        try ( InputStream is = c.getResourceAsStream( c.getSimpleName() + ".class" ) ) {
+            return ClassFileInfo.read( TagUtils.readFully( is ) );
+        }
+    }
+
+    @Test
+    public void testReadClassFile() throws Exception {
+        ClassFileInfo orders = read( OrdersHandler.class );
+        Assert.assertEquals( OrdersHandler.class.getName(), orders.getClassName() );
+        Assert.assertEquals( Object.class.getName(), orders.getSuperClassName() );
+        Assert.assertTrue( orders.getInterfaceNames().isEmpty() );
+        // Class retention annotation, with values of every kind.
+        Assert.assertEquals( Collections.singletonList( Handler.class.getName() ), orders.getAnnotationNames() );
+        Assert.assertFalse( orders.isAbstract() );
+
+        ClassFileInfo handler = read( Handler.class );
+        Assert.assertTrue( handler.isAnnotation() );
+        Assert.assertTrue( handler.getAnnotationNames().contains( BytecodeScanner.TAG_ANNOTATION ) );
+
+        ClassFileInfo taggedIntfClass = read( TaggedIntfClass3.class );
+        Assert.assertEquals( Collections.singletonList( TaggedIntf2.class.getName() ), taggedIntfClass.getInterfaceNames() );
+    }
+
+    @Test
+    public void testSameTagsAsProcessor() throws Exception {
+        Path testClasses = Paths.get( getClass().getProtectionDomain().getCodeSource().getLocation().toURI() );
+        Set<TagEntry> expected;
+        try ( InputStream is = getClass().getResourceAsStream( "/" + TagUtils.TAG_FILE_NAME ) ) {
+            expected = TagUtils.loadEntries( is );
+        }
+
+        BytecodeScanner scanner = new BytecodeScanner().scan( Collections.singletonList( testClasses ), 2 );
+        Assert.assertTrue( scanner.getClasses().containsKey( OrdersHandler.class.getName() ) );
+        Assert.assertEquals( new HashSet<>( expected ), scanner.index( Collections.emptySet() ) );
+
+        // Same supertypes as well, anonymous classes aside.
+        Set<TagAttribute> supertypes;
+        try ( InputStream is = getClass().getResourceAsStream( "/" + TagUtils.TAG_FILE_NAME ) ) {
+            supertypes = TagUtils.loadAttributes( is, new HashSet<>(), null, a -> a.getClassName().startsWith( SAMPLES ) &&
+                    ( a.getName().equals( TagAttribute.SUPER ) || a.getName().equals( TagAttribute.ABSTRACT ) ) );
+        }
+        Assert.assertFalse( supertypes.isEmpty() );
+        Assert.assertEquals( supertypes, scanner.supertypes().stream().filter( a -> a.getClassName().startsWith( SAMPLES ) ).collect( Collectors.toSet() ) );
+
+        // Configured tags need no @Tag annotation, here the interface of the generated factories.
+        Set<TagEntry> suppliers = scanner.index( Collections.singleton( Supplier.class.getName() ) );
+        Assert.assertTrue( suppliers.contains( new TagEntry( FactoryClass1.class.getName() + "$$TagFactory", Supplier.class.getName() ) ) );
+        Assert.assertFalse( suppliers.contains( new TagEntry( FactoryClass1.class.getName(), Supplier.class.getName() ) ) );
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Test the compact tag file encoding.
+ */
+public class CompactTagFileTest {
+
+    private static Set<TagEntry> sampleEntries() {
+        Set<TagEntry> entries = new HashSet<>();
+        for ( int p = 0; p < 20; p++ ) {
+            for ( int c = 0; c < 50; c++ ) {
+                String className = "com.acme.module" + p + ".service.impl.GeneratedService" + c;
+                entries.add( new TagEntry( className, "com.acme.tags.Tag" + ( c % 5 ) ) );
+                if ( c % 10 == 0 ) {
+                    entries.add( new TagEntry( className, "com.acme.tags.Rare" ) );
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static byte[] encode( Set<TagEntry> entries, TagFileFormat format ) throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        TagUtils.writeClassTags( entries, os, format );
+        return os.toByteArray();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Set<TagEntry> entries = sampleEntries();
+        for ( TagFileFormat format : new TagFileFormat[]{ TagFileFormat.COMPACT, TagFileFormat.COMPACT_DEFLATE } ) {
+            byte[] data = encode( entries, format );
+            Set<TagEntry> read = TagUtils.loadEntries( new ByteArrayInputStream( data ) );
+            Assert.assertEquals( entries, read );
+        }
+    }
+
+    @Test
+    public void testSmallerThanText() throws Exception {
+        Set<TagEntry> entries = sampleEntries();
+        int text = encode( entries, TagFileFormat.TEXT ).length;
+        int compact = encode( entries, TagFileFormat.COMPACT ).length;
+        int deflated = encode( entries, TagFileFormat.COMPACT_DEFLATE ).length;
+        Assert.assertTrue( compact * 3 < text );
+        Assert.assertTrue( deflated < compact );
+    }
+
+    @Test
+    public void testTagFilter() throws Exception {
+        Set<TagEntry> entries = sampleEntries();
+        byte[] data = encode( entries, TagFileFormat.COMPACT );
+        Set<TagEntry> read = TagUtils.loadEntries( new ByteArrayInputStream( data ), new HashSet<>(), Collections.singleton( "com.acme.tags.Rare" ), null );
+        Assert.assertEquals( 100, read.size() );
+        Assert.assertTrue( read.stream().allMatch( e -> e.getTagName().equals( "com.acme.tags.Rare" ) ) );
+    }
+
+    @Test
+    public void testBlockLookup() throws Exception {
+        CompactTagFile file = CompactTagFile.read( encode( sampleEntries(), TagFileFormat.COMPACT_DEFLATE ) );
+        Assert.assertEquals( 1000, file.getClassCount() );
+        Assert.assertEquals( 16, file.getBlockCount() );
+
+        Set<String> tags = file.getTags( "com.acme.module7.service.impl.GeneratedService20" );
+        Assert.assertEquals( 2, tags.size() );
+        Assert.assertTrue( tags.contains( "com.acme.tags.Tag0" ) );
+        Assert.assertTrue( tags.contains( "com.acme.tags.Rare" ) );
+
+        Assert.assertTrue( file.getTags( "com.acme.Missing" ).isEmpty() );
+        Assert.assertTrue( file.getTags( "zzz.Missing" ).isEmpty() );
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        byte[] data = encode( new HashSet<>(), TagFileFormat.COMPACT );
+        Assert.assertTrue( TagUtils.loadEntries( new ByteArrayInputStream( data ) ).isEmpty() );
+    }
+
+    @Test
+    public void testInvalidClassName() throws Exception {
+        byte[] data = encode( Collections.singleton( new TagEntry( "a.Class1", "t.Tag1" ) ), TagFileFormat.COMPACT );
+        byte[] name = "a.Class1".getBytes( "UTF-8" );
+        int at = lastIndexOf( data, name );
+        Assert.assertEquals( name.length, data[at - 1] );
+
+        // The name claims to share more bytes than the previous one has.
+        data[at - 2] = 3;
+        try {
+            TagUtils.loadEntries( new ByteArrayInputStream( data ) );
+            Assert.fail();
+        } catch ( IOException e ) {
+            Assert.assertTrue( e.getMessage().startsWith( "Invalid" ) );
+        }
+    }
+
+    private static int lastIndexOf( byte[] data, byte[] value ) {
+        for ( int i = data.length - value.length; i >= 0; i-- ) {
+            if ( Arrays.equals( Arrays.copyOfRange( data, i, i + value.length ), value ) ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
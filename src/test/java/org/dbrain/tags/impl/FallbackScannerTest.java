@@ -0,0 +1,155 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.impl;
+
+import org.dbrain.tags.Tags;
+import org.dbrain.tags.samples.simpleintf.SimpleIntf1;
+import org.dbrain.tags.samples.simpleintf.SimpleIntf2;
+import org.dbrain.tags.samples.simpleintf.SimpleIntfTag;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Test the fallback scanner of jars without tag file.
+ */
+public class FallbackScannerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File createJar( String name, boolean indexed ) throws Exception {
+        File jar = folder.newFile( name );
+        try ( ZipOutputStream zos = new ZipOutputStream( new FileOutputStream( jar ) ) ) {
+            for ( Class<?> c : Arrays.asList( SimpleIntfTag.class, SimpleIntf1.class, SimpleIntf2.class ) ) {
+                zos.putNextEntry( new ZipEntry( c.getName().replace( '.', '/' ) + ".class" ) );
+                try ( InputStream is = c.getResourceAsStream( c.getSimpleName() + ".class" ) ) {
+                    zos.write( TagUtils.readFully( is ) );
+                }
+                zos.closeEntry();
+            }
+            if ( indexed ) {
+                zos.putNextEntry( new ZipEntry( TagUtils.TAG_FILE_NAME ) );
+                zos.closeEntry();
+            }
+        }
+        return jar;
+    }
+
+    private static long countFiles( Path directory ) throws Exception {
+        try ( Stream<Path> files = Files.list( directory ) ) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void testScanAndCache() throws Exception {
+        Path cache = folder.newFolder( "cache" ).toPath();
+        FallbackScanner scanner = new FallbackScanner( cache, Collections.emptySet() );
+
+        URL url = scanner.resolve( createJar( "lib1.jar", false ).toPath() );
+        Assert.assertNotNull( url );
+        try ( InputStream is = url.openStream() ) {
+            Assert.assertEquals( new HashSet<>( Arrays.asList( new TagEntry( SimpleIntf1.class.getName(), SimpleIntfTag.class.getName() ),
+                                                               new TagEntry( SimpleIntf2.class.getName(), SimpleIntfTag.class.getName() ) ) ),
+                                 TagUtils.loadEntries( is ) );
+        }
+
+        // The same content elsewhere is found in the cache, other tags are cached separately.
+        Assert.assertEquals( url, scanner.resolve( createJar( "lib2.jar", false ).toPath() ) );
+        Assert.assertEquals( 1, countFiles( cache ) );
+        new FallbackScanner( cache, Collections.singleton( Runnable.class.getName() ) ).resolve( createJar( "lib3.jar", false ).toPath() );
+        Assert.assertEquals( 2, countFiles( cache ) );
+
+        // Jars with a tag file are not scanned.
+        Assert.assertNull( scanner.resolve( createJar( "indexed.jar", true ).toPath() ) );
+    }
+
+    @Test
+    public void testQuery() throws Exception {
+        Path cache = folder.newFolder( "cache" ).toPath();
+        File jar = createJar( "vendor.jar", false );
+        try ( URLClassLoader cl = new URLClassLoader( new URL[]{ jar.toURI().toURL() }, null ) ) {
+            Assert.assertTrue( Tags.query().classLoader( cl ).listClassNames().isEmpty() );
+            Assert.assertEquals( Arrays.asList( SimpleIntf1.class.getName(), SimpleIntf2.class.getName() ),
+                                 Tags.query().classLoader( cl ).scanUnindexed( p -> p.getFileName().toString().startsWith( "vendor" ), cache ).listClassNames() );
+            Assert.assertTrue( Tags.query().classLoader( cl ).scanUnindexed( p -> false, cache ).listClassNames().isEmpty() );
+        }
+    }
+
+    @Test
+    public void testSharedCacheDirectory() throws Exception {
+        Path cache = folder.newFolder( "shared" ).toPath();
+        Assume.assumeTrue( cache.getFileSystem().supportedFileAttributeViews().contains( "posix" ) );
+        Files.setPosixFilePermissions( cache, PosixFilePermissions.fromString( "rwxrwxrwx" ) );
+        try {
+            new FallbackScanner( cache, Collections.emptySet() ).resolve( createJar( "shared.jar", false ).toPath() );
+            Assert.fail( "A directory writable by others must be refused." );
+        } catch ( IOException e ) {
+            Assert.assertEquals( 0, countFiles( cache ) );
+        }
+
+        // New directories are private.
+        Path created = cache.resolve( "private" );
+        Files.setPosixFilePermissions( cache, PosixFilePermissions.fromString( "rwx------" ) );
+        new FallbackScanner( created, Collections.emptySet() ).resolve( createJar( "private.jar", false ).toPath() );
+        Assert.assertEquals( PosixFilePermissions.fromString( "rwx------" ), Files.getPosixFilePermissions( created ) );
+    }
+
+    @Test
+    public void testDefaultCacheDirectory() throws Exception {
+        Assert.assertTrue( FallbackScanner.getDefaultCacheDirectory().startsWith( System.getProperty( "user.home" ) ) );
+    }
+
+    @Test
+    public void testResolvedOncePerVersion() throws Exception {
+        Path cache = folder.newFolder( "cache" ).toPath();
+        File jar = createJar( "vendor.jar", false );
+        Tags.configureCache( 1024, 64L * 1024 * 1024, BoundedCache.Eviction.LRU, BoundedCache.References.SOFT );
+        try ( URLClassLoader cl = new URLClassLoader( new URL[]{ jar.toURI().toURL() }, null ) ) {
+            Predicate<Path> vendor = p -> p.getFileName().toString().startsWith( "vendor" );
+            Tags.query().classLoader( cl ).scanUnindexed( vendor, cache ).listClassNames();
+            Assert.assertEquals( 2, Tags.query().classLoader( cl ).scanUnindexed( vendor, cache ).listClassNames().size() );
+            Assert.assertEquals( 1, Tags.getScanCacheStats().getMisses() );
+            Assert.assertEquals( 1, Tags.getScanCacheStats().getHits() );
+
+            // Resolved again after a refresh, as new jars may have been added.
+            Tags.refresh();
+            Tags.query().classLoader( cl ).scanUnindexed( vendor, cache ).listClassNames();
+            Assert.assertEquals( 2, Tags.getScanCacheStats().getMisses() );
+        }
+    }
+}
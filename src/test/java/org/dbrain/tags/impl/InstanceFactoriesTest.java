@@ -0,0 +1,73 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.function.Supplier;
+
+/**
+ * Test the cache of instance factories.
+ */
+public class InstanceFactoriesTest {
+
+    public static class Plain {
+
+        private String origin = "constructor";
+
+    }
+
+    public static class PlainFactory implements Supplier<Plain> {
+
+        @Override
+        public Plain get() {
+            Plain result = new Plain();
+            result.origin = "factory";
+            return result;
+        }
+    }
+
+    public static class Singleton {
+
+        private Singleton() {
+        }
+    }
+
+    @Test
+    public void testGeneratedFactoryReplacesHandle() throws Exception {
+        Assert.assertEquals( "constructor", InstanceFactories.get( Plain.class ).get().origin );
+        Assert.assertEquals( "factory", InstanceFactories.get( Plain.class, PlainFactory.class.getName() ).get().origin );
+        Assert.assertEquals( "factory", InstanceFactories.get( Plain.class ).get().origin );
+
+        // A generated factory that cannot be loaded keeps the current factory.
+        Assert.assertEquals( "factory", InstanceFactories.get( Plain.class, "p.Missing" ).get().origin );
+    }
+
+    @Test
+    public void testPrivateConstructor() throws Exception {
+        Supplier<Singleton> factory = InstanceFactories.get( Singleton.class );
+        try {
+            factory.get();
+            Assert.fail();
+        } catch ( IllegalStateException e ) {
+            Assert.assertTrue( e.getMessage().contains( Singleton.class.getName() ) );
+        }
+        // Failures are not cached.
+        Assert.assertNotSame( factory, InstanceFactories.get( Singleton.class ) );
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Test the k-way merge of tag files.
+ */
+public class SortedMergeTest {
+
+    private static final List<TagEntry> FILE1 = Arrays.asList( new TagEntry( "a.A", "t.T1" ),
+                                                               new TagEntry( "a.A", "t.T2" ),
+                                                               new TagEntry( "a.B", "t.T1" ),
+                                                               new TagEntry( "a.B$Inner", "t.T2" ) );
+
+    private static final List<TagEntry> FILE2 = Arrays.asList( new TagEntry( "a.A", "t.T2" ),
+                                                               new TagEntry( "a.C", "t.T3" ),
+                                                               new TagEntry( "t.T1", "t.T3" ) );
+
+    private static final List<TagAttribute> ATTRIBUTES = Arrays.asList( new TagAttribute( "a.A", "t.T1", "k", "v" ),
+                                                                        new TagAttribute( "x.Unknown", "", "k", "v" ) );
+
+    private static List<Iterator<TagEntry>> sources( List<List<TagEntry>> files ) {
+        return files.stream().map( List::iterator ).collect( Collectors.toList() );
+    }
+
+    private static void assertSameIndex( TagIndex expected, TagIndex actual ) {
+        Assert.assertEquals( expected.getClassCount(), actual.getClassCount() );
+        Assert.assertEquals( expected.getTagCount(), actual.getTagCount() );
+        for ( int c = 0; c < expected.getClassCount(); c++ ) {
+            Assert.assertEquals( expected.getClassName( c ), actual.getClassName( c ) );
+            Assert.assertEquals( new ArrayList<>( expected.getTags( c ) ), new ArrayList<>( actual.getTags( c ) ) );
+            Assert.assertEquals( expected.getAttributes( c ), actual.getAttributes( c ) );
+        }
+        for ( int t = 0; t < expected.getTagCount(); t++ ) {
+            Assert.assertEquals( expected.getTagName( t ), actual.getTagName( t ) );
+            Assert.assertArrayEquals( expected.classesWithTag( t ).toArray(), actual.classesWithTag( t ).toArray() );
+        }
+        Assert.assertEquals( expected.indexOfClass( "t.T1" ), actual.indexOfClass( "t.T1" ) );
+        Assert.assertEquals( expected.indexOfTag( "t.T1" ), actual.indexOfTag( "t.T1" ) );
+    }
+
+    @SafeVarargs
+    private static TagIndex expected( List<TagAttribute> attributes, List<TagEntry>... files ) {
+        Set<TagEntry> all = new HashSet<>();
+        for ( List<TagEntry> file : files ) {
+            all.addAll( file );
+        }
+        return TagIndex.build( all, attributes );
+    }
+
+    @Test
+    public void testSortedFiles() throws Exception {
+        TagIndex merged = SortedMerge.merge( sources( Arrays.asList( FILE1, FILE2 ) ), null, ATTRIBUTES );
+        assertSameIndex( expected( ATTRIBUTES, FILE1, FILE2 ), merged );
+        Assert.assertEquals( 1, merged.getAttributes( merged.indexOfClass( "a.A" ) ).size() );
+    }
+
+    @Test
+    public void testUnsortedFile() throws Exception {
+        List<TagEntry> unsorted = Arrays.asList( new TagEntry( "a.B", "t.T3" ),
+                                                 new TagEntry( "a.A", "t.T3" ),
+                                                 new TagEntry( "z.Z", "t.T1" ),
+                                                 new TagEntry( "a.A", "t.T1" ) );
+        TagIndex merged = SortedMerge.merge( sources( Arrays.asList( FILE1, unsorted, FILE2 ) ), null, Collections.emptyList() );
+        assertSameIndex( expected( Collections.emptyList(), FILE1, unsorted, FILE2 ), merged );
+    }
+
+    @Test
+    public void testFilterAndEmpty() throws Exception {
+        TagIndex merged = SortedMerge.merge( sources( Arrays.asList( FILE1, FILE2 ) ), e -> e.getTagName().equals( "t.T2" ), Collections.emptyList() );
+        Assert.assertEquals( Arrays.asList( "a.A", "a.B$Inner" ), Arrays.asList( merged.getClassName( 0 ), merged.getClassName( 1 ) ) );
+        Assert.assertEquals( 2, merged.getClassCount() );
+        Assert.assertEquals( 0, SortedMerge.merge( Collections.emptyList(), null, Collections.emptyList() ).getClassCount() );
+    }
+
+    @Test
+    public void testTextFilesAreSortedByEntry() throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        TagUtils.writeClassTags( new HashSet<>( FILE1 ), os );
+        List<String> lines = Arrays.asList( new String( os.toByteArray(), StandardCharsets.UTF_8 ).split( "\\R" ) );
+        // By line, a.B$Inner would come before a.B:t.T1.
+        Assert.assertEquals( FILE1.stream().map( TagEntry::toString ).collect( Collectors.toList() ), lines );
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Test the subtype graph.
+ */
+public class SubtypeIndexTest {
+
+    private static TagAttribute sup( String className, String supertype ) {
+        return new TagAttribute( className, "", TagAttribute.SUPER, supertype );
+    }
+
+    @Test
+    public void testClosure() throws Exception {
+        SubtypeIndex index = SubtypeIndex.build( Arrays.asList( sup( "b.B", "a.A" ),
+                                                                sup( "c.C", "a.A" ),
+                                                                sup( "d.D", "b.B" ),
+                                                                sup( "d.D", "c.C" ),
+                                                                sup( "e.E", "d.D" ),
+                                                                sup( "e.E", "d.D" ),
+                                                                new TagAttribute( "b.B", "", TagAttribute.ABSTRACT, "true" ),
+                                                                new TagAttribute( "b.B", "t.Tag", "other", "x" ) ) );
+        Assert.assertEquals( 5, index.getTypeCount() );
+
+        // Compute a sub closure first, it is reused by the larger one.
+        Assert.assertEquals( Arrays.asList( "d.D", "e.E" ), index.subtypesOf( "b.B", false ) );
+        Assert.assertEquals( Arrays.asList( "b.B", "c.C", "d.D", "e.E" ), index.subtypesOf( "a.A", false ) );
+        Assert.assertEquals( Arrays.asList( "c.C", "d.D", "e.E" ), index.subtypesOf( "a.A", true ) );
+        Assert.assertEquals( Arrays.asList( "b.B", "c.C", "d.D", "e.E" ), index.subtypesOf( "a.A", false ) );
+        Assert.assertEquals( 2, index.directSubtypesOf( index.indexOf( "a.A" ) ).count() );
+        Assert.assertTrue( index.subtypesOf( "e.E", false ).isEmpty() );
+        Assert.assertTrue( index.subtypesOf( "x.Unknown", false ).isEmpty() );
+        Assert.assertEquals( 0, SubtypeIndex.build( Collections.emptyList() ).getTypeCount() );
+    }
+}
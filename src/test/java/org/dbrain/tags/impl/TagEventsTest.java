@@ -0,0 +1,78 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.impl;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.dbrain.tags.Tags;
+import org.dbrain.tags.samples.simple.SimpleClass1;
+import org.dbrain.tags.samples.simple.SimpleTag;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Test the Flight Recorder events of the queries.
+ */
+public class TagEventsTest {
+
+    private static final String[] EVENTS = { "org.dbrain.tags.ResourcesListed",
+                                             "org.dbrain.tags.ResourceParsed",
+                                             "org.dbrain.tags.QuerySelected",
+                                             "org.dbrain.tags.ClassLoaded" };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testDisabledByDefault() throws Exception {
+        Assert.assertNull( TagEvents.begin( TagEvents.Type.PARSE ) );
+        TagEvents.endParse( null, null, 0, 0, 0 );
+    }
+
+    @Test
+    public void testEvents() throws Exception {
+        Path file = folder.newFile( "tags.jfr" ).toPath();
+        try ( Recording recording = new Recording() ) {
+            for ( String event : EVENTS ) {
+                recording.enable( event );
+            }
+            recording.start();
+            // Drop the cached indexes so the tag files are parsed again.
+            Tags.refresh();
+            Tags.query().filter( ct -> ct.containsTag( SimpleTag.class ) ).listClass();
+            recording.stop();
+            recording.dump( file );
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents( file );
+        for ( String name : EVENTS ) {
+            Assert.assertTrue( name, events.stream().anyMatch( e -> e.getEventType().getName().equals( name ) ) );
+        }
+        List<RecordedEvent> parsed = events.stream().filter( e -> e.getEventType().getName().equals( EVENTS[1] ) ).collect( Collectors.toList() );
+        Assert.assertTrue( parsed.stream().allMatch( e -> e.getLong( "bytes" ) > 0 ) );
+        Assert.assertTrue( parsed.stream().anyMatch( e -> e.getInt( "entries" ) > 0 ) );
+        Assert.assertTrue( events.stream().anyMatch( e -> e.getEventType().getName().equals( EVENTS[3] ) && SimpleClass1.class.getName().equals( e.getString( "className" ) ) ) );
+    }
+
+}
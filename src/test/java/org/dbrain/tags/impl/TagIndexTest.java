@@ -0,0 +1,103 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Test the columnar tag index.
+ */
+public class TagIndexTest {
+
+    private static TagIndex sampleIndex() {
+        return TagIndex.build( Arrays.asList( new TagEntry( "b.Class2", "t.Tag1" ),
+                                              new TagEntry( "a.Class1", "t.Tag2" ),
+                                              new TagEntry( "a.Class1", "t.Tag1" ),
+                                              new TagEntry( "a.Class1", "t.Tag1" ),
+                                              new TagEntry( "t.Tag2", "t.Tag1" ) ) );
+    }
+
+    @Test
+    public void testClassesAreSorted() throws Exception {
+        TagIndex index = sampleIndex();
+        Assert.assertEquals( 3, index.getClassCount() );
+        Assert.assertEquals( "a.Class1", index.getClassName( 0 ) );
+        Assert.assertEquals( "b.Class2", index.getClassName( 1 ) );
+        Assert.assertEquals( "t.Tag2", index.getClassName( 2 ) );
+        Assert.assertEquals( 2, index.getTagCount() );
+        Assert.assertEquals( "t.Tag1", index.getTagName( 0 ) );
+        Assert.assertEquals( "t.Tag2", index.getTagName( 1 ) );
+    }
+
+    @Test
+    public void testAdjacency() throws Exception {
+        TagIndex index = sampleIndex();
+        int class1 = index.indexOfClass( "a.Class1" );
+        int tag1 = index.indexOfTag( "t.Tag1" );
+
+        Set<String> tags = index.getTags( class1 );
+        Assert.assertEquals( 2, tags.size() );
+        Assert.assertTrue( tags.contains( "t.Tag1" ) );
+        Assert.assertTrue( tags.contains( "t.Tag2" ) );
+        Assert.assertFalse( tags.contains( "a.Class1" ) );
+
+        Assert.assertEquals( Arrays.asList( "a.Class1", "b.Class2", "t.Tag2" ),
+                             index.classesWithTag( tag1 ).mapToObj( index::getClassName ).collect( Collectors.toList() ) );
+        Assert.assertTrue( index.hasTag( index.indexOfClass( "b.Class2" ), "t.Tag1" ) );
+        Assert.assertFalse( index.hasTag( index.indexOfClass( "b.Class2" ), "t.Tag2" ) );
+        Assert.assertFalse( index.hasTag( class1, "x.Unknown" ) );
+    }
+
+    @Test
+    public void testClassesInPackage() throws Exception {
+        TagIndex index = TagIndex.build( Arrays.asList( new TagEntry( "a.A", "t.Tag" ),
+                                                        new TagEntry( "a.b.B", "t.Tag" ),
+                                                        new TagEntry( "a.b.B$Inner", "t.Tag" ),
+                                                        new TagEntry( "a.b.c.C", "t.Tag" ),
+                                                        new TagEntry( "a.b.d.D", "t.Tag" ),
+                                                        new TagEntry( "a.bc.E", "t.Tag" ),
+                                                        new TagEntry( "a.b.F", "t.Tag" ),
+                                                        new TagEntry( "G", "t.Tag" ) ) );
+        Assert.assertEquals( Arrays.asList( "a.b.B", "a.b.B$Inner", "a.b.F", "a.b.c.C", "a.b.d.D" ), namesOf( index, index.classesInPackage( "a.b", true ) ) );
+        Assert.assertEquals( Arrays.asList( "a.b.B", "a.b.B$Inner", "a.b.F" ), namesOf( index, index.classesInPackage( "a.b", false ) ) );
+        Assert.assertEquals( Arrays.asList( "a.A" ), namesOf( index, index.classesInPackage( "a", false ) ) );
+        Assert.assertEquals( Arrays.asList( "G" ), namesOf( index, index.classesInPackage( "", false ) ) );
+        Assert.assertEquals( 8, index.classesInPackage( "", true ).count() );
+        Assert.assertEquals( 0, index.classesInPackage( "a.x", true ).count() );
+        Assert.assertEquals( 0, index.classesInPackage( "a.b.B", true ).count() );
+    }
+
+    private static List<String> namesOf( TagIndex index, IntStream ordinals ) {
+        return ordinals.mapToObj( index::getClassName ).collect( Collectors.toList() );
+    }
+
+    @Test
+    public void testUnknownNames() throws Exception {
+        TagIndex index = sampleIndex();
+        Assert.assertTrue( index.indexOfClass( "t.Tag1" ) < 0 );
+        Assert.assertTrue( index.indexOfTag( "a.Class1" ) < 0 );
+        Assert.assertTrue( index.indexOfClass( null ) < 0 );
+        Assert.assertEquals( 0, TagIndex.EMPTY.getClassCount() );
+    }
+}
@@ -19,7 +19,12 @@ package org.dbrain.tags.impl;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Set;
 
 /**
@@ -35,4 +40,24 @@ public class TagUtilsTest {
             Assert.assertEquals( x.size(), 2 );
         }
     }
+
+    @Test
+    public void testAttributes() throws Exception {
+        Set<TagEntry> entries = new HashSet<>( Arrays.asList( new TagEntry( "a.Class1", "t.Tag1" ) ) );
+        Set<TagAttribute> attributes = new HashSet<>( Arrays.asList( new TagAttribute( "a.Class1", "t.Tag1", "topic", "orders:v1=100%" ),
+                                                                     new TagAttribute( "a.Class1", "", TagAttribute.FACTORY, "a.Class1$$TagFactory" ) ) );
+        for ( TagFileFormat format : TagFileFormat.values() ) {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            TagUtils.writeClassTags( entries, attributes, os, format );
+
+            // Attribute lines are invisible to the entry reader.
+            Assert.assertEquals( entries, TagUtils.loadEntries( new ByteArrayInputStream( os.toByteArray() ) ) );
+            Assert.assertEquals( attributes, TagUtils.loadAttributes( new ByteArrayInputStream( os.toByteArray() ), new HashSet<>(), null, null ) );
+
+            // Class attributes are kept when filtering on tags.
+            Set<TagAttribute> filtered = TagUtils.loadAttributes( new ByteArrayInputStream( os.toByteArray() ), new HashSet<>(), Collections.singleton( "t.Tag2" ), null );
+            Assert.assertEquals( 1, filtered.size() );
+            Assert.assertEquals( TagAttribute.FACTORY, filtered.iterator().next().getName() );
+        }
+    }
 }
@@ -0,0 +1,46 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.samples.attributes;
+
+import org.dbrain.tags.Tag;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Tag with attributes, not readable by reflection.
+ */
+@Tag
+@Target( ElementType.TYPE )
+@Retention( RetentionPolicy.CLASS )
+public @interface Handler {
+
+    enum Level { LOW, HIGH }
+
+    String topic();
+
+    int priority() default 5;
+
+    Level level() default Level.LOW;
+
+    Class<?> type() default Object.class;
+
+    String[] aliases() default {};
+
+}
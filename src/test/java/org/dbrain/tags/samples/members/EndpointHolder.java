@@ -0,0 +1,49 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.samples.members;
+
+import java.util.List;
+
+/**
+ * Class with tagged members, the class itself is not tagged.
+ */
+public class EndpointHolder {
+
+    @Endpoint
+    List<String> routes;
+
+    @Endpoint
+    EndpointHolder( long id ) {}
+
+    @Endpoint
+    public String get( int id, String[] names ) {
+        return null;
+    }
+
+    public void notTagged() {}
+
+    /**
+     * Nested class with a tagged member.
+     */
+    public static class Nested {
+
+        @Endpoint
+        private static <T extends Number> void update( T value, List<T> values ) {}
+
+    }
+
+}
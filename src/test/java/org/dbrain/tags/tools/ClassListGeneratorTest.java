@@ -0,0 +1,70 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.tools;
+
+import org.dbrain.tags.samples.inheritance.InheritedClass1;
+import org.dbrain.tags.samples.inheritance.InheritedClass2;
+import org.dbrain.tags.samples.inheritance.InheritedTag;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Test the class list generator on the test classes.
+ */
+public class ClassListGeneratorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String internalName( Class<?> c ) {
+        return c.getName().replace( '.', '/' );
+    }
+
+    @Test
+    public void testClassList() throws Exception {
+        String testClasses = Paths.get( getClass().getProtectionDomain().getCodeSource().getLocation().toURI() ).toString();
+        File output = new File( folder.getRoot(), "cds/classlist" );
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        int status = ClassListGenerator.run( new String[]{ "-t", InheritedTag.class.getName(), "-o", output.getPath(), testClasses }, new PrintStream( out ), System.err );
+        Assert.assertEquals( 0, status );
+        Assert.assertTrue( out.toString().startsWith( "Listed 3 classes" ) );
+
+        // Supertypes come first.
+        List<String> classes = Files.readAllLines( output.toPath(), StandardCharsets.UTF_8 );
+        Assert.assertEquals( Arrays.asList( "java/lang/Object", internalName( InheritedClass1.class ), internalName( InheritedClass2.class ) ), classes );
+    }
+
+    @Test
+    public void testUsage() throws Exception {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        Assert.assertEquals( 2, ClassListGenerator.run( new String[0], System.out, new PrintStream( err ) ) );
+        Assert.assertTrue( err.toString().contains( "Usage" ) );
+    }
+
+}
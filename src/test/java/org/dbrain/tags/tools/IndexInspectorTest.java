@@ -0,0 +1,109 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.tools;
+
+import org.dbrain.tags.impl.TagEntry;
+import org.dbrain.tags.impl.TagUtils;
+import org.dbrain.tags.samples.simple.SimpleTag;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Test the index inspector on the test classes.
+ */
+public class IndexInspectorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String testClasses() throws Exception {
+        return Paths.get( getClass().getProtectionDomain().getCodeSource().getLocation().toURI() ).toString();
+    }
+
+    @Test
+    public void testInspect() throws Exception {
+        URL url = Paths.get( testClasses() ).toUri().toURL();
+        Set<TagEntry> expected;
+        try ( InputStream is = new URL( url, TagUtils.TAG_FILE_NAME ).openStream() ) {
+            expected = TagUtils.loadEntries( is );
+        }
+        try ( URLClassLoader cl = new URLClassLoader( new URL[]{ url }, null ) ) {
+            List<IndexInspector.ResourceStats> stats = IndexInspector.inspect( cl, true );
+            Assert.assertEquals( 1, stats.size() );
+            IndexInspector.ResourceStats s = stats.get( 0 );
+            Assert.assertEquals( expected.size(), s.getEntries() );
+            Assert.assertEquals( 0, s.getDuplicates() );
+            Assert.assertEquals( expected.stream().filter( e -> e.getTagName().equals( SimpleTag.class.getName() ) ).count(),
+                                 (long) s.getTags().get( SimpleTag.class.getName() ) );
+            Assert.assertEquals( expected.stream().map( TagEntry::getClassName ).distinct().count(), s.getClassCount() );
+            Assert.assertEquals( 0, s.getFailedClasses() );
+        }
+    }
+
+    @Test
+    public void testDuplicates() throws Exception {
+        Path tagFile = Paths.get( testClasses(), TagUtils.TAG_FILE_NAME );
+        URL[] urls = new URL[2];
+        for ( int i = 0; i < urls.length; i++ ) {
+            File dir = folder.newFolder();
+            Path copy = dir.toPath().resolve( TagUtils.TAG_FILE_NAME );
+            Files.createDirectories( copy.getParent() );
+            Files.copy( tagFile, copy );
+            urls[i] = dir.toURI().toURL();
+        }
+        try ( URLClassLoader cl = new URLClassLoader( urls, null ) ) {
+            List<IndexInspector.ResourceStats> stats = IndexInspector.inspect( cl, false );
+            Assert.assertEquals( 2, stats.size() );
+            Assert.assertEquals( 0, stats.get( 0 ).getDuplicates() );
+            Assert.assertEquals( stats.get( 1 ).getEntries(), stats.get( 1 ).getDuplicates() );
+            Assert.assertEquals( 0, stats.get( 1 ).getClassCount() );
+        }
+    }
+
+    @Test
+    public void testJson() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertEquals( 0, IndexInspector.run( new String[]{ "--json", "-n", testClasses() }, new PrintStream( out ), System.err ) );
+        String json = out.toString().trim();
+        Assert.assertTrue( json, json.startsWith( "{\"resources\":[{\"url\":" ) );
+        Assert.assertTrue( json, json.contains( "\"" + SimpleTag.class.getName() + "\":" ) );
+        Assert.assertTrue( json, json.endsWith( "}}]}" ) );
+    }
+
+    @Test
+    public void testText() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertEquals( 0, IndexInspector.run( new String[]{ testClasses() }, new PrintStream( out ), System.err ) );
+        Assert.assertTrue( out.toString().contains( "Total: 1 tag files" ) );
+        Assert.assertTrue( out.toString().contains( " 0 failed" ) );
+    }
+
+}
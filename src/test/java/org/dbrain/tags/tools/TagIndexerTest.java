@@ -0,0 +1,90 @@
+/*
+ * Copyright [2015] [Eric Poitras]
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+
+package org.dbrain.tags.tools;
+
+import org.dbrain.tags.impl.TagEntry;
+import org.dbrain.tags.impl.TagUtils;
+import org.dbrain.tags.samples.simpleintf.SimpleIntf1;
+import org.dbrain.tags.samples.simpleintf.SimpleIntf2;
+import org.dbrain.tags.samples.simpleintf.SimpleIntfTag;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Test the command line indexer on a jar.
+ */
+public class TagIndexerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File createJar( Class<?>... classes ) throws Exception {
+        File jar = folder.newFile( "library.jar" );
+        try ( ZipOutputStream zos = new ZipOutputStream( new FileOutputStream( jar ) ) ) {
+            for ( Class<?> c : classes ) {
+                zos.putNextEntry( new ZipEntry( c.getName().replace( '.', '/' ) + ".class" ) );
+                try ( InputStream is = c.getResourceAsStream( c.getSimpleName() + ".class" ) ) {
+                    zos.write( TagUtils.readFully( is ) );
+                }
+                zos.closeEntry();
+            }
+        }
+        return jar;
+    }
+
+    @Test
+    public void testIndexJar() throws Exception {
+        File jar = createJar( SimpleIntfTag.class, SimpleIntf1.class, SimpleIntf2.class );
+        File output = new File( folder.getRoot(), "META-INF/tags" );
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        int status = TagIndexer.run( new String[]{ "-f", "compact", "-o", output.getPath(), jar.getPath() }, new PrintStream( out ), System.err );
+        Assert.assertEquals( 0, status );
+        Assert.assertTrue( out.toString().startsWith( "Indexed 2 entries" ) );
+
+        Set<TagEntry> entries;
+        try ( InputStream is = new FileInputStream( output ) ) {
+            entries = TagUtils.loadEntries( is );
+        }
+        Assert.assertEquals( new HashSet<>( Arrays.asList( new TagEntry( SimpleIntf1.class.getName(), SimpleIntfTag.class.getName() ),
+                                                           new TagEntry( SimpleIntf2.class.getName(), SimpleIntfTag.class.getName() ) ) ),
+                             entries );
+    }
+
+    @Test
+    public void testInvalidArguments() throws Exception {
+        PrintStream err = new PrintStream( new ByteArrayOutputStream() );
+        Assert.assertEquals( 2, TagIndexer.run( new String[0], System.out, err ) );
+        Assert.assertEquals( 2, TagIndexer.run( new String[]{ "--unknown", "x.jar" }, System.out, err ) );
+        Assert.assertEquals( 2, TagIndexer.run( new String[]{ "x.jar", "-o" }, System.out, err ) );
+        Assert.assertEquals( 1, TagIndexer.run( new String[]{ new File( folder.getRoot(), "missing.jar" ).getPath() }, System.out, err ) );
+    }
+}